@@ -0,0 +1,193 @@
+package org.engine;
+
+import static org.engine.PositionFactory.*;
+
+/**
+ * Attack information for one position, shared by move generation, legality, check detection and pruning.
+ * Search keeps one block per ply and rebinds it with {@link #update}. Each group of sets (checkers, pins,
+ * check squares, each side's attack maps) is computed lazily, at most once per position, so a node that
+ * returns early only pays for what it asked for.
+ */
+final class AttackInfo {
+  // Squares strictly between two aligned squares, and the full line through them; zero when not aligned
+  static final long[] BETWEEN = new long[64 * 64];
+  static final long[] LINE = new long[64 * 64];
+
+  static {
+    for (int a = 0; a < 64; ++a) {
+      for (int b = 0; b < 64; ++b) {
+        if (a == b) continue;
+        long ab = (1L << a) | (1L << b);
+        if ((MoveGenerator.rookAtt(0L, a) & (1L << b)) != 0) {
+          BETWEEN[a * 64 + b] = MoveGenerator.rookAtt(1L << b, a) & MoveGenerator.rookAtt(1L << a, b);
+          LINE[a * 64 + b] = (MoveGenerator.rookAtt(0L, a) & MoveGenerator.rookAtt(0L, b)) | ab;
+        } else if ((MoveGenerator.bishopAtt(0L, a) & (1L << b)) != 0) {
+          BETWEEN[a * 64 + b] = MoveGenerator.bishopAtt(1L << b, a) & MoveGenerator.bishopAtt(1L << a, b);
+          LINE[a * 64 + b] = (MoveGenerator.bishopAtt(0L, a) & MoveGenerator.bishopAtt(0L, b)) | ab;
+        }
+      }
+    }
+  }
+
+  private long[] bb;
+  private long key;
+  private boolean checkersReady;
+  private boolean pinsReady;
+  private boolean checkSquaresReady;
+  private boolean whiteMapsReady;
+  private boolean blackMapsReady;
+  private boolean threatsReady;
+
+  private boolean white;
+  private long own;
+  private long enemy;
+  private long occ;
+  private int kingSq;
+  private int enemyKingSq;
+
+  private long checkers;
+  private long pinned;
+  private long discoverers;
+  private final long[] checkSquares = new long[6];
+
+  private final long[] attacksFrom = new long[64];
+  private final long[] attackedByPiece = new long[12];
+  private long attackedByWhite;
+  private long attackedByBlack;
+  private long threatened;
+
+  /** Binds this block to bb; cached sets survive as long as the position (key and occupancy) is unchanged. */
+  AttackInfo update(long[] bb) {
+    long w = bb[WP] | bb[WN] | bb[WB] | bb[WR] | bb[WQ] | bb[WK];
+    long b = bb[BP] | bb[BN] | bb[BB] | bb[BR] | bb[BQ] | bb[BK];
+    boolean stm = whiteToMove(bb);
+    if (this.bb == bb && key == bb[HASH] && occ == (w | b) && white == stm) return this;
+
+    this.bb = bb;
+    key = bb[HASH];
+    white = stm;
+    own = stm ? w : b;
+    enemy = stm ? b : w;
+    occ = w | b;
+    kingSq = Long.numberOfTrailingZeros(bb[stm ? WK : BK]);
+    enemyKingSq = Long.numberOfTrailingZeros(bb[stm ? BK : WK]);
+    checkersReady = false;
+    pinsReady = false;
+    checkSquaresReady = false;
+    whiteMapsReady = false;
+    blackMapsReady = false;
+    threatsReady = false;
+    return this;
+  }
+
+  long occupancy() { return occ; }
+  long own() { return own; }
+  long enemy() { return enemy; }
+  int kingSquare() { return kingSq; }
+  int enemyKingSquare() { return enemyKingSq; }
+
+  /** Enemy pieces giving check to the side to move. */
+  long checkers() { if (!checkersReady) computeCheckers(); return checkers; }
+
+  /** Pieces of the side to move pinned to their own king. */
+  long pinned() { if (!pinsReady) computePins(); return pinned; }
+
+  /** Pieces of the side to move whose move can uncover check on the enemy king. */
+  long discoverers() { if (!pinsReady) computePins(); return discoverers; }
+
+  /** Squares from which a piece of the given type (0..5) of the side to move would check the enemy king. */
+  long checkSquares(int type) { if (!checkSquaresReady) computeCheckSquares(); return checkSquares[type]; }
+
+  /** Per-square attack sets of the pieces of the given side, indexed by square. */
+  long[] attacksFrom(boolean side) { ensureMaps(side); return attacksFrom; }
+
+  long attackedBy(boolean byWhite) { ensureMaps(byWhite); return byWhite ? attackedByWhite : attackedByBlack; }
+
+  long attackedByPiece(int piece) { ensureMaps(piece < 6); return attackedByPiece[piece]; }
+
+  /** Pieces of the side to move attacked by a lower-valued enemy piece, or attacked and undefended. */
+  long threatened() { if (!threatsReady) computeThreats(); return threatened; }
+
+  private void computeCheckers() {
+    int tP = white ? BP : WP, tN = white ? BN : WN, tB = white ? BB : WB, tR = white ? BR : WR, tQ = white ? BQ : WQ;
+    long pawnCheckers = (white ? MoveGenerator.PAWN_ATK_W[kingSq] : MoveGenerator.PAWN_ATK_B[kingSq]) & bb[tP];
+    checkers = pawnCheckers
+            | (MoveGenerator.KNIGHT_ATK[kingSq] & bb[tN])
+            | (MoveGenerator.bishopAtt(occ, kingSq) & (bb[tB] | bb[tQ]))
+            | (MoveGenerator.rookAtt(occ, kingSq) & (bb[tR] | bb[tQ]));
+    checkersReady = true;
+  }
+
+  private void computePins() {
+    int tB = white ? BB : WB, tR = white ? BR : WR, tQ = white ? BQ : WQ;
+    int uB = white ? WB : BB, uR = white ? WR : BR, uQ = white ? WQ : BQ;
+    pinned = blockers(kingSq, bb[tR] | bb[tQ], bb[tB] | bb[tQ]) & own;
+    discoverers = blockers(enemyKingSq, bb[uR] | bb[uQ], bb[uB] | bb[uQ]) & own;
+    pinsReady = true;
+  }
+
+  private void computeCheckSquares() {
+    long diag = MoveGenerator.bishopAtt(occ, enemyKingSq);
+    long ortho = MoveGenerator.rookAtt(occ, enemyKingSq);
+    checkSquares[0] = white ? MoveGenerator.PAWN_ATK_B[enemyKingSq] : MoveGenerator.PAWN_ATK_W[enemyKingSq];
+    checkSquares[1] = MoveGenerator.KNIGHT_ATK[enemyKingSq];
+    checkSquares[2] = diag;
+    checkSquares[3] = ortho;
+    checkSquares[4] = diag | ortho;
+    checkSquares[5] = 0L;
+    checkSquaresReady = true;
+  }
+
+  private long blockers(int sq, long rookSnipers, long bishopSnipers) {
+    long snipers = (MoveGenerator.rookAtt(0L, sq) & rookSnipers) | (MoveGenerator.bishopAtt(0L, sq) & bishopSnipers);
+    long result = 0L;
+    while (snipers != 0) {
+      int s = Long.numberOfTrailingZeros(snipers);
+      snipers &= snipers - 1;
+      long between = BETWEEN[s * 64 + sq] & occ;
+      if (between != 0 && (between & (between - 1)) == 0) result |= between;
+    }
+    return result;
+  }
+
+  private void ensureMaps(boolean side) {
+    if (side ? whiteMapsReady : blackMapsReady) return;
+    int first = side ? WP : BP;
+    long byside = 0L;
+    for (int p = first; p < first + 6; ++p) {
+      long all = 0L;
+      for (long pieces = bb[p]; pieces != 0; pieces &= pieces - 1) {
+        int sq = Long.numberOfTrailingZeros(pieces);
+        long a = switch (p) {
+          case WP -> MoveGenerator.PAWN_ATK_W[sq];
+          case BP -> MoveGenerator.PAWN_ATK_B[sq];
+          case WN, BN -> MoveGenerator.KNIGHT_ATK[sq];
+          case WB, BB -> MoveGenerator.bishopAtt(occ, sq);
+          case WR, BR -> MoveGenerator.rookAtt(occ, sq);
+          case WQ, BQ -> MoveGenerator.queenAtt(occ, sq);
+          default -> MoveGenerator.KING_ATK[sq];
+        };
+        attacksFrom[sq] = a;
+        all |= a;
+      }
+      attackedByPiece[p] = all;
+      byside |= all;
+    }
+    if (side) { attackedByWhite = byside; whiteMapsReady = true; }
+    else      { attackedByBlack = byside; blackMapsReady = true; }
+  }
+
+  private void computeThreats() {
+    ensureMaps(true);
+    ensureMaps(false);
+    int t = white ? 6 : 0, u = white ? 0 : 6;
+    long byThem = white ? attackedByBlack : attackedByWhite;
+    long byUs = white ? attackedByWhite : attackedByBlack;
+    long ownPieces = own & ~bb[u + 5];
+    threatened = (attackedByPiece[t] & ownPieces & ~bb[u])
+            | ((attackedByPiece[t + 1] | attackedByPiece[t + 2]) & (bb[u + 3] | bb[u + 4]))
+            | (attackedByPiece[t + 3] & bb[u + 4])
+            | (byThem & ownPieces & ~byUs);
+    threatsReady = true;
+  }
+}
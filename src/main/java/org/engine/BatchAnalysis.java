@@ -0,0 +1,260 @@
+package org.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Searches a file of positions (FEN or EPD, one per line, "-" for stdin) on a pool of workers and writes one JSON
+ * object per position to stdout. Each worker allocates its searcher, transposition tables and board once for the
+ * whole run. Histories are reset before every position, but by default the hash tables are kept, which is faster
+ * but lets earlier positions on the same worker shape a result; since positions go to whichever worker is free,
+ * output can then differ between runs with more than one worker. With fresh the tables are cleared as well and
+ * every result depends only on its position and the limits. Results come out in input order unless unordered is
+ * given, in which case they are written as soon as they finish. Blank lines and lines starting with # are
+ * skipped; an EPD id operation is copied to the output. The throughput summary goes to stderr.
+ */
+final class BatchAnalysis {
+    // Positions read but not yet written; bounds the reorder buffer when one position takes much longer than the rest
+    private static final int WINDOW_PER_WORKER = 64;
+
+    private record Task(long index, String line) {}
+    private record Done(long index, String json, long nodes) {}
+
+    private static final Task END = new Task(-1, null);
+
+    private final Search.Limits limits;
+    private final long hashMegaBytes;
+    private final int workerCount;
+    private final boolean ordered;
+    private final boolean fresh;
+    private final SPSA spsa = new SPSA();
+    private final BlockingQueue<Task> tasks;
+    private final BlockingQueue<Done> done = new LinkedBlockingQueue<>();
+    private final Semaphore window;
+
+    private BatchAnalysis(Search.Limits limits, int workerCount, long hashMegaBytes, boolean ordered, boolean fresh) {
+        this.limits = limits;
+        this.workerCount = workerCount;
+        this.hashMegaBytes = hashMegaBytes;
+        this.ordered = ordered;
+        this.fresh = fresh;
+        this.tasks = new ArrayBlockingQueue<>(workerCount * WINDOW_PER_WORKER);
+        this.window = new Semaphore(workerCount * WINDOW_PER_WORKER);
+    }
+
+    static void run(String source, Search.Limits limits, int workerCount, long hashMegaBytes, boolean ordered, boolean fresh)
+            throws IOException, InterruptedException {
+        BufferedReader in = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8);
+        Eval.initializeEval();
+        new BatchAnalysis(limits, workerCount, hashMegaBytes, ordered, fresh).analyze(in);
+    }
+
+    private void analyze(BufferedReader in) throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        for (int w = 0; w < workerCount; w++) {
+            Thread t = new Thread(this::work, "analyze-worker-" + (w + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread reader = new Thread(() -> read(in), "analyze-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        Map<Long, Done> pending = new HashMap<>();
+        long next = 0, count = 0, nodes = 0;
+        int finished = 0;
+        while (finished < workerCount) {
+            Done d = done.take();
+            do {
+                if (d.index() < 0) {
+                    finished++;
+                } else if (!ordered) {
+                    write(out, d);
+                } else {
+                    pending.put(d.index(), d);
+                    Done ready;
+                    while ((ready = pending.remove(next)) != null) {
+                        write(out, ready);
+                        next++;
+                    }
+                }
+                if (d.index() >= 0) {
+                    count++;
+                    nodes += d.nodes();
+                }
+            } while ((d = done.poll()) != null);
+            // Flush whenever the workers are ahead of us so results stream instead of arriving in 64 KB bursts
+            out.flush();
+        }
+        out.flush();
+
+        long ms = Math.max(1, (System.nanoTime() - t0) / 1_000_000);
+        System.err.printf("info string analyzed %d positions in %d ms on %d workers: %.1f positions/s, %d nps%n",
+                count, ms, workerCount, count * 1000.0 / ms, nodes * 1000 / ms);
+    }
+
+    private void write(BufferedWriter out, Done d) throws IOException {
+        out.write(d.json());
+        out.newLine();
+        window.release();
+    }
+
+    private void read(BufferedReader in) {
+        long index = 0;
+        try (in) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                window.acquire();
+                tasks.put(new Task(index++, line));
+            }
+        } catch (IOException e) {
+            System.err.println("info string error reading positions: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (int w = 0; w < workerCount; w++) {
+                try {
+                    tasks.put(END);
+                } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    private void work() {
+        PositionFactory pos = new PositionFactory();
+        long[] board = new long[PositionFactory.BB_LEN];
+        TranspositionTable tt = new TranspositionTable();
+        tt.init(hashMegaBytes);
+        TranspositionTable qtt = TranspositionTable.newQuiescenceTable();
+        Search search = new Search(spsa, tt, qtt);
+        try {
+            Task task;
+            while ((task = tasks.take()) != END) {
+                search.newGame();
+                if (fresh) {
+                    tt.clear();
+                    qtt.clear();
+                }
+                done.put(analyzeOne(task, pos, board, search));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.add(new Done(-1, null, 0));
+        }
+    }
+
+    private Done analyzeOne(Task task, PositionFactory pos, long[] board, Search search) {
+        String[] fields = task.line().split("\\s+", 7);
+        String fen = fenOf(fields);
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"index\":").append(task.index()).append(",\"fen\":");
+        quote(sb, fen);
+        String id = epdId(fields);
+        if (id != null) {
+            sb.append(",\"id\":");
+            quote(sb, id);
+        }
+        try {
+            pos.fromFen(fen, board);
+            if (Long.bitCount(board[PositionFactory.WK]) != 1 || Long.bitCount(board[PositionFactory.BK]) != 1) {
+                throw new IllegalArgumentException("position needs one king per side");
+            }
+            long t0 = System.nanoTime();
+            Search.Result res = search.search(board, copy(limits), null);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            int best = UCI.bestMove(res, board);
+
+            sb.append(",\"bestmove\":");
+            quote(sb, best == MoveFactory.MOVE_NONE ? null : MoveFactory.moveToUci(best));
+            if (UCI.isMateScore(res.scoreCp)) sb.append(",\"score\":{\"mate\":").append(UCI.mateIn(res.scoreCp)).append('}');
+            else sb.append(",\"score\":{\"cp\":").append(res.scoreCp).append('}');
+            sb.append(",\"depth\":").append(res.depth).append(",\"pv\":[");
+            List<Integer> pv = res.pv;
+            for (int i = 0; i < pv.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append('"').append(MoveFactory.moveToUci(pv.get(i))).append('"');
+            }
+            sb.append("],\"nodes\":").append(search.nodes()).append(",\"time_ms\":").append(ms).append('}');
+            return new Done(task.index(), sb.toString(), search.nodes());
+        } catch (RuntimeException e) {
+            sb.append(",\"error\":");
+            quote(sb, e.getMessage() == null ? e.toString() : e.getMessage());
+            return new Done(task.index(), sb.append('}').toString(), 0);
+        }
+    }
+
+    private static Search.Limits copy(Search.Limits template) {
+        Search.Limits l = new Search.Limits();
+        l.depth = template.depth;
+        l.nodes = template.nodes;
+        l.softMs = template.softMs;
+        l.hardMs = template.hardMs;
+        return l;
+    }
+
+    // The first four fields are the position, then either the move counters or EPD operations
+    private static int positionFields(String[] fields) {
+        if (fields.length <= 4) return fields.length;
+        return fields.length >= 6 && isNumber(fields[4]) && isNumber(fields[5]) ? 6 : 4;
+    }
+
+    private static String fenOf(String[] fields) {
+        return String.join(" ", Arrays.copyOf(fields, positionFields(fields)));
+    }
+
+    private static String epdId(String[] fields) {
+        int first = positionFields(fields);
+        if (first >= fields.length) return null;
+        String ops = String.join(" ", Arrays.copyOfRange(fields, first, fields.length));
+        for (String op : ops.split(";")) {
+            op = op.trim();
+            if (op.startsWith("id ")) {
+                String v = op.substring(3).trim();
+                if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\"")) v = v.substring(1, v.length() - 1);
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) if (!Character.isDigit(s.charAt(i))) return false;
+        return true;
+    }
+
+    private static void quote(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,145 @@
+package org.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Static evaluation of many positions at once with the loaded big network. Positions are split into slices
+ * across worker threads; each slice refreshes accumulators for a block of positions, groups the block by
+ * output bucket and runs the output layer one hidden-layer tile at a time, so a bucket's weight tile stays in
+ * L1 while it is applied to every position of the group. Scores are side-to-move centipawns, identical to
+ * {@link Eval#evaluate} without the small net. Each FEN is parsed into the worker's one board just before its
+ * accumulators are refreshed, so memory per worker is the accumulator block rather than a board per position.
+ */
+final class BatchEval {
+  private static final int BLOCK = 64;
+  private static final int TILE = 256;
+  private static final int SLICE = 1024;
+  private static final int CHUNK = 1 << 16;
+
+  static final int INVALID = Integer.MIN_VALUE;
+
+  private BatchEval() {}
+
+  /**
+   * Scores a FEN file, one line per position, writing one score (or "invalid") per line to out, and returns the
+   * number of lines written. Once cancel is set it stops within the chunk in progress, so the output is a prefix
+   * of the input.
+   */
+  static long run(Path in, Path out, AtomicBoolean cancel) throws IOException {
+    long count = 0;
+    try (BufferedReader reader = Files.newBufferedReader(in, StandardCharsets.UTF_8);
+         BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+      List<String> fens = new ArrayList<>(CHUNK);
+      String line;
+      while (!cancel.get()) {
+        line = reader.readLine();
+        if (line != null) fens.add(line.trim());
+        if (fens.size() == CHUNK || (line == null && !fens.isEmpty())) {
+          int[] scores = evaluateFens(fens, cancel);
+          for (int score : scores) {
+            writer.write(score == INVALID ? "invalid" : Integer.toString(score));
+            writer.newLine();
+          }
+          count += scores.length;
+          fens.clear();
+        }
+        if (line == null) break;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Scores fens in parallel slices. Once cancel is set, slices not yet started are skipped and the result is cut
+   * back to the slices finished in order from the first, so every returned score belongs to a scored position.
+   */
+  static int[] evaluateFens(List<String> fens, AtomicBoolean cancel) {
+    int[] scores = new int[fens.size()];
+    int slices = (fens.size() + SLICE - 1) / SLICE;
+    boolean[] finished = new boolean[slices];
+    IntStream.range(0, slices).parallel().forEach(s -> {
+      if (cancel.get()) return;
+      int from = s * SLICE, to = Math.min(fens.size(), from + SLICE);
+      evaluateSlice(fens, from, to, scores);
+      finished[s] = true;
+    });
+    int done = 0;
+    while (done < slices && finished[done]) done++;
+    return done == slices ? scores : Arrays.copyOf(scores, Math.min(fens.size(), done * SLICE));
+  }
+
+  /** Scores fens[from..to) into out[from..to); unparsable or empty FENs score {@link #INVALID}. Runs on the calling thread. */
+  static void evaluateSlice(List<String> fens, int from, int to, int[] out) {
+    PositionFactory pf = new PositionFactory();
+    long[] bb = new long[PositionFactory.BB_LEN];
+    Eval.Network n = Eval.network();
+    short[][] stm = new short[BLOCK][n.hiddenSize];
+    short[][] opp = new short[BLOCK][n.hiddenSize];
+    int[] bucket = new int[BLOCK];
+    int[] order = new int[BLOCK];
+    int[] sums = new int[BLOCK];
+
+    for (int start = from; start < to; start += BLOCK) {
+      int size = Math.min(BLOCK, to - start);
+      int valid = 0;
+      for (int i = 0; i < size; i++) {
+        if (!parse(pf, fens.get(start + i), bb)) {
+          out[start + i] = INVALID;
+          continue;
+        }
+        boolean white = PositionFactory.whiteToMove(bb);
+        short[] w = white ? stm[i] : opp[i], b = white ? opp[i] : stm[i];
+        Eval.refresh(n, w, b, bb);
+        bucket[i] = Eval.outputBucket(n, bb);
+        sums[i] = 0;
+        order[valid++] = i;
+      }
+      // Group by bucket so each weight tile is loaded once per group
+      for (int i = 1; i < valid; i++) {
+        int v = order[i], j = i;
+        while (j > 0 && bucket[order[j - 1]] > bucket[v]) { order[j] = order[j - 1]; j--; }
+        order[j] = v;
+      }
+      for (int g = 0; g < valid; ) {
+        int b = bucket[order[g]], end = g;
+        while (end < valid && bucket[order[end]] == b) end++;
+        short[] stmWeights = n.l2Weights[b][0], oppWeights = n.l2Weights[b][1];
+        for (int t = 0; t < n.hiddenSize; t += TILE) {
+          int tileEnd = Math.min(n.hiddenSize, t + TILE);
+          for (int k = g; k < end; k++) {
+            int p = order[k];
+            sums[p] += Kernels.screluDot(stm[p], stmWeights, t, tileEnd, n.qa) + Kernels.screluDot(opp[p], oppWeights, t, tileEnd, n.qa);
+          }
+        }
+        for (int k = g; k < end; k++) {
+          int p = order[k];
+          int output = sums[p] / n.qa;
+          output += n.l2Biases[b];
+          output *= n.scale;
+          out[start + p] = output / (n.qa * n.qb);
+        }
+        g = end;
+      }
+    }
+  }
+
+  private static boolean parse(PositionFactory pf, String fen, long[] bb) {
+    if (fen.isEmpty()) return false;
+    try {
+      pf.fromFen(fen, bb);
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+}
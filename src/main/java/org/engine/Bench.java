@@ -2,7 +2,7 @@ package org.engine;
 
 public final class Bench {
 
-	private static final String[] BENCH_FENS = new String[]{
+	static final String[] BENCH_FENS = new String[]{
 		"r3k2r/2pb1ppp/2pp1q2/p7/1nP1B3/1P2P3/P2N1PPP/R2QK2R w KQkq a6 0 14",
         "4rrk1/2p1b1p1/p1p3q1/4p3/2P2n1p/1P1NR2P/PB3PP1/3R1QK1 b - - 2 24",
         "r3qbrk/6p1/2b2pPp/p3pP1Q/PpPpP2P/3P1B2/2PB3K/R5R1 w - - 16 42",
@@ -64,6 +64,37 @@ public final class Bench {
 		System.out.println("benchok");
 	}
 
+	public static void runSearch(int depth) {
+		Eval.initializeEval();
+		TranspositionTable.TT.init(16);
+		PositionFactory pf = new PositionFactory();
+		Search search = new Search(new SPSA());
+		Search.Limits limits = new Search.Limits();
+		limits.depth = depth;
+
+		long totalNodes = 0L;
+		long totalTimeMs = 0L;
+
+		for (String fen : BENCH_FENS) {
+			long[] board = pf.fromFen(fen);
+			TranspositionTable.TT.clear();
+			TranspositionTable.QTT.clear();
+			search.newGame();
+			long t0 = System.nanoTime();
+			Search.Result res = search.search(board, limits, null);
+			totalTimeMs += (System.nanoTime() - t0) / 1_000_000L;
+			totalNodes += res.nodes;
+		}
+
+		long totalNps = totalTimeMs > 0 ? (1000L * totalNodes) / totalTimeMs : 0L;
+		System.out.printf("Nodes searched: %d%n", totalNodes);
+		System.out.printf("Time to depth %d: %d ms%n", depth, totalTimeMs);
+		System.out.println("Eval cache: " + search.evalCacheStats());
+		System.out.println("Searcher memory: " + search.workingSet());
+		System.out.printf("nps: %d%n", totalNps);
+		System.out.println("benchok");
+	}
+
 	private static long perft(PositionFactory pf, MoveGenerator gen, long[] board, int depth) {
 		if (depth == 0) return 1L;
 		long nodes = 0L;
@@ -0,0 +1,393 @@
+package org.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search spread over worker processes on this host. Each worker is an ordinary Catalan UCI engine started with
+ * this JVM's command line and driven over its stdin and stdout pipes, so workers can be pinned to different NUMA
+ * nodes by the OS or by a wrapper. Workers exchange their work through one shared hash file that the coordinator
+ * creates and every worker attaches to.
+ * <p>
+ * On go the coordinator runs a short search of its own to find the likely best root move. That move and its
+ * subtree go to a worker of their own and the remaining legal moves are dealt round-robin to the other workers,
+ * each of which searches its share with searchmoves. The other workers only have to show whether one of their moves
+ * beats the best score so far, so they search with a null window at it (go rootbound) and report upper bounds until
+ * one does; the bound follows the best score as depths complete. A depth is reported once every worker still
+ * searching has completed it, with the best exact score and PV, and the best move comes from the deepest such depth.
+ */
+final class ClusterSearch {
+    private static final int ORDER_DEPTH = 6;
+    private static final long ORDER_MAX_MS = 200;
+    private static final long START_TIMEOUT_MS = 30_000;
+    private static final long QUIT_TIMEOUT_MS = 2_000;
+    private static final int MATE_VALUE = 32000;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+    private final Search orderer = new Search(new SPSA());
+    private final PositionFactory pos = new PositionFactory();
+    private final MoveGenerator moveGen = new MoveGenerator();
+    private final Path hashFile;
+    private volatile List<Worker> searching = List.of();
+    private volatile boolean stopRequested;
+
+    private record Message(int worker, String line) {}
+
+    // Latest report a worker gave for one depth
+    private record Report(int depth, int seldepth, long nodes, int score, boolean upperBound, List<String> pv) {}
+
+    ClusterSearch(int count, long hashMegaBytes) throws IOException {
+        hashFile = Files.createTempFile("catalan-cluster-", ".hash");
+        hashFile.toFile().deleteOnExit();
+        Files.delete(hashFile); // share creates it at the requested size
+        TranspositionTable.TT.share(hashFile, hashMegaBytes);
+        List<String> command = workerCommand();
+        for (int i = 0; i < count; i++) workers.add(new Worker(i, command));
+        broadcast("uci");
+        broadcast("setoption name SharedHashFile value " + hashFile);
+        sync();
+    }
+
+    String describe() {
+        return workers.size() + " worker processes sharing hash " + hashFile;
+    }
+
+    private static List<String> workerCommand() {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> cmd = new ArrayList<>();
+        cmd.add(java);
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(Main.class.getName());
+        return cmd;
+    }
+
+    /** Passes a command such as setoption to every worker and waits until they have all applied it. */
+    void forward(String line) throws IOException {
+        broadcast(line);
+        sync();
+    }
+
+    void newGame() throws IOException {
+        TranspositionTable.TT.clear();
+        orderer.newGame();
+        forward("ucinewgame");
+    }
+
+    void stop() {
+        stopRequested = true;
+        orderer.stop();
+        for (Worker w : searching) w.send("stop");
+    }
+
+    /**
+     * Searches root over the workers. goCmd is the go command as received; its searchmoves, if any, are replaced
+     * by each worker's share.
+     */
+    Search.Result search(long[] root, String goCmd, Search.Limits limits, Search.InfoHandler info) {
+        long start = System.currentTimeMillis();
+        stopRequested = false;
+        Search.Result result = new Search.Result();
+        List<Integer> moves = legalMoves(root, limits.searchMoves);
+        if (moves.isEmpty()) return result;
+
+        // Short local search for the move that deserves a worker to itself
+        Search.Limits order = new Search.Limits();
+        order.depth = limits.depth > 0 ? Math.min(limits.depth, ORDER_DEPTH) : ORDER_DEPTH;
+        order.softMs = order.hardMs = limits.hardMs > 0 ? Math.max(1, Math.min(ORDER_MAX_MS, limits.softMs / 20)) : ORDER_MAX_MS;
+        order.searchMoves = limits.searchMoves;
+        Search.Result ordered = orderer.search(root.clone(), order, null);
+        int first = ordered.bestMove;
+        int bound = ordered.depth > 0 ? ordered.scoreCp : Search.NO_BOUND;
+        if (moves.remove(Integer.valueOf(first))) moves.add(0, first);
+
+        int active = Math.min(workers.size(), moves.size());
+        List<List<Integer>> shares = new ArrayList<>();
+        for (int w = 0; w < active; w++) shares.add(new ArrayList<>());
+        shares.get(0).add(moves.get(0));
+        for (int i = 1; i < moves.size(); i++) shares.get(active == 1 ? 0 : 1 + (i - 1) % (active - 1)).add(moves.get(i));
+
+        inbox.clear();
+        searching = workers.subList(0, active);
+        String position = "position fen " + pos.toFen(root);
+        String go = forwardedGo(goCmd, System.currentTimeMillis() - start);
+        boolean[] bounded = new boolean[active];
+        for (int w = 0; w < active; w++) {
+            StringBuilder sb = new StringBuilder(go);
+            bounded[w] = w > 0 && bound != Search.NO_BOUND;
+            if (bounded[w]) sb.append(" rootbound ").append(bound);
+            sb.append(" searchmoves");
+            for (int m : shares.get(w)) sb.append(' ').append(MoveFactory.moveToUci(m));
+            searching.get(w).send(position);
+            searching.get(w).send(sb.toString());
+        }
+        // A stop that came in before the workers were started
+        if (stopRequested) stop();
+
+        List<TreeMap<Integer, Report>> reports = new ArrayList<>();
+        for (int w = 0; w < active; w++) reports.add(new TreeMap<>());
+        String[] bestMoves = new String[active];
+        int finished = 0, reported = 0;
+        while (finished < active) {
+            Message msg;
+            try {
+                msg = inbox.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (msg.worker() >= active) continue;
+            if (msg.line().startsWith("bestmove")) {
+                if (bestMoves[msg.worker()] != null) continue;
+                String[] parts = msg.line().split("\\s+");
+                bestMoves[msg.worker()] = parts.length > 1 ? parts[1] : "0000";
+                finished++;
+            } else if (msg.line().startsWith("info depth")) {
+                Report r = parseInfo(msg.line());
+                if (r == null) continue;
+                reports.get(msg.worker()).put(r.depth(), r);
+                // A move beat the bound, so the worker is searching exactly now
+                if (!r.upperBound()) bounded[msg.worker()] = false;
+            } else {
+                continue;
+            }
+            int common = commonDepth(reports, bestMoves);
+            while (reported < common) {
+                reported++;
+                merge(root, reports, reported, result);
+                if (info != null) {
+                    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                    info.onInfo(reported, selDepth(reports, reported), result.nodes, result.nodes * 1000 / elapsed,
+                            TranspositionTable.TT.hashfull(), result.scoreCp, elapsed, result.pv);
+                }
+            }
+            if (reported > 0 && result.scoreCp != bound) {
+                bound = result.scoreCp;
+                for (int w = 1; w < active; w++) {
+                    if (bounded[w] && bestMoves[w] == null) searching.get(w).send("rootbound " + bound);
+                }
+            }
+        }
+        searching = List.of();
+
+        if (reported == 0) {
+            // Stopped before every worker finished an iteration: trust the worker holding the likely best move
+            List<Integer> fallback = bestMoves[0] == null ? List.of() : toMoves(root, List.of(bestMoves[0]));
+            result.bestMove = fallback.isEmpty() ? MoveFactory.MOVE_NONE : fallback.get(0);
+        }
+        return result;
+    }
+
+    // Deepest depth every worker has completed; a worker that has already finished only holds back depths past its last
+    private static int commonDepth(List<TreeMap<Integer, Report>> reports, String[] bestMoves) {
+        int common = Integer.MAX_VALUE, deepest = 0;
+        for (int w = 0; w < reports.size(); w++) {
+            int last = reports.get(w).isEmpty() ? 0 : reports.get(w).lastKey();
+            deepest = Math.max(deepest, last);
+            if (bestMoves[w] == null) common = Math.min(common, last);
+        }
+        return common == Integer.MAX_VALUE ? deepest : common;
+    }
+
+    private void merge(long[] root, List<TreeMap<Integer, Report>> reports, int depth, Search.Result result) {
+        Report best = null;
+        long nodes = 0;
+        for (TreeMap<Integer, Report> byDepth : reports) {
+            if (!byDepth.isEmpty()) nodes += byDepth.lastEntry().getValue().nodes();
+            var entry = byDepth.floorEntry(depth);
+            // An upper bound only says the worker's moves are no better than the bound it was given
+            if (entry == null || entry.getValue().upperBound()) continue;
+            if (best == null || entry.getValue().score() > best.score()) best = entry.getValue();
+        }
+        result.nodes = nodes;
+        if (best == null) return;
+        result.scoreCp = best.score();
+        result.pv = toMoves(root, best.pv());
+        result.bestMove = result.pv.isEmpty() ? MoveFactory.MOVE_NONE : result.pv.get(0);
+    }
+
+    private static int selDepth(List<TreeMap<Integer, Report>> reports, int depth) {
+        int sel = depth;
+        for (TreeMap<Integer, Report> byDepth : reports) {
+            var entry = byDepth.floorEntry(depth);
+            if (entry != null) sel = Math.max(sel, entry.getValue().seldepth());
+        }
+        return sel;
+    }
+
+    private static Report parseInfo(String line) {
+        StringTokenizer st = new StringTokenizer(line);
+        int depth = -1, seldepth = 0, score = 0;
+        boolean upperBound = false;
+        long nodes = 0;
+        List<String> pv = new ArrayList<>();
+        try {
+            while (st.hasMoreTokens()) {
+                String t = st.nextToken();
+                if ("depth".equals(t)) depth = Integer.parseInt(st.nextToken());
+                else if ("seldepth".equals(t)) seldepth = Integer.parseInt(st.nextToken());
+                else if ("nodes".equals(t)) nodes = Long.parseLong(st.nextToken());
+                else if ("score".equals(t)) {
+                    String kind = st.nextToken();
+                    int v = Integer.parseInt(st.nextToken());
+                    // Back to the internal mate score that UCI.infoLine turns into the same mate distance
+                    score = "mate".equals(kind) ? (v > 0 ? MATE_VALUE - (2 * v - 1) : -(MATE_VALUE + 2 * v)) : v;
+                } else if ("upperbound".equals(t)) {
+                    upperBound = true;
+                } else if ("pv".equals(t)) {
+                    while (st.hasMoreTokens()) pv.add(st.nextToken());
+                }
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return depth > 0 ? new Report(depth, seldepth, nodes, score, upperBound, pv) : null;
+    }
+
+    private List<Integer> toMoves(long[] root, List<String> uci) {
+        long[] board = root.clone();
+        List<Integer> moves = new ArrayList<>(uci.size());
+        for (String s : uci) {
+            if (!UCI.isUciMove(s)) break;
+            int move = UCI.uciToMove(board, s);
+            moves.add(move);
+            if (!pos.makeMoveInPlace(board, move, moveGen)) break;
+        }
+        return moves;
+    }
+
+    private List<Integer> legalMoves(long[] root, int[] allowed) {
+        int[] buf = new int[256];
+        int n = moveGen.generateCaptures(root, buf, 0);
+        n = moveGen.generateQuiets(root, buf, n);
+        List<Integer> moves = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int move = buf[i];
+            if (allowed != null && Arrays.stream(allowed).noneMatch(m -> m == move)) continue;
+            if (pos.makeMoveInPlace(root.clone(), move, moveGen)) moves.add(move);
+        }
+        return moves;
+    }
+
+    /**
+     * The go command for the workers: searchmoves dropped, and the time already spent ordering taken off the
+     * clocks and movetime so the workers do not spend the full budget on top of it.
+     */
+    private static String forwardedGo(String goCmd, long spentMs) {
+        StringBuilder sb = new StringBuilder();
+        boolean skipping = false;
+        String[] tokens = goCmd.trim().split("\\s+");
+        for (int i = 0; i < tokens.length; i++) {
+            String t = tokens[i];
+            if ("searchmoves".equals(t)) {
+                skipping = true;
+                continue;
+            }
+            if (skipping && UCI.isUciMove(t)) continue;
+            skipping = false;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(t);
+            if (("wtime".equals(t) || "btime".equals(t) || "movetime".equals(t)) && i + 1 < tokens.length) {
+                try {
+                    long ms = Long.parseLong(tokens[i + 1]);
+                    sb.append(' ').append(Math.max(1, ms - spentMs));
+                    i++;
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return sb.toString();
+    }
+
+    private void broadcast(String line) {
+        for (Worker w : workers) w.send(line);
+    }
+
+    // Every worker answers isready only after the commands sent before it
+    private void sync() throws IOException {
+        broadcast("isready");
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        boolean[] ready = new boolean[workers.size()];
+        int left = workers.size();
+        while (left > 0) {
+            Message msg;
+            try {
+                msg = inbox.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for cluster workers");
+            }
+            if (msg == null) throw new IOException("cluster workers did not answer isready");
+            if (msg.line().equals("readyok") && !ready[msg.worker()]) {
+                ready[msg.worker()] = true;
+                left--;
+            } else if (msg.line().startsWith("info string") && !msg.line().startsWith("info string slider") && !msg.line().startsWith("info string simd")) {
+                System.out.println("info string worker " + msg.worker() + ": " + msg.line().substring("info string ".length()));
+            }
+        }
+    }
+
+    void close() {
+        broadcast("quit");
+        for (Worker w : workers) {
+            try {
+                if (!w.process.waitFor(QUIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) w.process.destroyForcibly();
+            } catch (InterruptedException e) {
+                w.process.destroyForcibly();
+            }
+        }
+        TranspositionTable.TT.unshare();
+        try {
+            Files.deleteIfExists(hashFile);
+        } catch (IOException ignored) {}
+    }
+
+    private final class Worker {
+        private final Process process;
+        private final BufferedWriter in;
+
+        Worker(int index, List<String> command) throws IOException {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> {
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = out.readLine()) != null) inbox.add(new Message(index, line.trim()));
+                } catch (IOException ignored) {
+                    // Worker gone; its pipe is closed
+                }
+                // A worker that dies mid-search still ends it, with no move of its own
+                inbox.add(new Message(index, "bestmove 0000"));
+            }, "cluster-worker-" + index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized void send(String line) {
+            try {
+                in.write(line);
+                in.newLine();
+                in.flush();
+            } catch (IOException ignored) {
+                // A dead worker stops answering; sync reports it
+            }
+        }
+    }
+}
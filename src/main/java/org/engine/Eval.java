@@ -1,11 +1,13 @@
 package org.engine;
 
-import jdk.incubator.vector.ShortVector;
-import jdk.incubator.vector.VectorSpecies;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.engine.MoveFactory.*;
 import static org.engine.PositionFactory.*;
@@ -14,80 +16,276 @@ import static org.engine.Search.MAX_PLY;
 public final class Eval {
   private Eval() {}
 
-  private final static int[] screluPreCalc = new int[Short.MAX_VALUE - Short.MIN_VALUE + 1];
-
   static final String networkPath = "/net/network.bin";
+  static final String INTERNAL_NETWORK = "<internal>";
 
   public static final int INPUT_SIZE = 768;
-  public static final int HL_SIZE = 2048;
-  static final int OUTPUT_BUCKETS = 8;
-  private static final int DIVISOR = (32 + OUTPUT_BUCKETS - 1) / OUTPUT_BUCKETS;
-  private static final int QA = 255;
-  private static final int QB = 64;
-  private static final int QAB = QA * QB;
-  private static final int FV_SCALE = 400;
   private static final int COLOR = 384;
   private static final int PIECE = 64;
 
-  private static final short[][] L1_WEIGHTS = new short[INPUT_SIZE][HL_SIZE];
-  private static final short[] L1_BIASES = new short[HL_SIZE];
-  private static final short[][][] L2_WEIGHTS = new short[OUTPUT_BUCKETS][2][HL_SIZE];
-  private static final short[] L2_BIASES = new short[OUTPUT_BUCKETS];
+  // Network files may start with a header of eight little-endian ints:
+  // magic, version, feature set, hidden size, output buckets, QA, QB, output scale.
+  // Files without it are read with the shape of the original 768->2048x2->8 net.
+  // Version 2 adds a ninth int, the left shift that widens its int8 feature-transformer weights back to the
+  // accumulator's scale, and stores those weights as bytes; everything else stays int16.
+  private static final int NET_MAGIC = 0x4555_4E43; // "CNUE"
+  private static final int NET_VERSION = 1;
+  static final int NET_VERSION_INT8 = 2;
+  private static final int NET_HEADER_BYTES = 32;
+  private static final int NET_HEADER_BYTES_INT8 = 36;
+  static final int MAX_L1_SHIFT = 8;
+  static final int FEATURES_CHESS_768 = 0;
+  private static final int MAX_HIDDEN = 8192;
+  private static final int MAX_OUTPUT_BUCKETS = 32;
+
+  /** A loaded network. Immutable, so a new net is swapped in with one field write between searches. */
+  static final class Network {
+    final String name;
+    final int hiddenSize;
+    final int outputBuckets;
+    final int qa;
+    final int qb;
+    final int scale;
+    final int bucketDivisor;
+    // Exactly one of l1Weights and l1Weights8 is set
+    final short[][] l1Weights;
+    final byte[][] l1Weights8;
+    final int l1Shift;
+    final short[] l1Biases;
+    final short[][][] l2Weights;
+    final short[] l2Biases;
+    final int[] screlu;
+
+    Network(String name, int hiddenSize, int outputBuckets, int qa, int qb, int scale, boolean int8, int l1Shift) {
+      this.name = name;
+      this.hiddenSize = hiddenSize;
+      this.outputBuckets = outputBuckets;
+      this.qa = qa;
+      this.qb = qb;
+      this.scale = scale;
+      this.bucketDivisor = (32 + outputBuckets - 1) / outputBuckets;
+      this.l1Weights = int8 ? null : new short[INPUT_SIZE][hiddenSize];
+      this.l1Weights8 = int8 ? new byte[INPUT_SIZE][hiddenSize] : null;
+      this.l1Shift = l1Shift;
+      this.l1Biases = new short[hiddenSize];
+      this.l2Weights = new short[outputBuckets][2][hiddenSize];
+      this.l2Biases = new short[outputBuckets];
+      this.screlu = new int[Short.MAX_VALUE - Short.MIN_VALUE + 1];
+      for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++) {
+        int v = Math.max(0, Math.min(i, qa));
+        screlu[i - (int) Short.MIN_VALUE] = v * v;
+      }
+    }
+
+    String describe() {
+      String ft = l1Weights8 != null ? " int8 ft shift " + l1Shift : "";
+      return name + " " + INPUT_SIZE + "->" + hiddenSize + "x2->" + outputBuckets + " qa " + qa + " qb " + qb + " scale " + scale + ft;
+    }
+
+    /** Bytes of feature-transformer weights, the rows streamed by every accumulator update. */
+    long l1WeightBytes() {
+      return (long) INPUT_SIZE * hiddenSize * (l1Weights8 != null ? 1 : 2);
+    }
+  }
+
+  private static Network net;
 
-  private static final VectorSpecies<Short> SHORT_SPECIES = ShortVector.SPECIES_PREFERRED;
-  private static final int UPPER_BOUND = SHORT_SPECIES.loopBound(HL_SIZE);
+  // Optional narrow net used when material is lopsided enough that the big net's precision is wasted.
+  // The big net still decides when the small net's output is close to balanced.
+  static final String NO_NETWORK = "<none>";
+  private static Network smallNet;
+  private static final int SMALL_NET_MATERIAL_THRESHOLD = 900;
+  private static final int SMALL_NET_CONFIRM_MARGIN = 250;
 
   public static final class NNUEState {
     public int currentAccumulator;
-    public final short[][] whiteAccumulator;
-    public final short[][] blackAccumulator;
+    public short[][] whiteAccumulator;
+    public short[][] blackAccumulator;
+    short[][] smallWhiteAccumulator;
+    short[][] smallBlackAccumulator;
+    // Rows are allocated up to the deepest ply reached so far rather than for all MAX_PLY plies
+    private int hidden;
+    private int smallHidden;
+    private int allocatedPlies;
+    // Feature changes of the move into each ply as piece << 6 | square: two added, then two removed, -1 when unused.
+    // The big net applies them only when a ply is evaluated, catching up from the last ply it computed.
+    private final int[] changes = new int[MAX_PLY * 4];
+    private final boolean[] computed = new boolean[MAX_PLY];
 
     public NNUEState() {
-      this.whiteAccumulator = new short[MAX_PLY][HL_SIZE];
-      this.blackAccumulator = new short[MAX_PLY][HL_SIZE];
+      reshape(net != null ? net.hiddenSize : 0, smallNet != null ? smallNet.hiddenSize : 0);
       currentAccumulator = 0;
     }
+
+    // A state created before a different net was loaded is reshaped on its next refresh
+    private void ensureShape(int hidden, int smallHidden) {
+      if (hidden != this.hidden || smallHidden != this.smallHidden) reshape(hidden, smallHidden);
+    }
+
+    private void reshape(int hidden, int smallHidden) {
+      this.hidden = hidden;
+      this.smallHidden = smallHidden;
+      whiteAccumulator = new short[MAX_PLY][];
+      blackAccumulator = new short[MAX_PLY][];
+      smallWhiteAccumulator = new short[MAX_PLY][];
+      smallBlackAccumulator = new short[MAX_PLY][];
+      allocatedPlies = 0;
+      grow(0);
+    }
+
+    private void grow(int ply) {
+      for (int i = allocatedPlies; i <= ply; i++) {
+        whiteAccumulator[i] = new short[hidden];
+        blackAccumulator[i] = new short[hidden];
+        smallWhiteAccumulator[i] = new short[smallHidden];
+        smallBlackAccumulator[i] = new short[smallHidden];
+      }
+      allocatedPlies = Math.max(allocatedPlies, ply + 1);
+    }
+
+    int allocatedPlies() {
+      return allocatedPlies;
+    }
+
+    long bytes() {
+      return (long) allocatedPlies * 2 * 2 * (hidden + smallHidden);
+    }
   }
 
   public static void initializeEval() {
-    for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++) {
-      screluPreCalc[i - (int) Short.MIN_VALUE] = screlu((short) i);
+    try {
+      loadNetwork(INTERNAL_NETWORK);
+    } catch (IOException e) {
+      System.err.println("Failed to open NNUE file: " + e.getMessage());
     }
+  }
 
-    try (InputStream is = Eval.class.getResourceAsStream(networkPath)) {
-      try (DataInputStream dis = new DataInputStream(is)) {
-        for (int i = 0; i < INPUT_SIZE; i++) {
-          for (int j = 0; j < HL_SIZE; j++) {
-            L1_WEIGHTS[i][j] = Short.reverseBytes(dis.readShort());
-          }
-        }
-        for (int i = 0; i < HL_SIZE; i++) {
-          L1_BIASES[i] = Short.reverseBytes(dis.readShort());
-        }
+  /** Loads a network from the filesystem, or the bundled one for "&lt;internal&gt;"; the current net is kept on failure. */
+  public static String loadNetwork(String path) throws IOException {
+    net = openNetwork(path);
+    return net.describe();
+  }
 
-        for (int i = 0; i < HL_SIZE * 2; i++) {
-          for (int k = 0; k < OUTPUT_BUCKETS; k++) {
-            short v = Short.reverseBytes(dis.readShort());
-            if (i < HL_SIZE) {
-              L2_WEIGHTS[k][0][i] = v; // STM half
-            } else {
-              L2_WEIGHTS[k][1][i - HL_SIZE] = v; // NTM half
-            }
-          }
-        }
+  /** Reads a network from the filesystem, or the bundled one for "&lt;internal&gt;", without installing it. */
+  static Network openNetwork(String path) throws IOException {
+    boolean internal = path == null || path.isBlank() || path.equals(INTERNAL_NETWORK);
+    try (InputStream is = internal ? Eval.class.getResourceAsStream(networkPath) : Files.newInputStream(Path.of(path))) {
+      if (is == null) throw new IOException(networkPath + " missing");
+      return readNetwork(is.readAllBytes(), internal ? INTERNAL_NETWORK : path);
+    }
+  }
 
-        for (int i = 0; i < OUTPUT_BUCKETS; i++) {
-          L2_BIASES[i] = Short.reverseBytes(dis.readShort());
+  /** Loads the optional small network from the filesystem; "&lt;none&gt;" disables it. The current one is kept on failure. */
+  public static String loadSmallNetwork(String path) throws IOException {
+    if (path == null || path.isBlank() || path.equals(NO_NETWORK)) {
+      smallNet = null;
+      return NO_NETWORK;
+    }
+    try (InputStream is = Files.newInputStream(Path.of(path))) {
+      smallNet = readNetwork(is.readAllBytes(), path);
+      return smallNet.describe();
+    }
+  }
+
+  private static Network readNetwork(byte[] raw, String name) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+    int features = FEATURES_CHESS_768, hidden = 2048, buckets = 8, qa = 255, qb = 64, scale = 400;
+    boolean int8 = false;
+    int shift = 0;
+    if (raw.length >= NET_HEADER_BYTES && buf.getInt(0) == NET_MAGIC) {
+      int version = buf.getInt(4);
+      if (version != NET_VERSION && version != NET_VERSION_INT8) throw new IOException("unsupported network version " + version);
+      features = buf.getInt(8);
+      hidden = buf.getInt(12);
+      buckets = buf.getInt(16);
+      qa = buf.getInt(20);
+      qb = buf.getInt(24);
+      scale = buf.getInt(28);
+      buf.position(NET_HEADER_BYTES);
+      if (version == NET_VERSION_INT8) {
+        if (raw.length < NET_HEADER_BYTES_INT8) throw new IOException("network header truncated");
+        int8 = true;
+        shift = buf.getInt();
+        if (shift < 0 || shift > MAX_L1_SHIFT) throw new IOException("invalid int8 weight shift " + shift);
+      }
+    }
+    if (features != FEATURES_CHESS_768) throw new IOException("unsupported feature set " + features);
+    if (hidden <= 0 || hidden > MAX_HIDDEN || buckets <= 0 || buckets > MAX_OUTPUT_BUCKETS
+        || qa <= 0 || qa > Short.MAX_VALUE || qb <= 0 || scale <= 0) {
+      throw new IOException("invalid network shape " + hidden + "x" + buckets);
+    }
+    long needed = (int8 ? 1L : 2L) * INPUT_SIZE * hidden + 2L * (hidden + 2L * hidden * buckets + buckets);
+    if (buf.remaining() < needed) throw new IOException("network file too short for " + hidden + "x" + buckets);
+
+    Network n = new Network(name, hidden, buckets, qa, qb, scale, int8, shift);
+    for (int i = 0; i < INPUT_SIZE; i++) {
+      if (int8) {
+        buf.get(n.l1Weights8[i]);
+        continue;
+      }
+      for (int j = 0; j < hidden; j++) {
+        n.l1Weights[i][j] = buf.getShort();
+      }
+    }
+    for (int i = 0; i < hidden; i++) {
+      n.l1Biases[i] = buf.getShort();
+    }
+    for (int i = 0; i < hidden * 2; i++) {
+      for (int k = 0; k < buckets; k++) {
+        short v = buf.getShort();
+        if (i < hidden) {
+          n.l2Weights[k][0][i] = v; // STM half
+        } else {
+          n.l2Weights[k][1][i - hidden] = v; // NTM half
         }
-      } catch (IOException e) {
-        System.err.println("Failed to open NNUE file");
       }
-    } catch (IOException e) {
-      System.err.println("Failed to open NNUE file");
     }
+    for (int i = 0; i < buckets; i++) {
+      n.l2Biases[i] = buf.getShort();
+    }
+    return n;
+  }
+
+  /** Writes a network in the headered format read by {@link #readNetwork}. */
+  static void writeNetwork(Network n, OutputStream out) throws IOException {
+    boolean int8 = n.l1Weights8 != null;
+    int headerBytes = int8 ? NET_HEADER_BYTES_INT8 : NET_HEADER_BYTES;
+    ByteBuffer buf = ByteBuffer.allocate((int) (headerBytes + n.l1WeightBytes()
+        + 2L * (n.hiddenSize + 2L * n.hiddenSize * n.outputBuckets + n.outputBuckets))).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(NET_MAGIC).putInt(int8 ? NET_VERSION_INT8 : NET_VERSION).putInt(FEATURES_CHESS_768)
+        .putInt(n.hiddenSize).putInt(n.outputBuckets).putInt(n.qa).putInt(n.qb).putInt(n.scale);
+    if (int8) buf.putInt(n.l1Shift);
+    for (int i = 0; i < INPUT_SIZE; i++) {
+      if (int8) {
+        buf.put(n.l1Weights8[i]);
+        continue;
+      }
+      for (int j = 0; j < n.hiddenSize; j++) buf.putShort(n.l1Weights[i][j]);
+    }
+    for (int i = 0; i < n.hiddenSize; i++) buf.putShort(n.l1Biases[i]);
+    for (int i = 0; i < n.hiddenSize * 2; i++) {
+      for (int k = 0; k < n.outputBuckets; k++) {
+        buf.putShort(i < n.hiddenSize ? n.l2Weights[k][0][i] : n.l2Weights[k][1][i - n.hiddenSize]);
+      }
+    }
+    for (int i = 0; i < n.outputBuckets; i++) buf.putShort(n.l2Biases[i]);
+    out.write(buf.array());
   }
 
   public static void doMoveAccumulator(NNUEState nnueState, long[] bb, int move) {
+    int prevIdx = nnueState.currentAccumulator;
+    int nextIdx = prevIdx + 1;
+    if (nextIdx >= nnueState.allocatedPlies) nnueState.grow(nextIdx);
+    recordChanges(nnueState.changes, nextIdx * 4, bb, move);
+    nnueState.computed[nextIdx] = false;
+    if (smallNet != null) {
+      applyChanges(smallNet, nnueState.smallWhiteAccumulator[prevIdx], nnueState.smallBlackAccumulator[prevIdx],
+          nnueState.smallWhiteAccumulator[nextIdx], nnueState.smallBlackAccumulator[nextIdx], nnueState.changes, nextIdx * 4);
+    }
+    nnueState.currentAccumulator = nextIdx;
+  }
+
+  private static void recordChanges(int[] changes, int at, long[] bb, int move) {
     int from = MoveFactory.GetFrom(move);
     int to = MoveFactory.GetTo(move);
     int type = MoveFactory.GetFlags(move);
@@ -95,14 +293,8 @@ public final class Eval {
 
     int movingPiece = PositionFactory.pieceAt(bb, from);
     boolean white = movingPiece < 6;
-
-    int prevIdx = nnueState.currentAccumulator;
-    int nextIdx = prevIdx + 1;
-
-    short[] prevWhite = nnueState.whiteAccumulator[prevIdx];
-    short[] prevBlack = nnueState.blackAccumulator[prevIdx];
-    short[] nextWhite = nnueState.whiteAccumulator[nextIdx];
-    short[] nextBlack = nnueState.blackAccumulator[nextIdx];
+    int placedPiece = movingPiece;
+    int added2 = -1, removed2 = -1;
 
     if (type == MoveFactory.FLAG_CASTLE) {
       int rookFrom, rookTo, rookPiece = white ? WR : BR;
@@ -119,153 +311,103 @@ public final class Eval {
           rookFrom = 56; rookTo = 59;
         }
       }
-
-      addAddSubSubWeights(
-          nextWhite,
-          prevWhite,
-          L1_WEIGHTS[getIndexWhite(to, movingPiece)],
-          L1_WEIGHTS[getIndexWhite(rookTo, rookPiece)],
-          L1_WEIGHTS[getIndexWhite(from, movingPiece)],
-          L1_WEIGHTS[getIndexWhite(rookFrom, rookPiece)]
-      );
-
-      addAddSubSubWeights(
-          nextBlack,
-          prevBlack,
-          L1_WEIGHTS[getIndexBlack(to, movingPiece)],
-          L1_WEIGHTS[getIndexBlack(rookTo, rookPiece)],
-          L1_WEIGHTS[getIndexBlack(from, movingPiece)],
-          L1_WEIGHTS[getIndexBlack(rookFrom, rookPiece)]
-      );
-    } else if (type == MoveFactory.FLAG_PROMOTION) {
-      int promoIdx = (white ? WN : BN) + promo; // 0:N 1:B 2:R 3:Q mapping matches engine
-      long enemyOcc = white ? (bb[BP] | bb[BN] | bb[BB] | bb[BR] | bb[BQ] | bb[BK])
-                            : (bb[WP] | bb[WN] | bb[WB] | bb[WR] | bb[WQ] | bb[WK]);
-      boolean isCapture = ((enemyOcc >>> to) & 1L) != 0L;
-      if (isCapture) {
-        int captured = PositionFactory.pieceAt(bb, to);
-        addSubSubWeights(
-            nextWhite,
-            prevWhite,
-            L1_WEIGHTS[getIndexWhite(to, promoIdx)],
-            L1_WEIGHTS[getIndexWhite(from, movingPiece)],
-            L1_WEIGHTS[getIndexWhite(to, captured)]
-        );
-        addSubSubWeights(
-            nextBlack,
-            prevBlack,
-            L1_WEIGHTS[getIndexBlack(to, promoIdx)],
-            L1_WEIGHTS[getIndexBlack(from, movingPiece)],
-            L1_WEIGHTS[getIndexBlack(to, captured)]
-        );
-      } else {
-        addSubWeights(
-            nextWhite,
-            prevWhite,
-            L1_WEIGHTS[getIndexWhite(to, promoIdx)],
-            L1_WEIGHTS[getIndexWhite(from, movingPiece)]
-        );
-        addSubWeights(
-            nextBlack,
-            prevBlack,
-            L1_WEIGHTS[getIndexBlack(to, promoIdx)],
-            L1_WEIGHTS[getIndexBlack(from, movingPiece)]
-        );
-      }
+      added2 = rookPiece << 6 | rookTo;
+      removed2 = rookPiece << 6 | rookFrom;
     } else if (type == MoveFactory.FLAG_EN_PASSANT) {
       int capturedSq = white ? (to - 8) : (to + 8);
-      int captured = white ? BP : WP;
-      addSubSubWeights(
-          nextWhite,
-          prevWhite,
-          L1_WEIGHTS[getIndexWhite(to, movingPiece)],
-          L1_WEIGHTS[getIndexWhite(from, movingPiece)],
-          L1_WEIGHTS[getIndexWhite(capturedSq, captured)]
-      );
-      addSubSubWeights(
-          nextBlack,
-          prevBlack,
-          L1_WEIGHTS[getIndexBlack(to, movingPiece)],
-          L1_WEIGHTS[getIndexBlack(from, movingPiece)],
-          L1_WEIGHTS[getIndexBlack(capturedSq, captured)]
-      );
+      removed2 = (white ? BP : WP) << 6 | capturedSq;
     } else {
+      if (type == MoveFactory.FLAG_PROMOTION) placedPiece = (white ? WN : BN) + promo; // 0:N 1:B 2:R 3:Q mapping matches engine
       long enemyOcc = white ? (bb[BP] | bb[BN] | bb[BB] | bb[BR] | bb[BQ] | bb[BK])
                             : (bb[WP] | bb[WN] | bb[WB] | bb[WR] | bb[WQ] | bb[WK]);
-      boolean isCapture = ((enemyOcc >>> to) & 1L) != 0L;
-      if (isCapture) {
-        int captured = PositionFactory.pieceAt(bb, to);
-        addSubSubWeights(
-            nextWhite,
-            prevWhite,
-            L1_WEIGHTS[getIndexWhite(to, movingPiece)],
-            L1_WEIGHTS[getIndexWhite(from, movingPiece)],
-            L1_WEIGHTS[getIndexWhite(to, captured)]
-        );
-        addSubSubWeights(
-            nextBlack,
-            prevBlack,
-            L1_WEIGHTS[getIndexBlack(to, movingPiece)],
-            L1_WEIGHTS[getIndexBlack(from, movingPiece)],
-            L1_WEIGHTS[getIndexBlack(to, captured)]
-        );
-      } else {
-        addSubWeights(
-            nextWhite,
-            prevWhite,
-            L1_WEIGHTS[getIndexWhite(to, movingPiece)],
-            L1_WEIGHTS[getIndexWhite(from, movingPiece)]
-        );
-        addSubWeights(
-            nextBlack,
-            prevBlack,
-            L1_WEIGHTS[getIndexBlack(to, movingPiece)],
-            L1_WEIGHTS[getIndexBlack(from, movingPiece)]
-        );
-      }
+      if (((enemyOcc >>> to) & 1L) != 0L) removed2 = PositionFactory.pieceAt(bb, to) << 6 | to;
     }
 
-    nnueState.currentAccumulator = nextIdx;
+    changes[at] = placedPiece << 6 | to;
+    changes[at + 1] = added2;
+    changes[at + 2] = movingPiece << 6 | from;
+    changes[at + 3] = removed2;
+  }
+
+  private static void applyChanges(Network n, short[] prevWhite, short[] prevBlack, short[] nextWhite, short[] nextBlack, int[] changes, int at) {
+    int add = changes[at], add2 = changes[at + 1], sub = changes[at + 2], sub2 = changes[at + 3];
+    if (add2 >= 0) {
+      addAddSubSub(n, nextWhite, prevWhite, indexWhite(add), indexWhite(add2), indexWhite(sub), indexWhite(sub2));
+      addAddSubSub(n, nextBlack, prevBlack, indexBlack(add), indexBlack(add2), indexBlack(sub), indexBlack(sub2));
+    } else if (sub2 >= 0) {
+      addSubSub(n, nextWhite, prevWhite, indexWhite(add), indexWhite(sub), indexWhite(sub2));
+      addSubSub(n, nextBlack, prevBlack, indexBlack(add), indexBlack(sub), indexBlack(sub2));
+    } else {
+      addSub(n, nextWhite, prevWhite, indexWhite(add), indexWhite(sub));
+      addSub(n, nextBlack, prevBlack, indexBlack(add), indexBlack(sub));
+    }
+  }
+
+  // Brings the big net's accumulators up to ply from the last ply on the current line that it computed
+  private static void catchUp(NNUEState nnueState, int ply) {
+    int from = ply;
+    while (!nnueState.computed[from]) from--;
+    for (int p = from + 1; p <= ply; p++) {
+      applyChanges(net, nnueState.whiteAccumulator[p - 1], nnueState.blackAccumulator[p - 1],
+          nnueState.whiteAccumulator[p], nnueState.blackAccumulator[p], nnueState.changes, p * 4);
+      nnueState.computed[p] = true;
+    }
   }
 
   public static void undoMoveAccumulator(NNUEState nnueState) {
     nnueState.currentAccumulator--;
   }
 
+  // Kernels take their loop bounds from the accumulator length, so any loaded net width works
   public static void addSubWeights(short[] accumulatorTo, short[] accumulatorFrom, short[] addWeights, short[] subWeights) {
-    for (int i = 0; i < UPPER_BOUND; i += SHORT_SPECIES.length()) {
-      var a = ShortVector.fromArray(SHORT_SPECIES, accumulatorFrom, i);
-      var b = ShortVector.fromArray(SHORT_SPECIES, addWeights, i);
-      var c = ShortVector.fromArray(SHORT_SPECIES, subWeights, i);
-      a.add(b).sub(c).intoArray(accumulatorTo, i);
-    }
+    Kernels.addSub(accumulatorTo, accumulatorFrom, addWeights, subWeights);
   }
 
   public static void addSubSubWeights(short[] accumulatorTo, short[] accumulatorFrom, short[] addWeights, short[] subWeights, short[] subWeights2) {
-    for (int i = 0; i < UPPER_BOUND; i += SHORT_SPECIES.length()) {
-      var a = ShortVector.fromArray(SHORT_SPECIES, accumulatorFrom, i);
-      var b = ShortVector.fromArray(SHORT_SPECIES, addWeights, i);
-      var c = ShortVector.fromArray(SHORT_SPECIES, subWeights, i);
-      var d = ShortVector.fromArray(SHORT_SPECIES, subWeights2, i);
-      a.add(b).sub(c).sub(d).intoArray(accumulatorTo, i);
-    }
+    Kernels.addSubSub(accumulatorTo, accumulatorFrom, addWeights, subWeights, subWeights2);
   }
 
   public static void addAddSubSubWeights(short[] accumulatorTo, short[] accumulatorFrom, short[] addWeights, short[] addWeights2, short[] subWeights, short[] subWeights2) {
-    for (int i = 0; i < UPPER_BOUND; i += SHORT_SPECIES.length()) {
-      var a = ShortVector.fromArray(SHORT_SPECIES, accumulatorFrom, i);
-      var b = ShortVector.fromArray(SHORT_SPECIES, addWeights, i);
-      var c = ShortVector.fromArray(SHORT_SPECIES, addWeights2, i);
-      var d = ShortVector.fromArray(SHORT_SPECIES, subWeights, i);
-      var e = ShortVector.fromArray(SHORT_SPECIES, subWeights2, i);
-      a.add(b).add(c).sub(d).sub(e).intoArray(accumulatorTo, i);
+    Kernels.addAddSubSub(accumulatorTo, accumulatorFrom, addWeights, addWeights2, subWeights, subWeights2);
+  }
+
+  // Feature-level updates: int8 nets widen their rows inside the kernel, so only half the bytes are streamed
+  private static void addSub(Network n, short[] to, short[] from, int add, int sub) {
+    if (n.l1Weights8 != null) Kernels.addSub8(to, from, n.l1Weights8[add], n.l1Weights8[sub], n.l1Shift);
+    else addSubWeights(to, from, n.l1Weights[add], n.l1Weights[sub]);
+  }
+
+  private static void addSubSub(Network n, short[] to, short[] from, int add, int sub, int sub2) {
+    if (n.l1Weights8 != null) Kernels.addSubSub8(to, from, n.l1Weights8[add], n.l1Weights8[sub], n.l1Weights8[sub2], n.l1Shift);
+    else addSubSubWeights(to, from, n.l1Weights[add], n.l1Weights[sub], n.l1Weights[sub2]);
+  }
+
+  private static void addAddSubSub(Network n, short[] to, short[] from, int add, int add2, int sub, int sub2) {
+    if (n.l1Weights8 != null) {
+      byte[][] l1 = n.l1Weights8;
+      Kernels.addAddSubSub8(to, from, l1[add], l1[add2], l1[sub], l1[sub2], n.l1Shift);
+    } else {
+      short[][] l1 = n.l1Weights;
+      addAddSubSubWeights(to, from, l1[add], l1[add2], l1[sub], l1[sub2]);
     }
   }
 
   public static void refreshAccumulator(NNUEState nnueState, long[] bb) {
+    Network small = smallNet;
+    nnueState.ensureShape(net.hiddenSize, small != null ? small.hiddenSize : 0);
     nnueState.currentAccumulator = 0;
-    System.arraycopy(L1_BIASES, 0, nnueState.whiteAccumulator[nnueState.currentAccumulator], 0, HL_SIZE);
-    System.arraycopy(L1_BIASES, 0, nnueState.blackAccumulator[nnueState.currentAccumulator], 0, HL_SIZE);
+    nnueState.computed[0] = true;
+    refresh(net, nnueState.whiteAccumulator[0], nnueState.blackAccumulator[0], bb);
+    if (small != null) refresh(small, nnueState.smallWhiteAccumulator[0], nnueState.smallBlackAccumulator[0], bb);
+  }
+
+  static Network network() {
+    return net;
+  }
+
+  static void refresh(Network n, short[] accW, short[] accB, long[] bb) {
+    System.arraycopy(n.l1Biases, 0, accW, 0, n.hiddenSize);
+    System.arraycopy(n.l1Biases, 0, accB, 0, n.hiddenSize);
 
     // Iterate all pieces on board and add their feature vectors to both views
     for (int pc = WP; pc <= BK; ++pc) {
@@ -273,41 +415,62 @@ public final class Eval {
       while (bits != 0) {
         int sq = Long.numberOfTrailingZeros(bits);
         bits &= bits - 1;
-        int idxW = getIndexWhite(sq, pc);
-        int idxB = getIndexBlack(sq, pc);
-        short[] w = L1_WEIGHTS[idxW];
-        short[] b = L1_WEIGHTS[idxB];
-
-        // Add weight vectors into accumulators
-        short[] accW = nnueState.whiteAccumulator[nnueState.currentAccumulator];
-        short[] accB = nnueState.blackAccumulator[nnueState.currentAccumulator];
-        for (int i = 0; i < HL_SIZE; i++) {
-          accW[i] += w[i];
-          accB[i] += b[i];
-        }
+        addFeature(n, accW, getIndexWhite(sq, pc));
+        addFeature(n, accB, getIndexBlack(sq, pc));
       }
     }
   }
 
+  private static void addFeature(Network n, short[] accumulator, int feature) {
+    if (n.l1Weights8 != null) Kernels.addWeights8(accumulator, n.l1Weights8[feature], n.l1Shift);
+    else Kernels.addWeights(accumulator, n.l1Weights[feature]);
+  }
+
+  /** Evaluates one position from scratch with the given net, ignoring the small net; for offline tools. */
+  static int evaluate(Network n, long[] bb) {
+    short[] accW = new short[n.hiddenSize], accB = new short[n.hiddenSize];
+    refresh(n, accW, accB, bb);
+    return PositionFactory.whiteToMove(bb) ? output(n, accW, accB, bb) : output(n, accB, accW, bb);
+  }
+
   public static int evaluate(NNUEState nnueState, long[] bb) {
-    int i;
     boolean whiteToMove = PositionFactory.whiteToMove(bb);
-    int outputBucket = Eval.chooseOutputBucket(bb);
-    short[] stmAccumulator = whiteToMove ? nnueState.whiteAccumulator[nnueState.currentAccumulator] : nnueState.blackAccumulator[nnueState.currentAccumulator];
-    short[] oppAccumulator = whiteToMove ? nnueState.blackAccumulator[nnueState.currentAccumulator] : nnueState.whiteAccumulator[nnueState.currentAccumulator];
-    short[] stmWeights = L2_WEIGHTS[outputBucket][0];
-    short[] oppWeights = L2_WEIGHTS[outputBucket][1];
-    int output = 0;
-    for (i = 0; i < 2048; ++i) {
-      output += screluPreCalc[stmAccumulator[i] - Short.MIN_VALUE] * stmWeights[i];
+    int ply = nnueState.currentAccumulator;
+    Network small = smallNet;
+    if (small != null && Math.abs(Material.balance(bb[MATERIAL])) > SMALL_NET_MATERIAL_THRESHOLD) {
+      int eval = whiteToMove
+          ? output(small, nnueState.smallWhiteAccumulator[ply], nnueState.smallBlackAccumulator[ply], bb)
+          : output(small, nnueState.smallBlackAccumulator[ply], nnueState.smallWhiteAccumulator[ply], bb);
+      if (Math.abs(eval) > SMALL_NET_CONFIRM_MARGIN) return eval;
     }
-    for (i = 0; i < 2048; ++i) {
-      output += screluPreCalc[oppAccumulator[i] - Short.MIN_VALUE] * oppWeights[i];
+    if (!nnueState.computed[ply]) catchUp(nnueState, ply);
+    return whiteToMove
+        ? output(net, nnueState.whiteAccumulator[ply], nnueState.blackAccumulator[ply], bb)
+        : output(net, nnueState.blackAccumulator[ply], nnueState.whiteAccumulator[ply], bb);
+  }
+
+  private static int output(Network n, short[] stmAccumulator, short[] oppAccumulator, long[] bb) {
+    int i;
+    int outputBucket = outputBucket(n, bb);
+    short[] stmWeights = n.l2Weights[outputBucket][0];
+    short[] oppWeights = n.l2Weights[outputBucket][1];
+    int output = 0;
+    if (Kernels.WIDTH != Kernels.SCALAR) {
+      output = Kernels.screluDot(stmAccumulator, stmWeights, 0, stmAccumulator.length, n.qa)
+          + Kernels.screluDot(oppAccumulator, oppWeights, 0, oppAccumulator.length, n.qa);
+    } else {
+      int[] screlu = n.screlu;
+      for (i = 0; i < stmAccumulator.length; ++i) {
+        output += screlu[stmAccumulator[i] - Short.MIN_VALUE] * stmWeights[i];
+      }
+      for (i = 0; i < oppAccumulator.length; ++i) {
+        output += screlu[oppAccumulator[i] - Short.MIN_VALUE] * oppWeights[i];
+      }
     }
-    output /= 255;
-    output += L2_BIASES[outputBucket];
-    output *= 400;
-    return output /= 16320;
+    output /= n.qa;
+    output += n.l2Biases[outputBucket];
+    output *= n.scale;
+    return output /= n.qa * n.qb;
   }
 
   private static int getIndexWhite(int square, int piece) {
@@ -322,20 +485,25 @@ public final class Eval {
     return (side ^ 1) * COLOR + type * PIECE + (square ^ 0b111000);
   }
 
-  private static int screlu(short v) {
-    int vCalc = Math.max(0, Math.min(v, QA));
-    return vCalc * vCalc;
+  private static int indexWhite(int change) {
+    return getIndexWhite(change & 63, change >>> 6);
+  }
+
+  private static int indexBlack(int change) {
+    return getIndexBlack(change & 63, change >>> 6);
   }
 
   public static int chooseOutputBucket(long[] bb) {
+    return outputBucket(net, bb);
+  }
+
+  static int outputBucket(Network n, long[] bb) {
     long occ = 0L;
     for (int pc = WP; pc <= BK; ++pc) occ |= bb[pc];
     int nonKings = Long.bitCount(occ) - 2;
-    int b = nonKings / DIVISOR;
+    int b = nonKings / n.bucketDivisor;
     if (b < 0) b = 0;
-    if (b >= OUTPUT_BUCKETS) b = OUTPUT_BUCKETS - 1;
+    if (b >= n.outputBuckets) b = n.outputBuckets - 1;
     return b;
   }
 }
-
-
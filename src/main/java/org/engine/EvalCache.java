@@ -0,0 +1,46 @@
+package org.engine;
+
+import java.util.Arrays;
+
+/**
+ * Direct-mapped cache of raw network outputs keyed by zobrist key. The output bucket is a function of the
+ * position, so the key covers it. 16K entries of one long each (128 KB) keep the table L2-resident; an entry
+ * packs the key's upper 48 bits with the eval in the low 16, so a probe is a single load.
+ */
+final class EvalCache {
+  static final int MISS = Integer.MIN_VALUE;
+
+  private static final int BITS = 14;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final long KEY_MASK = ~0xFFFFL;
+
+  private final long[] entries = new long[1 << BITS];
+  private long probes;
+  private long hits;
+
+  int probe(long key) {
+    probes++;
+    long e = entries[(int) key & MASK];
+    if (((e ^ key) & KEY_MASK) != 0) return MISS;
+    hits++;
+    return (short) e;
+  }
+
+  void store(long key, int eval) {
+    if (eval != (short) eval) return;
+    entries[(int) key & MASK] = (key & KEY_MASK) | (eval & 0xFFFFL);
+  }
+
+  void clear() {
+    Arrays.fill(entries, 0L);
+  }
+
+  long bytes() {
+    return 8L * entries.length;
+  }
+
+  /** Counters run for the lifetime of the cache, across clears. */
+  String stats() {
+    return String.format("entries %d probes %d hitrate %.1f%%", entries.length, probes, probes == 0 ? 0.0 : 100.0 * hits / probes);
+  }
+}
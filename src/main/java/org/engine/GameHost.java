@@ -0,0 +1,161 @@
+package org.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many independent games in one JVM over a fixed pool of search workers. Every input line is a game id
+ * followed by a UCI command (ucinewgame, position, go, stop, isready, ttstats or quit) and every output line
+ * starts with the id of the game it belongs to. A game is opened by its first command and owns its board,
+ * searcher and transposition tables; the networks and attack tables are shared by all of them. Searches of one
+ * game run in order while different games take whichever worker is free, so a go can wait in the queue before
+ * its clock starts. A bare quit ends every game.
+ */
+final class GameHost {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final long SHUTDOWN_GRACE_MS = 1000;
+
+    private final ExecutorService workers;
+    private final long hashMegaBytes;
+    private final SPSA spsa = new SPSA();
+    private final Map<String, Game> games = new HashMap<>();
+
+    private GameHost(int workerCount, long hashMegaBytes) {
+        AtomicInteger next = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "game-worker-" + next.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.hashMegaBytes = hashMegaBytes;
+    }
+
+    static void run(int workerCount, long hashMegaBytes) throws IOException {
+        Eval.initializeEval();
+        GameHost host = new GameHost(workerCount, hashMegaBytes);
+        System.out.println("info string hosting games on " + workerCount + " workers with " + hashMegaBytes + " MB hash each");
+        host.loop(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    private void loop(BufferedReader in) throws IOException {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (line.equals("quit")) break;
+                int space = line.indexOf(' ');
+                if (space < 0) continue;
+                String id = line.substring(0, space);
+                String cmd = line.substring(space + 1).trim();
+                Game game = games.get(id);
+                if (cmd.equals("quit")) {
+                    if (game != null) game.stop();
+                    games.remove(id);
+                    continue;
+                }
+                if (game == null) {
+                    game = new Game(id);
+                    games.put(id, game);
+                }
+                game.handle(cmd);
+            }
+        } finally {
+            for (Game game : games.values()) game.stop();
+            workers.shutdown();
+            try {
+                // Let stopped searches print their bestmove
+                workers.awaitTermination(SHUTDOWN_GRACE_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private final class Game {
+        private final String id;
+        private final PositionFactory pos = new PositionFactory();
+        private final long[] board = pos.fromFen(START_FEN);
+        private final TranspositionTable tt = new TranspositionTable();
+        private final TranspositionTable qtt = TranspositionTable.newQuiescenceTable();
+        private final Search search;
+        private final TimeManager timeManager = new TimeManager();
+        // Work for this game is chained so it never runs on two workers at once
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        // Bumped by stop; a queued search that sees a newer value than it was submitted with stops early
+        private volatile int stops;
+
+        Game(String id) {
+            this.id = id;
+            tt.init(hashMegaBytes);
+            this.search = new Search(spsa, tt, qtt);
+        }
+
+        void handle(String cmd) {
+            if (cmd.equals("isready")) {
+                print("readyok");
+            } else if (cmd.equals("ucinewgame")) {
+                long[] fresh = pos.fromFen(START_FEN);
+                System.arraycopy(fresh, 0, board, 0, fresh.length);
+                enqueue(() -> {
+                    tt.clear();
+                    qtt.clear();
+                    search.newGame();
+                });
+            } else if (cmd.startsWith("position")) {
+                UCI.setPosition(pos, board, cmd);
+            } else if (cmd.startsWith("go")) {
+                // The search gets its own copy, so later position commands do not disturb it
+                long[] root = board.clone();
+                Search.Limits limits = UCI.parseGo(cmd, root, timeManager);
+                int epoch = stops;
+                enqueue(() -> search(root, limits, epoch));
+            } else if (cmd.equals("stop")) {
+                stop();
+            } else if (cmd.equals("ttstats")) {
+                print("info string tt " + tt.stats());
+                print("info string qtt " + qtt.stats());
+                print("info string searcher " + search.workingSet());
+            }
+        }
+
+        private void search(long[] root, Search.Limits limits, int epoch) {
+            if (stops != epoch) {
+                // Stopped while queued: still answer, from a one-ply search
+                limits = new Search.Limits();
+                limits.depth = 1;
+            }
+            Search.Result res = search.search(root, limits, (depth, seldepth, nodes, nps, hashfull, scoreCp, timeMs, pv) -> {
+                // A stop that arrived just before the search began is picked up after the first iteration
+                if (stops != epoch) search.stop();
+                print(UCI.infoLine(depth, seldepth, nodes, nps, hashfull, scoreCp, timeMs, pv));
+            });
+            print("bestmove " + MoveFactory.moveToUci(UCI.bestMove(res, root)));
+        }
+
+        private void enqueue(Runnable task) {
+            tail = tail.thenRunAsync(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    print("info string error: " + e);
+                }
+            }, workers);
+        }
+
+        void stop() {
+            stops++;
+            search.stop();
+        }
+
+        private void print(String line) {
+            System.out.println(id + " " + line);
+        }
+    }
+}
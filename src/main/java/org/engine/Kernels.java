@@ -0,0 +1,205 @@
+package org.engine;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Network kernels with a width picked once at startup: plain loops, or the Vector API at 128, 256 or 512 bits.
+ * Without the jdk.incubator.vector module only the plain loops are available. Otherwise the widest width the
+ * hardware supports natively is timed against the plain loops on a synthetic accumulator update and the faster
+ * wins, so a machine where the Vector API would fall back to its slow boxed path runs the loops instead. The
+ * choice can be forced with -Dcatalan.simd=scalar|128|256|512.
+ */
+final class Kernels {
+  static final int SCALAR = 0;
+  static final int WIDTH;
+  private static final boolean VECTOR_MODULE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  static {
+    int width = SCALAR;
+    try {
+      width = select(System.getProperty("catalan.simd", "auto").trim().toLowerCase());
+    } catch (LinkageError e) {
+      // Module present but unusable: stay scalar
+    }
+    WIDTH = width;
+  }
+
+  private Kernels() {}
+
+  static String describe() {
+    if (WIDTH != SCALAR) return WIDTH + "-bit vector";
+    return VECTOR_MODULE ? "scalar" : "scalar (jdk.incubator.vector not available)";
+  }
+
+  static void addWeights(short[] acc, short[] w) {
+    if (WIDTH != SCALAR) VectorKernels.addWeights(WIDTH, acc, w);
+    else Scalar.addWeights(acc, w);
+  }
+
+  static void addSub(short[] to, short[] from, short[] add, short[] sub) {
+    if (WIDTH != SCALAR) VectorKernels.addSub(WIDTH, to, from, add, sub);
+    else Scalar.addSub(to, from, add, sub);
+  }
+
+  static void addSubSub(short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+    if (WIDTH != SCALAR) VectorKernels.addSubSub(WIDTH, to, from, add, sub, sub2);
+    else Scalar.addSubSub(to, from, add, sub, sub2);
+  }
+
+  static void addAddSubSub(short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+    if (WIDTH != SCALAR) VectorKernels.addAddSubSub(WIDTH, to, from, add, add2, sub, sub2);
+    else Scalar.addAddSubSub(to, from, add, add2, sub, sub2);
+  }
+
+  // Int8 weight rows, widened and shifted left by shift before they are added
+  static void addWeights8(short[] acc, byte[] w, int shift) {
+    if (WIDTH != SCALAR) VectorKernels.addWeights8(WIDTH, acc, w, shift);
+    else Scalar.addWeights8(acc, w, shift);
+  }
+
+  static void addSub8(short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+    if (WIDTH != SCALAR) VectorKernels.addSub8(WIDTH, to, from, add, sub, shift);
+    else Scalar.addSub8(to, from, add, sub, shift);
+  }
+
+  static void addSubSub8(short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+    if (WIDTH != SCALAR) VectorKernels.addSubSub8(WIDTH, to, from, add, sub, sub2, shift);
+    else Scalar.addSubSub8(to, from, add, sub, sub2, shift);
+  }
+
+  static void addAddSubSub8(short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+    if (WIDTH != SCALAR) VectorKernels.addAddSubSub8(WIDTH, to, from, add, add2, sub, sub2, shift);
+    else Scalar.addAddSubSub8(to, from, add, add2, sub, sub2, shift);
+  }
+
+  /** Sum of clamp(acc[i], 0, qa)^2 * w[i] over [from, to). */
+  static int screluDot(short[] acc, short[] w, int from, int to, int qa) {
+    if (WIDTH != SCALAR) return VectorKernels.screluDot(WIDTH, acc, w, from, to, qa);
+    return Scalar.screluDot(acc, w, from, to, qa);
+  }
+
+  private static int select(String forced) {
+    if (!VECTOR_MODULE) return SCALAR;
+    int max = VectorKernels.maxWidth();
+    switch (forced) {
+      case "scalar": return SCALAR;
+      case "128": case "256": case "512": {
+        int w = Integer.parseInt(forced);
+        return w <= max ? w : SCALAR;
+      }
+      default: break;
+    }
+    return max < 128 ? SCALAR : Calibration.fastest(Math.min(max, 512));
+  }
+
+  static final class Scalar {
+    static void addWeights(short[] acc, short[] w) {
+      for (int i = 0; i < acc.length; i++) acc[i] += w[i];
+    }
+
+    static void addSub(short[] to, short[] from, short[] add, short[] sub) {
+      for (int i = 0; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i]);
+    }
+
+    static void addSubSub(short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+      for (int i = 0; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i] - sub2[i]);
+    }
+
+    static void addAddSubSub(short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+      for (int i = 0; i < to.length; i++) to[i] = (short) (from[i] + add[i] + add2[i] - sub[i] - sub2[i]);
+    }
+
+    static void addWeights8(short[] acc, byte[] w, int shift) {
+      for (int i = 0; i < acc.length; i++) acc[i] += (short) (w[i] << shift);
+    }
+
+    static void addSub8(short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+      for (int i = 0; i < to.length; i++) to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift));
+    }
+
+    static void addSubSub8(short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+      for (int i = 0; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static void addAddSubSub8(short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+      for (int i = 0; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) + (add2[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static int screluDot(short[] acc, short[] w, int from, int to, int qa) {
+      int result = 0;
+      for (int i = from; i < to; i++) {
+        int v = Math.max(0, Math.min(acc[i], qa));
+        result += v * v * w[i];
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Times the incremental accumulator update with plain loops and at one vector width. Only one width is timed:
+   * running several through the shared ShortVector internals pollutes their type profiles and slows all of them,
+   * including the one picked. Kept out of Kernels itself because the JIT will not compile calls into a class that
+   * is still initialising, which would leave both candidates interpreted.
+   */
+  private static final class Calibration {
+    private static final int SIZE = 2048;
+    private static final int BURST = 50;
+    private static final int STABLE_ROUNDS = 20;
+    private static final long BUDGET_NANOS = 750_000_000L;
+    static volatile int sink;
+
+    static int fastest(int width) {
+      short[] to = new short[SIZE], from = new short[SIZE];
+      short[] add = new short[SIZE], sub = new short[SIZE], sub2 = new short[SIZE];
+      SplittableRandom rnd = new SplittableRandom(1);
+      for (int i = 0; i < SIZE; i++) {
+        from[i] = (short) rnd.nextInt(-200, 200);
+        add[i] = (short) rnd.nextInt(-60, 60);
+        sub[i] = (short) rnd.nextInt(-60, 60);
+        sub2[i] = (short) rnd.nextInt(-60, 60);
+      }
+
+      // Round-robin bursts so both warm up together. Stop once neither has improved and the JIT has been idle
+      // for a while, since a kernel still waiting for its compile would otherwise lose, or when the budget runs out
+      CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+      boolean jitTimed = jit != null && jit.isCompilationTimeMonitoringSupported();
+      long jitTime = jitTimed ? jit.getTotalCompilationTime() : 0;
+      long scalar = Long.MAX_VALUE, vector = Long.MAX_VALUE;
+      long deadline = System.nanoTime() + BUDGET_NANOS;
+      int stable = 0;
+      while (stable < STABLE_ROUNDS && System.nanoTime() < deadline) {
+        long s = burst(SCALAR, to, from, add, sub, sub2);
+        long v = burst(width, to, from, add, sub, sub2);
+        boolean improved = s < scalar - scalar / 10 || v < vector - vector / 10;
+        scalar = Math.min(scalar, s);
+        vector = Math.min(vector, v);
+        if (jitTimed) {
+          long now = jit.getTotalCompilationTime();
+          if (now != jitTime) improved = true;
+          jitTime = now;
+        }
+        stable = improved ? 0 : stable + 1;
+      }
+      return vector < scalar ? width : SCALAR;
+    }
+
+    private static long burst(int width, short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+      long t0 = System.nanoTime();
+      // Ping-pong between the two accumulators so no call can be folded away as a repeat of the last
+      for (int it = 0; it < BURST; it++) {
+        short[] dst = (it & 1) == 0 ? to : from, src = (it & 1) == 0 ? from : to;
+        if (width == SCALAR) Scalar.addSubSub(dst, src, add, sub, sub2);
+        else VectorKernels.addSubSub(width, dst, src, add, sub, sub2);
+      }
+      long elapsed = System.nanoTime() - t0;
+      sink += to[(int) elapsed & (SIZE - 1)];
+      return elapsed;
+    }
+  }
+}
@@ -30,6 +30,55 @@ public class Main {
 			Bench.run(depth);
 			return;
 		}
+		if (args != null && args.length > 0 && args[0].equalsIgnoreCase("searchbench")) {
+			int depth = 8;
+			if (args.length > 1) try { depth = Integer.parseInt(args[1]); } catch (Exception ignored) {}
+			Bench.runSearch(depth);
+			return;
+		}
+		if (args != null && args.length > 2 && args[0].equalsIgnoreCase("quantize")) {
+			// quantize IN OUT [SHIFT|auto] [FENFILE]
+			int shift = args.length > 3 && !args[3].equalsIgnoreCase("auto") ? Integer.parseInt(args[3]) : -1;
+			NetQuantizer.run(args[1], Paths.get(args[2]), shift, args.length > 4 ? Paths.get(args[4]) : null);
+			return;
+		}
+		if (args != null && args.length > 0 && args[0].equalsIgnoreCase("host")) {
+			// host [WORKERS] [HASHMB]
+			int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			long hashMb = args.length > 2 ? Long.parseLong(args[2]) : 8;
+			GameHost.run(Math.max(1, workers), Math.max(1, hashMb));
+			return;
+		}
+		if (args != null && args.length > 0 && args[0].equalsIgnoreCase("cluster")) {
+			// cluster [WORKERS] [HASHMB]
+			int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			long hashMb = args.length > 2 ? Long.parseLong(args[2]) : 64;
+			UCI.runCluster(Math.max(1, workers), Math.max(1, hashMb));
+			return;
+		}
+		if (args != null && args.length > 1 && args[0].equalsIgnoreCase("analyze")) {
+			// analyze FILE|- [depth N] [nodes N] [movetime MS] [threads T] [hash MB] [unordered] [fresh]
+			Search.Limits limits = new Search.Limits();
+			int threads = Runtime.getRuntime().availableProcessors();
+			long hashMb = 16;
+			boolean ordered = true;
+			boolean fresh = false;
+			for (int i = 2; i < args.length; i++) {
+				switch (args[i].toLowerCase(Locale.ROOT)) {
+					case "depth" -> limits.depth = Integer.parseInt(args[++i]);
+					case "nodes" -> limits.nodes = Long.parseLong(args[++i]);
+					case "movetime" -> limits.hardMs = Long.parseLong(args[++i]);
+					case "threads" -> threads = Integer.parseInt(args[++i]);
+					case "hash" -> hashMb = Long.parseLong(args[++i]);
+					case "unordered" -> ordered = false;
+					case "fresh" -> fresh = true;
+					default -> throw new IllegalArgumentException("unknown analyze option: " + args[i]);
+				}
+			}
+			if (limits.depth <= 0 && limits.nodes <= 0 && limits.hardMs <= 0) limits.depth = 10;
+			BatchAnalysis.run(args[1], limits, Math.max(1, threads), Math.max(1, hashMb), ordered, fresh);
+			return;
+		}
 		UCI.main(args);
 	}
 
@@ -0,0 +1,185 @@
+package org.engine;
+
+import java.util.Arrays;
+
+import static org.engine.PositionFactory.*;
+
+/**
+ * Material-signature lookups: insufficient-material draws, endgame recognisers and eval scaling.
+ * Entries are derived from the piece counts on first use and cached in a direct-mapped table keyed by the
+ * incrementally maintained signature, so each probe after warm-up is a single array read.
+ */
+final class Material {
+  // Signature layout: one 4-bit count per piece class, white in the low 24 bits, black above; kings are not counted
+  static final int SIG_P = 0, SIG_N = 4, SIG_BL = 8, SIG_BD = 12, SIG_R = 16, SIG_Q = 20, SIG_BLACK = 24;
+  private static final long SIDE_MASK = (1L << SIG_BLACK) - 1;
+  private static final long NON_PAWN_MASK = SIDE_MASK & ~0xFL;
+
+  static final int KNOWN_WIN = 10000;
+
+  private static final int REC_NONE = 0, REC_KBNK = 1, REC_KXK = 2, REC_KPK = 3;
+  private static final int SCALE_NORMAL = 0, SCALE_HALF = 1, SCALE_NONE = 2;
+
+  // Entry: signature in the low 48 bits, then insufficient(1) | recogniser(2) | strong side white(1) | white scale(2) | black scale(2)
+  private static final int INFO_SHIFT = 48;
+  private static final int TABLE_BITS = 13;
+  private static final long[] TABLE = new long[1 << TABLE_BITS];
+
+  static {
+    Arrays.fill(TABLE, -1L);
+  }
+
+  private Material() {}
+
+  static long unit(int piece, int sq) {
+    int shift = switch (piece % 6) {
+      case 0 -> SIG_P;
+      case 1 -> SIG_N;
+      case 2 -> ((LIGHT_SQUARES >>> sq) & 1L) != 0 ? SIG_BL : SIG_BD;
+      case 3 -> SIG_R;
+      case 4 -> SIG_Q;
+      default -> -1;
+    };
+    if (shift < 0) return 0L;
+    return 1L << (shift + (piece < 6 ? 0 : SIG_BLACK));
+  }
+
+  static boolean hasNonPawnMaterial(long sig, boolean white) {
+    return ((white ? sig : sig >>> SIG_BLACK) & NON_PAWN_MASK) != 0;
+  }
+
+  /** White minus black material in centipawns, counting P 100, N and B 300, R 500, Q 900. */
+  static int balance(long sig) {
+    return material(sig, true) - material(sig, false);
+  }
+
+  private static int material(long sig, boolean white) {
+    return 100 * count(sig, SIG_P, white)
+        + 300 * (count(sig, SIG_N, white) + count(sig, SIG_BL, white) + count(sig, SIG_BD, white))
+        + 500 * count(sig, SIG_R, white)
+        + 900 * count(sig, SIG_Q, white);
+  }
+
+  static boolean isInsufficient(long sig) {
+    return (info(sig) & 1) != 0;
+  }
+
+  /**
+   * Applies recognisers and scaling to a side-to-move eval: known wins get a bonus that drives the weaker
+   * king to the edge (or the bishop's corner), and drawish signatures scale the winning side's score down.
+   */
+  static int adjust(long[] bb, int eval) {
+    int info = info(bb[MATERIAL]);
+    if (info == 0) return eval;
+    boolean stmWhite = whiteToMove(bb);
+    int recogniser = (info >>> 1) & 3;
+    if (recogniser != REC_NONE) {
+      boolean strongWhite = ((info >>> 3) & 1) != 0;
+      int score = recognise(bb, recogniser, strongWhite);
+      if (score != Integer.MIN_VALUE) return strongWhite == stmWhite ? score : -score;
+    }
+    boolean whiteAhead = (eval > 0) == stmWhite;
+    int scale = whiteAhead ? (info >>> 4) & 3 : (info >>> 6) & 3;
+    return switch (scale) {
+      case SCALE_HALF -> eval / 2;
+      case SCALE_NONE -> 0;
+      default -> eval;
+    };
+  }
+
+  private static int info(long sig) {
+    int idx = (int) ((sig * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    long e = TABLE[idx];
+    if ((e & ((1L << INFO_SHIFT) - 1)) != sig) {
+      e = sig | ((long) compute(sig) << INFO_SHIFT);
+      TABLE[idx] = e;
+    }
+    return (int) (e >>> INFO_SHIFT);
+  }
+
+  private static int count(long sig, int shift, boolean white) {
+    return (int) ((sig >>> (shift + (white ? 0 : SIG_BLACK))) & 0xF);
+  }
+
+  private static int compute(long sig) {
+    int wP = count(sig, SIG_P, true), bP = count(sig, SIG_P, false);
+    int wN = count(sig, SIG_N, true), bN = count(sig, SIG_N, false);
+    int wBL = count(sig, SIG_BL, true), bBL = count(sig, SIG_BL, false);
+    int wBD = count(sig, SIG_BD, true), bBD = count(sig, SIG_BD, false);
+    int wR = count(sig, SIG_R, true), bR = count(sig, SIG_R, false);
+    int wQ = count(sig, SIG_Q, true), bQ = count(sig, SIG_Q, false);
+    int wMinors = wN + wBL + wBD, bMinors = bN + bBL + bBD;
+
+    int info = 0;
+    if (wP + bP + wR + bR + wQ + bQ == 0 && insufficientMinors(wN, wBL, wBD, bN, bBL, bBD)) info |= 1;
+
+    boolean whiteBare = (sig & SIDE_MASK) == 0;
+    boolean blackBare = (sig >>> SIG_BLACK) == 0;
+    if (whiteBare != blackBare) {
+      boolean strongWhite = blackBare;
+      int p = strongWhite ? wP : bP, n = strongWhite ? wN : bN, b = strongWhite ? wBL + wBD : bBL + bBD;
+      int r = strongWhite ? wR : bR, q = strongWhite ? wQ : bQ;
+      int recogniser = REC_NONE;
+      if (p == 0 && r + q > 0) recogniser = REC_KXK;
+      else if (p == 0 && r + q == 0 && n == 1 && b == 1) recogniser = REC_KBNK;
+      else if (p == 1 && n + b + r + q == 0) recogniser = REC_KPK;
+      if (recogniser != REC_NONE) info |= (recogniser << 1) | ((strongWhite ? 1 : 0) << 3);
+    }
+
+    int whiteScale = SCALE_NORMAL, blackScale = SCALE_NORMAL;
+    boolean oppositeBishops = wN + bN + wR + bR + wQ + bQ == 0 && wBL + wBD == 1 && bBL + bBD == 1 && wBL != bBL;
+    if (oppositeBishops) whiteScale = blackScale = SCALE_HALF;
+    // Without pawns a single minor piece cannot force mate, whatever the eval says
+    if (wP == 0 && wR + wQ == 0 && wMinors <= 1) whiteScale = SCALE_NONE;
+    if (bP == 0 && bR + bQ == 0 && bMinors <= 1) blackScale = SCALE_NONE;
+    return info | (whiteScale << 4) | (blackScale << 6);
+  }
+
+  // No mate is possible with at most one minor, one minor each unless they are opposite-coloured bishops,
+  // or with bishops only, all on one colour
+  private static boolean insufficientMinors(int wN, int wBL, int wBD, int bN, int bBL, int bBD) {
+    int w = wN + wBL + wBD, b = bN + bBL + bBD;
+    if (w + b <= 1) return true;
+    if (w + b == 2) {
+      if (w == 1 && b == 1) return !(wN == 0 && bN == 0 && wBL != bBL);
+      return (wBL == 2 || wBD == 2 || bBL == 2 || bBD == 2);
+    }
+    return wN + bN == 0 && (wBL + bBL == 0 || wBD + bBD == 0);
+  }
+
+  private static int recognise(long[] bb, int recogniser, boolean strongWhite) {
+    int strongKing = Long.numberOfTrailingZeros(bb[strongWhite ? WK : BK]);
+    int weakKing = Long.numberOfTrailingZeros(bb[strongWhite ? BK : WK]);
+    int closeness = 7 - distance(strongKing, weakKing);
+    switch (recogniser) {
+      case REC_KXK:
+        return KNOWN_WIN + 20 * centerDistance(weakKing) + 10 * closeness;
+      case REC_KBNK: {
+        boolean lightBishop = (bb[strongWhite ? WB : BB] & LIGHT_SQUARES) != 0;
+        int cornerA = lightBishop ? 7 : 0, cornerB = lightBishop ? 56 : 63;
+        int toCorner = Math.min(distance(weakKing, cornerA), distance(weakKing, cornerB));
+        return KNOWN_WIN + 20 * (7 - toCorner) + 10 * closeness;
+      }
+      case REC_KPK: {
+        int pawnSq = Long.numberOfTrailingZeros(bb[strongWhite ? WP : BP]);
+        int file = pawnSq & 7;
+        int queening = (strongWhite ? 56 : 0) + file;
+        // A rook pawn cannot be promoted once the defending king reaches the queening corner
+        if ((file == 0 || file == 7) && distance(weakKing, queening) <= 1) return 0;
+        return Integer.MIN_VALUE;
+      }
+      default:
+        return Integer.MIN_VALUE;
+    }
+  }
+
+  private static int distance(int a, int b) {
+    return Math.max(Math.abs((a >>> 3) - (b >>> 3)), Math.abs((a & 7) - (b & 7)));
+  }
+
+  // 0 on the four centre squares up to 3 on the edge
+  private static int centerDistance(int sq) {
+    int r = sq >>> 3, f = sq & 7;
+    return Math.max(Math.max(3 - r, r - 4), Math.max(3 - f, f - 4));
+  }
+}
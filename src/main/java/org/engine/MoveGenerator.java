@@ -81,8 +81,6 @@ public final class MoveGenerator {
           99296, 101376, 103456, 107584,
   };
 
-  public static final long[] SLIDER_PEXT;
-
   public static final long[] PAWN_ATK_W = new long[64];
   public static final long[] PAWN_ATK_B = new long[64];
 
@@ -100,18 +98,6 @@ public final class MoveGenerator {
   private static final long RANK_8 = RANK_1 << 56;
 
   static {
-    try (var in = MoveGenerator.class.getResourceAsStream("/gen/Pext.bin")) {
-      if (in == null) throw new IllegalStateException("gen/Pext.bin missing");
-
-      byte[] raw = in.readAllBytes();
-      int n = raw.length >>> 3;
-
-      SLIDER_PEXT = new long[n];
-      java.nio.ByteBuffer.wrap(raw).order(java.nio.ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(SLIDER_PEXT);
-    } catch (Exception e) {
-      throw new ExceptionInInitializerError(e);
-    }
-
     for (int sq = 0; sq < 64; ++sq) {
       int r = sq >>> 3, f = sq & 7;
       if (r < 7 && f > 0) PAWN_ATK_W[sq] |= 1L << (sq + 7);
@@ -220,6 +206,68 @@ public final class MoveGenerator {
     return n;
   }
 
+  /** Same moves as {@link #generateCaptures(long[], int[], int)}, reusing the attack sets cached for this position. */
+  public int generateCaptures(long[] bb, int[] mv, int n, AttackInfo ai) {
+    boolean white = whiteToMove(bb);
+    final int usP = white ? WP : BP, usN = white ? WN : BN, usB = white ? WB : BB, usR = white ? WR : BR, usQ = white ? WQ : BQ;
+    final long enemy = ai.enemy();
+    final long occ   = ai.occupancy();
+    final long[] attacks = ai.attacksFrom(white);
+
+    n = addPawnCaptures(bb, white, occ, enemy, mv, n, usP);
+    n = addPawnPushes  (bb[usP], white, occ, mv, n, usP, true, false, false, false);
+    n = addPieceMoves(bb[usN], attacks, enemy, mv, n);
+    n = addPieceMoves(bb[usB], attacks, enemy, mv, n);
+    n = addPieceMoves(bb[usR], attacks, enemy, mv, n);
+    n = addPieceMoves(bb[usQ], attacks, enemy, mv, n);
+    n = addKingMovesAndCastle(bb, white, occ, 0L, enemy, 0L, mv, n);
+    return n;
+  }
+
+  /** Same moves as {@link #generateQuiets(long[], int[], int)}, reusing the attack sets cached for this position. */
+  public int generateQuiets(long[] bb, int[] mv, int n, AttackInfo ai) {
+    boolean white = whiteToMove(bb);
+    final int usP = white ? WP : BP, usN = white ? WN : BN, usB = white ? WB : BB, usR = white ? WR : BR, usQ = white ? WQ : BQ;
+    final long occ   = ai.occupancy();
+    final long quietMask = ~occ;
+    final long[] attacks = ai.attacksFrom(white);
+
+    n = addPawnPushes(bb[usP], white, occ, mv, n, usP, false, true, true, true);
+    n = addPieceMoves(bb[usN], attacks, quietMask, mv, n);
+    n = addPieceMoves(bb[usB], attacks, quietMask, mv, n);
+    n = addPieceMoves(bb[usR], attacks, quietMask, mv, n);
+    n = addPieceMoves(bb[usQ], attacks, quietMask, mv, n);
+    n = addKingMovesAndCastle(bb, white, occ, 0L, 0L, quietMask, mv, n);
+    return n;
+  }
+
+  private static int addPieceMoves(long pieces, long[] attacks, long targetMask, int[] mv, int n) {
+    while (pieces != 0) {
+      int from = Long.numberOfTrailingZeros(pieces);
+      pieces &= pieces - 1;
+      n = emitSliderMoves(mv, n, from, attacks[from] & targetMask);
+    }
+    return n;
+  }
+
+  public boolean castleLegal(long[] bb, int from, int to, AttackInfo ai) {
+    if (ai == null) return castleLegal(bb, from, to);
+    boolean white = from == 4;
+    int rookFrom  = white ? (to == 6 ? 7  : 0) : (to == 62 ? 63 : 56);
+    long pathMask = to == 6 || to == 62 ? (1L << (from+1)) | (1L << (from+2)) : (1L << (from-1)) | (1L << (from-2)) | (1L << (from-3));
+
+    int rights = (int)((bb[META] & CR_MASK) >>> CR_SHIFT);
+    int need = white ? (to == 6 ? 1 : 2) : (to == 62 ? 4 : 8);
+    if ( (rights & need) == 0 ) return false;
+
+    long occ = ai.occupancy();
+    if ((occ & pathMask) != 0 || (occ & (1L<<rookFrom)) == 0) return false;
+
+    int  transit = (to == 6 || to == 62) ? from + 1 : from - 1;
+    long kingPath = (1L << from) | (1L << transit) | (1L << to);
+    return (ai.attackedBy(!white) & kingPath) == 0;
+  }
+
   public boolean castleLegal(long[] bb, int from, int to) {
     boolean white = from == 4;
     int rookFrom  = white ? (to == 6 ? 7  : 0) : (to == 62 ? 63 : 56);
@@ -439,17 +487,11 @@ public final class MoveGenerator {
   }
 
   public static long rookAtt(long occ, int sq) {
-    int base = ROOKOFFSET_PEXT[sq];
-    long mask = ROOKMASK_PEXT[sq];
-    int idx = (int) Long.compress(occ, mask);
-    return SLIDER_PEXT[base + idx];
+    return Sliders.rook(occ, sq);
   }
 
   public static long bishopAtt(long occ, int sq) {
-    int base = BISHOPOFFSET_PEXT[sq];
-    long mask = BISHOPMASK_PEXT[sq];
-    int idx = (int) Long.compress(occ, mask);
-    return SLIDER_PEXT[base + idx];
+    return Sliders.bishop(occ, sq);
   }
 
   public static long queenAtt(long occ, int sq) {
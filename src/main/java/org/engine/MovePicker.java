@@ -4,47 +4,80 @@ final class MovePicker {
 	private final long[] board;
 	private final PositionFactory pos;
 	private final MoveGenerator gen;
+	private final AttackInfo attacks;
 	private final int[] buffer;
-	private final int[] scores;
+	private final long[] entries;
 	private final int[] history;
+	private final int[] captureHistory;
+	private final int[] contHistory1;
+	private final int[] contHistory2;
+	private final int cont1;
+	private final int cont2;
 	private final int ttMove;
 	private final int killerMove;
 	private final int counterMove;
 	private final boolean includeQuiets;
+	private final int quietSortLimit;
 
 	private static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 20000, 100, 320, 330, 500, 900, 20000};
 	private static final int[] PROMO_VALUES = {320, 330, 500, 900};
 
-	    private enum Stage { TT, CAPTURES, QUIETS, BAD_CAPTURES, DONE }
-    private Stage stage;
-	private int index;
-	private int count;
-	private boolean ttTried;
+	// Capture history: [piece][to][capturedType]; non-capturing promotions use the king slot, which no real capture can hit.
+	static final int CAPTURE_HISTORY_SIZE = 12 * 64 * 6;
+	private static final int CAPTURE_HISTORY_ORDER_DIV = 8;
+	private static final int CAPTURE_HISTORY_SEE_DIV = 64;
+
+	// Quiets scoring below -QUIET_SORT_LIMIT_PER_DEPTH * depth are left unsorted; at low depth most of them are pruned anyway
+	private static final int QUIET_SORT_LIMIT_PER_DEPTH = 4000;
 
-		private int capGoodCount;
-		private int capTotalCount;
-		private int quietStart;
-		private int quietCount;
+	// Quiets moving a threatened piece away score higher, quiets stepping onto a square a cheaper enemy piece attacks
+	// score lower; indexed by piece type P, N, B, R, Q, K
+	private static final int[] THREAT_ESCAPE_BONUS = {0, 3000, 3000, 5000, 8000, 0};
+	private static final int[] THREAT_STEP_IN_PENALTY = {0, 2850, 2850, 4750, 7600, 0};
 
-	MovePicker(long[] board, PositionFactory pos, MoveGenerator gen, int[] history, int[] moveBuffer, int[] scoreBuffer, int ttMove, int killerMove, boolean includeQuiets, int counterMove) {
+	private enum Stage { TT, CAPTURES, KILLER, COUNTER, QUIETS, BAD_CAPTURES, DONE }
+	private Stage stage;
+	private int index;
+	private int end;
+	private int capGoodCount;
+	private int capTotalCount;
+	private int emittedKiller;
+	private int emittedCounter;
+
+	/**
+	 * moveBuffer is generation scratch; sortBuffer holds the same moves packed as (score << 32 | move) so sorting
+	 * shifts one array instead of two parallel ones.
+	 */
+	MovePicker(long[] board, PositionFactory pos, MoveGenerator gen, AttackInfo attacks, int[] history, int[] captureHistory, int[] moveBuffer, long[] sortBuffer, int depth, int ttMove, int killerMove, boolean includeQuiets, int counterMove,
+			   int[] contHistory1, int cont1, int[] contHistory2, int cont2) {
 		this.board = board;
 		this.pos = pos;
 		this.gen = gen;
+		this.attacks = attacks;
 		this.history = history;
+		this.captureHistory = captureHistory;
+		this.contHistory1 = contHistory1;
+		this.contHistory2 = contHistory2;
+		this.cont1 = contHistory1 != null ? cont1 : -1;
+		this.cont2 = contHistory2 != null ? cont2 : -1;
 		this.buffer = moveBuffer;
-		this.scores = scoreBuffer;
+		this.entries = sortBuffer;
+		this.quietSortLimit = -QUIET_SORT_LIMIT_PER_DEPTH * Math.max(1, depth);
 		this.ttMove = MoveFactory.intToMove(ttMove);
 		this.killerMove = MoveFactory.intToMove(killerMove);
 		this.counterMove = MoveFactory.intToMove(counterMove);
 		this.includeQuiets = includeQuiets;
-        this.stage = Stage.TT;
-		this.index = 0;
-		this.count = 0;
-		this.ttTried = false;
-		this.capGoodCount = 0;
-		this.capTotalCount = 0;
-		this.quietStart = 0;
-		this.quietCount = 0;
+		this.stage = Stage.TT;
+		this.emittedKiller = MoveFactory.MOVE_NONE;
+		this.emittedCounter = MoveFactory.MOVE_NONE;
+	}
+
+	private static long pack(int score, int move) {
+		return ((long) score << 32) | (move & 0xFFFFFFFFL);
+	}
+
+	private static int scoreOf(long entry) {
+		return (int) (entry >> 32);
 	}
 
 	private int scoreCaptureMVVLVA(int mv) {
@@ -70,6 +103,7 @@ final class MovePicker {
 			// Classic MVV-LVA: prefer higher victim, lower attacker
 			score = (vicVal << 4) - attVal; // multiply victim by 16 for separation
 		}
+		score += captureHistoryScore(mv) / CAPTURE_HISTORY_ORDER_DIV;
 
 		if (flags == MoveFactory.FLAG_PROMOTION) {
 			int promo = MoveFactory.GetPromotion(mv);
@@ -83,36 +117,47 @@ final class MovePicker {
 
 	private void scorecaptures(int size) {
 		for (int i = 0; i < size; i++) {
-			scores[i] = scoreCaptureMVVLVA(buffer[i]);
+			entries[i] = pack(scoreCaptureMVVLVA(buffer[i]), buffer[i]);
 		}
 	}
 
 	private void partitionCapturesBySEE(int size) {
-			capGoodCount = 0;
-			for (int i = 0; i < size; i++) {
-				int mv = buffer[i];
-				int sc = scores[i];
-				int flags = MoveFactory.GetFlags(mv);
-				boolean good;
-				if (flags == MoveFactory.FLAG_PROMOTION) {
-					good = true;
-				} else {
-					int see = SEE.see(board, mv);
-					good = see >= 0;
-				}
-				if (good) {
-					if (i != capGoodCount) {
-						int tmpM = buffer[capGoodCount];
-						buffer[capGoodCount] = mv;
-						buffer[i] = tmpM;
-						int tmpS = scores[capGoodCount];
-						scores[capGoodCount] = sc;
-						scores[i] = tmpS;
-					}
-					capGoodCount++;
-				}
+		capGoodCount = 0;
+		for (int i = 0; i < size; i++) {
+			long e = entries[i];
+			int mv = (int) e;
+			boolean good;
+			if (MoveFactory.GetFlags(mv) == MoveFactory.FLAG_PROMOTION) {
+				good = true;
+			} else {
+				// Captures that keep failing need to win material outright to stay in the good stage, and vice versa
+				int see = SEE.see(board, mv);
+				good = see >= -captureHistoryScore(mv) / CAPTURE_HISTORY_SEE_DIV;
+			}
+			if (good) {
+				entries[i] = entries[capGoodCount];
+				entries[capGoodCount++] = e;
 			}
 		}
+	}
+
+	static int captureHistoryIndex(long[] board, int move) {
+		int from = MoveFactory.GetFrom(move);
+		int to = MoveFactory.GetTo(move);
+		int piece = PositionFactory.pieceAt(board, from);
+		int captured;
+		if (MoveFactory.GetFlags(move) == MoveFactory.FLAG_EN_PASSANT) {
+			captured = 0;
+		} else {
+			int victim = PositionFactory.pieceAt(board, to);
+			captured = victim == -1 ? 5 : victim % 6;
+		}
+		return (piece * 64 + to) * 6 + captured;
+	}
+
+	private int captureHistoryScore(int mv) {
+		return captureHistory != null ? captureHistory[captureHistoryIndex(board, mv)] : 0;
+	}
 
 	private static int historyIndex(boolean white, int move) {
 		int from = MoveFactory.GetFrom(move);
@@ -121,102 +166,123 @@ final class MovePicker {
 		return (side << 12) | (from << 6) | to;
 	}
 
-	private void scorequietsRange(int start, int size) {
+	private void scorequietsRange(int start, int end) {
 		boolean white = PositionFactory.whiteToMove(board);
-		int end = start + size;
+		int them = white ? PositionFactory.BP : PositionFactory.WP;
+		long threatened = attacks.threatened();
+		long byPawns = attacks.attackedByPiece(them);
+		long byMinors = byPawns | attacks.attackedByPiece(them + 1) | attacks.attackedByPiece(them + 2);
+		long byRooks = byMinors | attacks.attackedByPiece(them + 3);
 		for (int i = start; i < end; i++) {
 			int m = buffer[i];
+			int from = MoveFactory.GetFrom(m), to = MoveFactory.GetTo(m);
+			int piece = PositionFactory.pieceAt(board, from);
 			int idx = historyIndex(white, m);
 			int score = (history != null && idx >= 0 && idx < history.length) ? history[idx] : 0;
-			if (MoveFactory.intToMove(m) == counterMove) {
-				score = Integer.MAX_VALUE - 10000;
+			if (cont1 >= 0 || cont2 >= 0) {
+				int pieceTo = piece * 64 + to;
+				if (cont1 >= 0) score += contHistory1[cont1 + pieceTo];
+				if (cont2 >= 0) score += contHistory2[cont2 + pieceTo];
 			}
-			if (MoveFactory.intToMove(m) == killerMove) {
-				score = Integer.MAX_VALUE - 1000;
-			}
-			scores[i] = score;
+			int type = piece % 6;
+			long cheaper = switch (type) {
+				case 1, 2 -> byPawns;
+				case 3 -> byMinors;
+				case 4 -> byRooks;
+				default -> 0L;
+			};
+			if ((cheaper & (1L << to)) != 0) score -= THREAT_STEP_IN_PENALTY[type];
+			else if ((threatened & (1L << from)) != 0) score += THREAT_ESCAPE_BONUS[type];
+			entries[i] = pack(score, m);
 		}
 	}
 
-	// Reusable selection helper: picks best-scored move in [listIndex, size) and swaps into listIndex
-	private int getnextmove(int[] moves, int[] scores, int size, int listIndex) {
-		int max = Integer.MIN_VALUE;
-		int maxIndex = listIndex;
-		for (int i = listIndex; i < size; i++) {
-			int s = scores[i];
-			if (s > max) { max = s; maxIndex = i; }
+	// Sorts entries in [begin, end) scoring at least limit into descending order at the front; the rest keep generation order
+	private void partialInsertionSort(int begin, int end, int limit) {
+		for (int sortedEnd = begin, p = begin + 1; p < end; p++) {
+			long tmp = entries[p];
+			if (scoreOf(tmp) < limit) continue;
+			entries[p] = entries[++sortedEnd];
+			int q = sortedEnd;
+			for (; q != begin && scoreOf(entries[q - 1]) < scoreOf(tmp); q--) entries[q] = entries[q - 1];
+			entries[q] = tmp;
 		}
-		int tmpM = moves[maxIndex];
-		moves[maxIndex] = moves[listIndex];
-		moves[listIndex] = tmpM;
-		int tmpS = scores[maxIndex];
-		scores[maxIndex] = scores[listIndex];
-		scores[listIndex] = tmpS;
-		return moves[listIndex];
+	}
+
+	private boolean isRefutationCandidate(int move) {
+		return !MoveFactory.isNone(move) && move != ttMove && PositionFactory.isQuiet(board, move) && pos.isPseudoLegalMove(board, move, gen, attacks);
 	}
 
 	int next() {
-        for (;;) {
-            switch (stage) {
-                case TT: {
-                    stage = Stage.CAPTURES;
-                    if (!ttTried && !MoveFactory.isNone(ttMove)) {
-						ttTried = true;
-						if (pos.isPseudoLegalMove(board, ttMove, gen)) return ttMove;
-					}
+		for (;;) {
+			switch (stage) {
+				case TT: {
+					stage = Stage.CAPTURES;
+					index = -1;
+					if (!MoveFactory.isNone(ttMove) && pos.isPseudoLegalMove(board, ttMove, gen, attacks)) return ttMove;
 					break;
 				}
 				case CAPTURES: {
-					if (count == 0) {
+					if (index < 0) {
+						capTotalCount = gen.generateCaptures(board, buffer, 0, attacks);
+						scorecaptures(capTotalCount);
+						partitionCapturesBySEE(capTotalCount);
+						partialInsertionSort(0, capGoodCount, Integer.MIN_VALUE);
 						index = 0;
-						count = gen.generateCaptures(board, buffer, 0);
-						scorecaptures(count);
-						capTotalCount = count;
-						partitionCapturesBySEE(count);
-						count = capGoodCount;
 					}
-					while (index < count) {
-						int m = getnextmove(buffer, scores, count, index++);
-						m = MoveFactory.intToMove(m);
+					while (index < capGoodCount) {
+						int m = MoveFactory.intToMove((int) entries[index++]);
 						if (m == ttMove) continue;
 						return m;
 					}
-
-					quietStart = capTotalCount;
-					count = 0;
-					stage = includeQuiets ? Stage.QUIETS : Stage.BAD_CAPTURES;
+					// Capture-only pickers (qsearch, ProbCut) stop after the good captures
+					stage = includeQuiets ? Stage.KILLER : Stage.DONE;
+					break;
+				}
+				case KILLER: {
+					stage = Stage.COUNTER;
+					if (isRefutationCandidate(killerMove)) {
+						emittedKiller = killerMove;
+						return killerMove;
+					}
+					break;
+				}
+				case COUNTER: {
+					stage = Stage.QUIETS;
+					index = -1;
+					if (counterMove != killerMove && isRefutationCandidate(counterMove)) {
+						emittedCounter = counterMove;
+						return counterMove;
+					}
 					break;
 				}
 				case QUIETS: {
-					if (count == 0) {
-						index = quietStart;
-						int newN = gen.generateQuiets(board, buffer, quietStart);
-						quietCount = newN - quietStart;
-						scorequietsRange(quietStart, quietCount);
-						count = quietStart + quietCount;
+					if (index < 0) {
+						end = gen.generateQuiets(board, buffer, capTotalCount, attacks);
+						scorequietsRange(capTotalCount, end);
+						partialInsertionSort(capTotalCount, end, quietSortLimit);
+						index = capTotalCount;
 					}
-					while (index < count) {
-						int m = getnextmove(buffer, scores, count, index++);
-						m = MoveFactory.intToMove(m);
-						if (m == ttMove) continue;
+					while (index < end) {
+						int m = MoveFactory.intToMove((int) entries[index++]);
+						if (m == ttMove || m == emittedKiller || m == emittedCounter) continue;
 						return m;
 					}
+					partialInsertionSort(capGoodCount, capTotalCount, Integer.MIN_VALUE);
 					index = capGoodCount;
-					count = capTotalCount;
 					stage = Stage.BAD_CAPTURES;
 					break;
 				}
 				case BAD_CAPTURES: {
-					while (index < count) {
-						int m = getnextmove(buffer, scores, count, index++);
-						m = MoveFactory.intToMove(m);
+					while (index < capTotalCount) {
+						int m = MoveFactory.intToMove((int) entries[index++]);
 						if (m == ttMove) continue;
 						return m;
 					}
 					stage = Stage.DONE;
 					break;
 				}
-                default:
+				default:
 					return 0;
 			}
 		}
@@ -0,0 +1,139 @@
+package org.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Converts a network to int8 feature-transformer weights and reports how far its evals move. Each weight becomes
+ * round(w / 2^shift) clamped to a byte and is shifted back left when the engine widens it, so the smallest shift
+ * whose range covers the largest weight loses the least precision; a smaller one clips outliers instead. The
+ * deviation is measured on a FEN file, or on seeded random playouts from the bench positions.
+ */
+final class NetQuantizer {
+  private static final int PLAYOUTS_PER_FEN = 16;
+  private static final int PLAYOUT_PLIES = 40;
+  private static final int NOTICEABLE_CP = 10;
+
+  private NetQuantizer() {}
+
+  /** A negative shift picks the smallest one that clips nothing. */
+  static void run(String in, Path out, int shift, Path fenFile) throws IOException {
+    Eval.Network source = Eval.openNetwork(in);
+    if (source.l1Weights == null) throw new IOException(in + " already has int8 feature-transformer weights");
+    if (shift < 0) shift = fittingShift(source);
+    if (shift > Eval.MAX_L1_SHIFT) throw new IOException("shift " + shift + " above " + Eval.MAX_L1_SHIFT);
+
+    Eval.Network quantised = new Eval.Network(out.toString(), source.hiddenSize, source.outputBuckets,
+        source.qa, source.qb, source.scale, true, shift);
+    long clipped = 0;
+    for (int f = 0; f < Eval.INPUT_SIZE; f++) {
+      for (int j = 0; j < source.hiddenSize; j++) {
+        long q = Math.round(source.l1Weights[f][j] / (double) (1 << shift));
+        if (q < Byte.MIN_VALUE || q > Byte.MAX_VALUE) clipped++;
+        quantised.l1Weights8[f][j] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, q));
+      }
+    }
+    System.arraycopy(source.l1Biases, 0, quantised.l1Biases, 0, source.hiddenSize);
+    System.arraycopy(source.l2Biases, 0, quantised.l2Biases, 0, source.outputBuckets);
+    for (int b = 0; b < source.outputBuckets; b++) {
+      for (int side = 0; side < 2; side++) {
+        System.arraycopy(source.l2Weights[b][side], 0, quantised.l2Weights[b][side], 0, source.hiddenSize);
+      }
+    }
+    try (OutputStream os = Files.newOutputStream(out)) {
+      Eval.writeNetwork(quantised, os);
+    }
+
+    // Boards are large, so positions are scored as they are produced rather than collected
+    Deviation dev = new Deviation(source, quantised);
+    if (fenFile != null) measureFile(fenFile, dev);
+    else measurePlayouts(dev);
+    System.out.println("wrote " + quantised.describe());
+    System.out.printf("ft weights %d KB -> %d KB, shift %d, clipped %d%n",
+        source.l1WeightBytes() / 1024, quantised.l1WeightBytes() / 1024, shift, clipped);
+    System.out.println(dev);
+  }
+
+  private static int fittingShift(Eval.Network n) {
+    int maxAbs = 0;
+    for (short[] row : n.l1Weights) {
+      for (short w : row) maxAbs = Math.max(maxAbs, Math.abs(w));
+    }
+    int shift = 0;
+    while (Math.round(maxAbs / (double) (1 << shift)) > Byte.MAX_VALUE) shift++;
+    return shift;
+  }
+
+  private static void measureFile(Path fenFile, Deviation dev) throws IOException {
+    PositionFactory pf = new PositionFactory();
+    for (String line : Files.readAllLines(fenFile, StandardCharsets.UTF_8)) {
+      if (line.isBlank()) continue;
+      long[] bb;
+      try {
+        bb = pf.fromFen(line.trim());
+      } catch (RuntimeException e) {
+        continue; // Unparsable lines are skipped
+      }
+      dev.add(bb);
+    }
+  }
+
+  private static void measurePlayouts(Deviation dev) {
+    PositionFactory pf = new PositionFactory();
+    MoveGenerator gen = new MoveGenerator();
+    SplittableRandom rnd = new SplittableRandom(0x5EED);
+    int[] moves = new int[256];
+    for (String fen : Bench.BENCH_FENS) {
+      for (int p = 0; p < PLAYOUTS_PER_FEN; p++) {
+        long[] bb = pf.fromFen(fen);
+        dev.add(bb);
+        for (int ply = 0; ply < PLAYOUT_PLIES; ply++) {
+          int n = gen.generateCaptures(bb, moves, 0);
+          n = gen.generateQuiets(bb, moves, n);
+          boolean moved = false;
+          // Try moves in random order until one is legal
+          for (int left = n; left > 0 && !moved; left--) {
+            int k = rnd.nextInt(left);
+            int mv = moves[k];
+            moves[k] = moves[left - 1];
+            moved = pf.makeMoveInPlace(bb, mv, gen);
+          }
+          if (!moved) break;
+          dev.add(bb);
+        }
+      }
+    }
+  }
+
+  private static final class Deviation {
+    private final Eval.Network reference;
+    private final Eval.Network candidate;
+    private long count, sumAbs, sumSq, noticeable;
+    private int max;
+
+    Deviation(Eval.Network reference, Eval.Network candidate) {
+      this.reference = reference;
+      this.candidate = candidate;
+    }
+
+    void add(long[] bb) {
+      int d = Math.abs(Eval.evaluate(candidate, bb) - Eval.evaluate(reference, bb));
+      count++;
+      sumAbs += d;
+      sumSq += (long) d * d;
+      max = Math.max(max, d);
+      if (d >= NOTICEABLE_CP) noticeable++;
+    }
+
+    @Override
+    public String toString() {
+      long n = Math.max(1, count);
+      return String.format("eval deviation over %d positions: mean %.2f cp, rms %.2f cp, max %d cp, >= %d cp %.2f%%",
+          count, (double) sumAbs / n, Math.sqrt((double) sumSq / n), max, NOTICEABLE_CP, 100.0 * noticeable / n);
+    }
+  }
+}
@@ -10,9 +10,13 @@ public final class PositionFactory {
   final static int DIFF_INFO = 14;
 
   final static int HASH = 15;
+  final static int PAWN_HASH = 16;            // zobrist of pawns only
+  final static int NONPAWN_HASH_W = 17;       // zobrist of white pieces other than pawns
+  final static int NONPAWN_HASH_B = 18;       // zobrist of black pieces other than pawns
+  final static int MATERIAL = 19;             // packed piece counts, see Material
   public static final int MAX_MOVE = 6000;
-  final static int COOKIE_SP = 16;
-  final static int COOKIE_BASE = 17;
+  final static int COOKIE_SP = 20;
+  final static int COOKIE_BASE = 21;
   final static int COOKIE_CAP = MAX_MOVE;
   final static int HIST_SP = COOKIE_BASE + COOKIE_CAP; // number of stored history entries
   final static int HIST_BASE = HIST_SP + 1;            // base index of zobrist history
@@ -40,6 +44,11 @@ public final class PositionFactory {
   // Reusable buffer for pseudo-legal membership checks to avoid allocations
   private final int[] pseudoBuffer = new int[256];
 
+  // Cuckoo tables of reversible-move key deltas (Marcel van Kervinck), used to spot repetitions the side to move can force
+  private static final int CUCKOO_SIZE = 8192;
+  private static final long[] CUCKOO_KEYS = new long[CUCKOO_SIZE];
+  private static final int[] CUCKOO_MOVES = new int[CUCKOO_SIZE];
+
   private static final short[] CR_MASK_LOST_FROM = new short[64];
   private static final short[] CR_MASK_LOST_TO   = new short[64];
   private static final int CR_BITS = (int) CR_MASK;
@@ -88,14 +97,52 @@ public final class PositionFactory {
     }
     LIGHT_SQUARES = light;
     DARK_SQUARES  = ~light;
+
+    initCuckoo();
+  }
+
+  private static int cuckooH1(long key) { return (int) (key & (CUCKOO_SIZE - 1)); }
+  private static int cuckooH2(long key) { return (int) ((key >>> 16) & (CUCKOO_SIZE - 1)); }
+
+  private static void initCuckoo() {
+    for (int pc = WP; pc <= BK; ++pc) {
+      if (pc == WP || pc == BP) continue;
+      for (int s1 = 0; s1 < 64; ++s1) {
+        long reach = switch (pc % 6) {
+          case 1 -> MoveGenerator.KNIGHT_ATK[s1];
+          case 2 -> MoveGenerator.bishopAtt(0L, s1);
+          case 3 -> MoveGenerator.rookAtt(0L, s1);
+          case 4 -> MoveGenerator.queenAtt(0L, s1);
+          default -> MoveGenerator.KING_ATK[s1];
+        };
+        for (int s2 = s1 + 1; s2 < 64; ++s2) {
+          if ((reach & (1L << s2)) == 0) continue;
+          int move = MoveFactory.Create(s1, s2, MoveFactory.FLAG_NORMAL);
+          long key = PIECE_SQUARE[pc][s1] ^ PIECE_SQUARE[pc][s2] ^ SIDE_TO_MOVE;
+          int i = cuckooH1(key);
+          while (true) {
+            long tk = CUCKOO_KEYS[i]; CUCKOO_KEYS[i] = key; key = tk;
+            int tm = CUCKOO_MOVES[i]; CUCKOO_MOVES[i] = move; move = tm;
+            if (move == MoveFactory.MOVE_NONE) break;
+            i = (i == cuckooH1(key)) ? cuckooH2(key) : cuckooH1(key);
+          }
+        }
+      }
+    }
   }
 
   public long[] fromFen(String fen) {
-    long[] bb = fenToBitboards(fen);
+    return fromFen(fen, new long[BB_LEN]);
+  }
+
+  /** Parses into an existing board, which saves allocating a full board per position when scanning many FENs. */
+  public long[] fromFen(String fen, long[] bb) {
+    fenToBitboards(fen, bb);
     bb[COOKIE_SP] = 0;
     bb[DIFF_META] = bb[META];
     bb[DIFF_INFO] = 0;
     bb[HASH] = fullHash(bb);
+    initStructureKeys(bb);
     bb[HIST_SP] = 1;
     bb[HIST_BASE] = bb[HASH];
     return bb;
@@ -149,6 +196,36 @@ public final class PositionFactory {
     return bb[HASH];
   }
 
+  public long pawnKey(long[] bb) {
+    return bb[PAWN_HASH];
+  }
+
+  public long nonPawnKey(long[] bb, boolean white) {
+    return bb[white ? NONPAWN_HASH_W : NONPAWN_HASH_B];
+  }
+
+  private static void initStructureKeys(long[] bb) {
+    bb[PAWN_HASH] = 0;
+    bb[NONPAWN_HASH_W] = 0;
+    bb[NONPAWN_HASH_B] = 0;
+    bb[MATERIAL] = 0;
+    for (int pc = WP; pc <= BK; ++pc) {
+      long bits = bb[pc];
+      while (bits != 0) {
+        int sq = Long.numberOfTrailingZeros(bits);
+        toggleStructureKey(bb, pc, sq);
+        bb[MATERIAL] += Material.unit(pc, sq);
+        bits &= bits - 1;
+      }
+    }
+  }
+
+  private static void toggleStructureKey(long[] bb, int piece, int sq) {
+    long z = PIECE_SQUARE[piece][sq];
+    if (piece == WP || piece == BP) bb[PAWN_HASH] ^= z;
+    else bb[piece < 6 ? NONPAWN_HASH_W : NONPAWN_HASH_B] ^= z;
+  }
+
   private char pieceCharAt(long bb[], int sq) {
     for (int i = 0; i < 12; ++i) if ((bb[i] & (1L << sq)) != 0) return "PNBRQKpnbrqk".charAt(i);
     return 0;
@@ -176,6 +253,14 @@ public final class PositionFactory {
   }
 
   public boolean makeMoveInPlace(long[] bb, int mv, MoveGenerator gen) {
+    return makeMoveInPlace(bb, mv, gen, null);
+  }
+
+  /**
+   * As {@link #makeMoveInPlace(long[], int, MoveGenerator)}; attacks, when given, must describe the current
+   * position and lets most moves skip the post-move king-safety test.
+   */
+  public boolean makeMoveInPlace(long[] bb, int mv, MoveGenerator gen, AttackInfo attacks) {
     int from  = MoveFactory.GetFrom(mv);
     int to    = MoveFactory.GetTo(mv);
     int type  = MoveFactory.GetFlags(mv);
@@ -186,11 +271,17 @@ public final class PositionFactory {
     long    fromBit = 1L << from;
     long    toBit   = 1L << to;
 
-    if (type == MoveFactory.FLAG_CASTLE && !gen.castleLegal(bb, from, to))
+    if (type == MoveFactory.FLAG_CASTLE && !gen.castleLegal(bb, from, to, attacks))
       return false;
 
+    boolean knownLegal = attacks != null && isLegalByAttacks(attacks, mover, from, to, type);
+
     long h        = bb[HASH];
     long oldHash  = h;
+    long oldPawnKey = bb[PAWN_HASH];
+    long oldWhiteKey = bb[NONPAWN_HASH_W];
+    long oldBlackKey = bb[NONPAWN_HASH_B];
+    long oldMaterial = bb[MATERIAL];
     int  metaOld  = (int) bb[META];
     int  oldCR    = (metaOld & CR_BITS) >>> CR_SHIFT;
     int  oldEP    = (metaOld & EP_BITS) >>> EP_SHIFT;
@@ -215,31 +306,39 @@ public final class PositionFactory {
                                                 (white?BK:WK);
         bb[captured] &= ~toBit;
         h ^= PIECE_SQUARE[captured][to];
+        toggleStructureKey(bb, captured, to);
+        bb[MATERIAL] -= Material.unit(captured, to);
       }
     } else if (type == MoveFactory.FLAG_EN_PASSANT) {
       int capSq   = white ? to - 8 : to + 8;
       captured    = white ? BP : WP;
       bb[captured] &= ~(1L << capSq);
       h ^= PIECE_SQUARE[captured][capSq];
+      toggleStructureKey(bb, captured, capSq);
+      bb[MATERIAL] -= Material.unit(captured, capSq);
     }
 
     bb[mover] ^= fromBit;
     h ^= PIECE_SQUARE[mover][from];
+    toggleStructureKey(bb, mover, from);
 
     if (type == MoveFactory.FLAG_PROMOTION) {
       int promIdx = (white ? WN : BN) + promo;
       bb[promIdx] |= toBit;
       h ^= PIECE_SQUARE[promIdx][to];
+      toggleStructureKey(bb, promIdx, to);
+      bb[MATERIAL] += Material.unit(promIdx, to) - Material.unit(mover, from);
     } else {
       bb[mover]   |= toBit;
       h ^= PIECE_SQUARE[mover][to];
+      toggleStructureKey(bb, mover, to);
     }
 
     if (type == MoveFactory.FLAG_CASTLE) switch (to) {
-      case  6 -> { bb[WR] ^= (1L<<7)|(1L<<5); h ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; }
-      case  2 -> { bb[WR] ^= (1L<<0)|(1L<<3); h ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; }
-      case 62 -> { bb[BR] ^= (1L<<63)|(1L<<61);h ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61];}
-      case 58 -> { bb[BR] ^= (1L<<56)|(1L<<59);h ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59];}
+      case  6 -> { bb[WR] ^= (1L<<7)|(1L<<5); h ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; bb[NONPAWN_HASH_W] ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; }
+      case  2 -> { bb[WR] ^= (1L<<0)|(1L<<3); h ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; bb[NONPAWN_HASH_W] ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; }
+      case 62 -> { bb[BR] ^= (1L<<63)|(1L<<61);h ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61]; bb[NONPAWN_HASH_B] ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61];}
+      case 58 -> { bb[BR] ^= (1L<<56)|(1L<<59);h ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59]; bb[NONPAWN_HASH_B] ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59];}
     }
 
     int meta = metaOld;
@@ -288,8 +387,12 @@ public final class PositionFactory {
     bb[META]      = meta;
     bb[HASH]      = h;
 
-    if (gen.kingAttacked(bb, white)) {
+    if (!knownLegal && gen.kingAttacked(bb, white)) {
       bb[HASH] = oldHash;
+      bb[PAWN_HASH] = oldPawnKey;
+      bb[NONPAWN_HASH_W] = oldWhiteKey;
+      bb[NONPAWN_HASH_B] = oldBlackKey;
+      bb[MATERIAL] = oldMaterial;
       fastUndo(bb);
       bb[COOKIE_SP] = sp;
       long prev = bb[COOKIE_BASE + sp];
@@ -306,6 +409,13 @@ public final class PositionFactory {
     return true;
   }
 
+  // Out of check, a non-king move is legal unless it leaves a pin line; king, castling and en-passant moves are verified after the move
+  private static boolean isLegalByAttacks(AttackInfo attacks, int mover, int from, int to, int type) {
+    if (type == MoveFactory.FLAG_EN_PASSANT || type == MoveFactory.FLAG_CASTLE || mover == WK || mover == BK) return false;
+    if (attacks.checkers() != 0) return false;
+    return (attacks.pinned() & (1L << from)) == 0 || (AttackInfo.LINE[from * 64 + attacks.kingSquare()] & (1L << to)) != 0;
+  }
+
   public void undoMoveInPlace(long[] bb) {
     long diff   = bb[DIFF_INFO];
     long meta  = bb[DIFF_META];
@@ -338,17 +448,22 @@ public final class PositionFactory {
       bb[promIdx] ^= toBit;
       bb[mover]   |= fromBit;
       h ^= PIECE_SQUARE[promIdx][to] ^ PIECE_SQUARE[mover][from];
+      toggleStructureKey(bb, promIdx, to);
+      toggleStructureKey(bb, mover, from);
+      bb[MATERIAL] -= Material.unit(promIdx, to) - Material.unit(mover, from);
     } else {
       bb[mover] ^= fromBit | toBit;
       h ^= PIECE_SQUARE[mover][to] ^ PIECE_SQUARE[mover][from];
+      toggleStructureKey(bb, mover, to);
+      toggleStructureKey(bb, mover, from);
     }
 
     if (type == MoveFactory.FLAG_CASTLE) { // Castle undo
       switch (to) {
-        case  6 -> { bb[WR] ^= (1L<<7)|(1L<<5); h ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; }
-        case  2 -> { bb[WR] ^= (1L<<0)|(1L<<3); h ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; }
-        case 62 -> { bb[BR] ^= (1L<<63)|(1L<<61);h ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61];}
-        case 58 -> { bb[BR] ^= (1L<<56)|(1L<<59);h ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59];}
+        case  6 -> { bb[WR] ^= (1L<<7)|(1L<<5); h ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; bb[NONPAWN_HASH_W] ^= PIECE_SQUARE[WR][7] ^ PIECE_SQUARE[WR][5]; }
+        case  2 -> { bb[WR] ^= (1L<<0)|(1L<<3); h ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; bb[NONPAWN_HASH_W] ^= PIECE_SQUARE[WR][0] ^ PIECE_SQUARE[WR][3]; }
+        case 62 -> { bb[BR] ^= (1L<<63)|(1L<<61);h ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61]; bb[NONPAWN_HASH_B] ^= PIECE_SQUARE[BR][63] ^ PIECE_SQUARE[BR][61];}
+        case 58 -> { bb[BR] ^= (1L<<56)|(1L<<59);h ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59]; bb[NONPAWN_HASH_B] ^= PIECE_SQUARE[BR][56] ^ PIECE_SQUARE[BR][59];}
       }
     }
 
@@ -356,6 +471,8 @@ public final class PositionFactory {
       int capSq = (type == MoveFactory.FLAG_EN_PASSANT) ? ((mover < 6) ? to - 8 : to + 8) : to;
       bb[capIdx] |= 1L << capSq;
       h ^= PIECE_SQUARE[capIdx][capSq];
+      toggleStructureKey(bb, capIdx, capSq);
+      bb[MATERIAL] += Material.unit(capIdx, capSq);
     }
 
     int sp = (int) bb[COOKIE_SP] - 1;
@@ -441,13 +558,14 @@ public final class PositionFactory {
     return false;
   }
 
-  private static long[] fenToBitboards(String fen) {
-    long[] bb = new long[BB_LEN];
-    String[] parts = fen.trim().split("\\s+");
+  private static void fenToBitboards(String fen, long[] bb) {
+    Arrays.fill(bb, 0, COOKIE_BASE, 0L);
+    int n = fen.length();
 
-    String board = parts[0];
+    int start = skipSpaces(fen, 0), end = fieldEnd(fen, start);
     int rank = 7, file = 0;
-    for (char c : board.toCharArray()) {
+    for (int i = start; i < end; i++) {
+      char c = fen.charAt(i);
       if (c == '/') {
         rank--;
         file = 0;
@@ -467,20 +585,34 @@ public final class PositionFactory {
       bb[idx] |= 1L << sq;
     }
 
-    boolean whiteToMove = parts[1].equals("w");
+    start = skipSpaces(fen, end);
+    end = fieldEnd(fen, start);
+    if (start == n) throw new IllegalArgumentException("bad fen: " + fen);
+    boolean whiteToMove = end - start == 1 && fen.charAt(start) == 'w';
     long meta = whiteToMove ? 0L : 1L;
 
+    start = skipSpaces(fen, end);
+    end = fieldEnd(fen, start);
+    if (start == n) throw new IllegalArgumentException("bad fen: " + fen);
     int cr = 0;
-    if (parts[2].indexOf('K') >= 0) cr |= 0b0001;
-    if (parts[2].indexOf('Q') >= 0) cr |= 0b0010;
-    if (parts[2].indexOf('k') >= 0) cr |= 0b0100;
-    if (parts[2].indexOf('q') >= 0) cr |= 0b1000;
+    for (int i = start; i < end; i++) {
+      switch (fen.charAt(i)) {
+        case 'K' -> cr |= 0b0001;
+        case 'Q' -> cr |= 0b0010;
+        case 'k' -> cr |= 0b0100;
+        case 'q' -> cr |= 0b1000;
+        default -> {}
+      }
+    }
     meta |= (long) cr << CR_SHIFT;
 
+    start = skipSpaces(fen, end);
+    end = fieldEnd(fen, start);
+    if (start == n) throw new IllegalArgumentException("bad fen: " + fen);
     int epSq = (int) EP_NONE;
-    if (!parts[3].equals("-")) {
-      int f = parts[3].charAt(0) - 'a';
-      int r = parts[3].charAt(1) - '1';
+    if (!(end - start == 1 && fen.charAt(start) == '-')) {
+      int f = fen.charAt(start) - 'a';
+      int r = fen.charAt(start + 1) - '1';
       int potentialEpSq = r * 8 + f;
 
       if (hasEpCaptureStatic(bb, potentialEpSq, whiteToMove)) {
@@ -489,14 +621,27 @@ public final class PositionFactory {
     }
     meta |= (long) epSq << EP_SHIFT;
 
-    int hc = (parts.length > 4) ? Integer.parseInt(parts[4]) : 0;
-    int fm = (parts.length > 5) ? Integer.parseInt(parts[5]) - 1 : 0;
+    start = skipSpaces(fen, end);
+    end = fieldEnd(fen, start);
+    int hc = start < n ? Integer.parseInt(fen, start, end, 10) : 0;
+    start = skipSpaces(fen, end);
+    end = fieldEnd(fen, start);
+    int fm = start < n ? Integer.parseInt(fen, start, end, 10) - 1 : 0;
     if (fm < 0) fm = 0;
     meta |= (long) hc << HC_SHIFT;
     meta |= (long) fm << FM_SHIFT;
 
     bb[META] = meta;
-    return bb;
+  }
+
+  private static int skipSpaces(String s, int i) {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+    return i;
+  }
+
+  private static int fieldEnd(String s, int i) {
+    while (i < s.length() && !Character.isWhitespace(s.charAt(i))) i++;
+    return i;
   }
 
   public long fullHash(long[] bb) {
@@ -525,7 +670,7 @@ public final class PositionFactory {
 
   public boolean isDraw(long[] bb) {
     if (isRepetition(bb)) return true;
-    if (isInsufficientMaterial(bb)) return true;
+    if (Material.isInsufficient(bb[MATERIAL])) return true;
     if (halfmoveClock(bb) >= 100) return true;
     return false;
   }
@@ -546,66 +691,51 @@ public final class PositionFactory {
     return false;
   }
 
-  public boolean isInsufficientMaterial(long[] bb) {
-    if ( (bb[WQ] | bb[BQ] | bb[WR] | bb[BR]) != 0L ) return false;
-
-    long pawns = bb[WP] | bb[BP];
-    if (pawns == 0L) {
-      long occ = bb[WP]|bb[WN]|bb[WB]|bb[WR]|bb[WQ]|bb[WK]|bb[BP]|bb[BN]|bb[BB]|bb[BR]|bb[BQ]|bb[BK];
-      long whiteAll = bb[WP]|bb[WN]|bb[WB]|bb[WR]|bb[WQ]|bb[WK];
-      long blackAll = bb[BP]|bb[BN]|bb[BB]|bb[BR]|bb[BQ]|bb[BK];
+  /**
+   * True if the side to move has a reversible move that reaches a position already seen in the search tree.
+   * Walks back in steps of two plies and keeps only candidates where the opponent's intervening moves cancel out.
+   */
+  public boolean upcomingRepetition(long[] bb, int ply) {
+    int hsp = (int) bb[HIST_SP];
+    int end = Math.min(halfmoveClock(bb), hsp - 1);
+    if (end < 3) return false;
 
-      long count = Long.bitCount(occ);
-      int whiteCount = Long.bitCount(whiteAll);
-      int blackCount = Long.bitCount(blackAll);
+    int top = HIST_BASE + hsp - 1;
+    long originalKey = bb[top];
+    long other = originalKey ^ bb[top - 1] ^ SIDE_TO_MOVE;
+    if (other == 0) return false; // last move was a null move
+    long occ = bb[WP]|bb[WN]|bb[WB]|bb[WR]|bb[WQ]|bb[WK]|bb[BP]|bb[BN]|bb[BB]|bb[BR]|bb[BQ]|bb[BK];
 
-      if (count == 4) {
-        int whiteBishopCount = Long.bitCount(bb[WB]);
-        int blackBishopCount = Long.bitCount(bb[BB]);
-        if (whiteCount > 1 && blackCount > 1) {
-          boolean wbLight = firstBishopIsLight(bb[WB]);
-          boolean bbLight = firstBishopIsLight(bb[BB]);
-          return !((whiteBishopCount == 1 && blackBishopCount == 1) && (wbLight != bbLight));
-        }
-        if (whiteCount == 3 || blackCount == 3) {
-          if (whiteBishopCount == 2 && ( (LIGHT_SQUARES & bb[WB]) == 0L || (DARK_SQUARES & bb[WB]) == 0L )) {
-            return true;
-          } else return blackBishopCount == 2 && ( (LIGHT_SQUARES & bb[BB]) == 0L || (DARK_SQUARES & bb[BB]) == 0L );
-        } else {
-          return Long.bitCount(bb[WN]) == 2 || Long.bitCount(bb[BN]) == 2;
-        }
-      } else {
-        boolean whiteOnlyKB = ((bb[WK] | bb[WB]) == whiteAll);
-        boolean blackOnlyKB = ((bb[BK] | bb[BB]) == blackAll);
-        if (whiteOnlyKB && blackOnlyKB) {
-          return (((LIGHT_SQUARES & bb[WB]) == 0L) && ((LIGHT_SQUARES & bb[BB]) == 0L))
-                  || (((DARK_SQUARES & bb[WB]) == 0L) && ((DARK_SQUARES & bb[BB]) == 0L));
-        }
-        return count < 4;
+    for (int i = 3; i <= end; i += 2) {
+      long ourDelta = bb[top - i + 2] ^ bb[top - i + 1];
+      long theirDelta = bb[top - i + 1] ^ bb[top - i];
+      if (ourDelta == SIDE_TO_MOVE || theirDelta == SIDE_TO_MOVE) return false; // never look past a null move
+      other ^= theirDelta ^ SIDE_TO_MOVE;
+      if (other != 0) continue;
+
+      long moveKey = originalKey ^ bb[top - i];
+      int j = cuckooH1(moveKey);
+      if (CUCKOO_KEYS[j] != moveKey) {
+        j = cuckooH2(moveKey);
+        if (CUCKOO_KEYS[j] != moveKey) continue;
       }
+      int move = CUCKOO_MOVES[j];
+      int s1 = MoveFactory.GetFrom(move);
+      int s2 = MoveFactory.GetTo(move);
+      long s2Bit = 1L << s2;
+      boolean pathClear = (MoveGenerator.KNIGHT_ATK[s1] & s2Bit) != 0 || (MoveGenerator.queenAtt(occ, s1) & s2Bit) != 0;
+      if (pathClear && ply > i) return true;
     }
-
     return false;
   }
 
-  private static boolean firstBishopIsLight(long bishops) {
-    if (bishops == 0L) return false;
-    int sq = Long.numberOfTrailingZeros(bishops);
-    int r = sq >>> 3, f = sq & 7;
-    return ((r + f) & 1) != 0;
-  }
-
   public boolean isInCheck(long[] bb) {
     MoveGenerator gen = new MoveGenerator();
     return gen.kingAttacked(bb, whiteToMove(bb));
   }
 
   public boolean hasNonPawnMaterialForSide(long[] bb, boolean white) {
-    if (white) {
-      return (bb[WN] | bb[WB] | bb[WR] | bb[WQ]) != 0L;
-    } else {
-      return (bb[BN] | bb[BB] | bb[BR] | bb[BQ]) != 0L;
-    }
+    return Material.hasNonPawnMaterial(bb[MATERIAL], white);
   }
 
   public boolean hasNonPawnMaterialForSTM(long[] bb) {
@@ -722,6 +852,15 @@ public final class PositionFactory {
     return givesCheck(bb, mv, new MoveGenerator());
   }
 
+  /** Answers normal moves from the cached check squares and discovered-check candidates; other moves are played out. */
+  public boolean givesCheck(long[] bb, int mv, MoveGenerator gen, AttackInfo attacks) {
+    if (MoveFactory.GetFlags(mv) != MoveFactory.FLAG_NORMAL) return givesCheck(bb, mv, gen);
+    int from = MoveFactory.GetFrom(mv);
+    long toBit = 1L << MoveFactory.GetTo(mv);
+    if ((attacks.checkSquares(pieceAt(bb, from) % 6) & toBit) != 0) return true;
+    return (attacks.discoverers() & (1L << from)) != 0 && (AttackInfo.LINE[from * 64 + attacks.enemyKingSquare()] & toBit) == 0;
+  }
+
   public boolean givesCheck(long[] bb, int mv, MoveGenerator gen) {
     if (!makeMoveInPlace(bb, mv, gen)) return false;
     boolean check = isInCheck(bb);
@@ -730,6 +869,10 @@ public final class PositionFactory {
   }
 
   public boolean isPseudoLegalMove(long[] bb, int mv, MoveGenerator gen) {
+    return isPseudoLegalMove(bb, mv, gen, null);
+  }
+
+  public boolean isPseudoLegalMove(long[] bb, int mv, MoveGenerator gen, AttackInfo attacks) {
     int m = MoveFactory.intToMove(mv);
     if (MoveFactory.isNone(m)) return false;
 
@@ -754,7 +897,7 @@ public final class PositionFactory {
     int dr = toRank - fromRank;
     int df = toFile - fromFile;
     int absDf = df < 0 ? -df : df;
-    long occ = bb[WP]|bb[WN]|bb[WB]|bb[WR]|bb[WQ]|bb[WK]|bb[BP]|bb[BN]|bb[BB]|bb[BR]|bb[BQ]|bb[BK];
+    long occ = attacks != null ? attacks.occupancy() : bb[WP]|bb[WN]|bb[WB]|bb[WR]|bb[WQ]|bb[WK]|bb[BP]|bb[BN]|bb[BB]|bb[BR]|bb[BQ]|bb[BK];
     long toBit = 1L << to;
 
     // Handle special flags explicitly
@@ -764,7 +907,7 @@ public final class PositionFactory {
       else       { if (from != 60 || (to != 62 && to != 58)) return false; }
       if (toPiece != -1) return false;
       if (gen == null) gen = new MoveGenerator();
-      return gen.castleLegal(bb, from, to);
+      return gen.castleLegal(bb, from, to, attacks);
     }
 
     if (flags == MoveFactory.FLAG_EN_PASSANT) {
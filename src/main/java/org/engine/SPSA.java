@@ -27,6 +27,9 @@ TMInstabilityScoreWeight10000, int, 69.0, 0.0, 1000.0, 5.0, 0.003
 RazorMaxDepth, int, 1.0, 0.0, 4.0, 1.0, 0.00333333
 RazorMarginPerDepth, int, 256.0, 0.0, 1024.0, 16.0, 0.003
 
+ProbCutMinDepth, int, 5.0, 0.0, 16.0, 1.0, 0.005
+ProbCutMargin, int, 200.0, 0.0, 1024.0, 16.0, 0.003
+
 Notes:
 - LMRBase100 -> lmrBase = value / 100.0
 - LMRDivisor100 -> lmrDivisor = value / 100.0
@@ -59,6 +62,8 @@ public final class SPSA {
     public double tmInstabilityScoreWeight = 0.0069;
     public int razorMaxDepth = 1;
     public int razorMarginPerDepth = 256;
+    public int probcutMinDepth = 5;
+    public int probcutMargin = 200;
 
     public void setByName(String name, int value) {
         if (name == null) return;
@@ -136,6 +141,12 @@ public final class SPSA {
             case "RazorMarginPerDepth":
                 razorMarginPerDepth = Math.max(0, value);
                 break;
+            case "ProbCutMinDepth":
+                probcutMinDepth = Math.max(0, value);
+                break;
+            case "ProbCutMargin":
+                probcutMargin = Math.max(0, value);
+                break;
             default:
                 break;
         }
@@ -5,7 +5,10 @@ import java.util.List;
 
 public final class Search {
 
+	private final TranspositionTable tt;
+	private final TranspositionTable qtt;
 	private final Eval.NNUEState nnueState = new Eval.NNUEState();
+	private final EvalCache evalCache = new EvalCache();
 
 	public static final int MAX_PLY = 256;
 	private static final int MAX_MOVES = 256;
@@ -18,18 +21,27 @@ public final class Search {
 		public int depth = -1;
 		public long softMs = 0L;
 		public long hardMs = 0L;
+		// Root moves to consider, all legal moves when null
+		public int[] searchMoves;
+		// Stop once this many nodes have been searched, unbounded when 0
+		public long nodes = 0L;
+		// Score a root move must beat, see setRootBound; NO_BOUND for an exact search
+		public int rootBound = NO_BOUND;
 	}
 
+	public static final int NO_BOUND = Integer.MIN_VALUE;
+
 	public static final class Result {
 		public int bestMove;
 		public int scoreCp;
+		public long nodes;
+		public int depth;
 		public List<Integer> pv = new ArrayList<>();
 	}
 
 	private enum NodeType { rootNode, pvNode, nonPVNode }
 
 	private static final class StackEntry {
-		int[] pv;
 		int pvLength;
 		boolean inCheck;
 		int move;
@@ -37,9 +49,10 @@ public final class Search {
 		int searchKiller;
 		int staticEval;
 		int reduction;
+		int contHistIndex;
+		final AttackInfo attacks = new AttackInfo();
 
 		StackEntry() {
-			this.pv = new int[MAX_PLY];
 			this.pvLength = 0;
 			this.inCheck = false;
 			this.move = MoveFactory.MOVE_NONE;
@@ -47,23 +60,38 @@ public final class Search {
 			this.searchKiller = MoveFactory.MOVE_NONE;
 			this.staticEval = SCORE_NONE;
 			this.reduction = 0;
+			this.contHistIndex = -1;
 		}
 	}
 
 	@FunctionalInterface
 	public interface InfoHandler {
 		void onInfo(int depth, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs, List<Integer> pv);
+
+		/** An iteration in which no root move beat the root bound; scoreCp is only an upper bound and there is no PV. */
+		default void onUpperBound(int depth, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs) {}
 	}
 
 	private volatile boolean stopRequested = false;
+	private volatile int rootBound = NO_BOUND;
 	private long startTimeMs;
 	private long softStopTimeMs;
 	private long hardStopTimeMs;
+	private long nodeLimit;
 	private long nodes;
 	private int selDepth;
-	private StackEntry[] stack;
-	private final int[][] moveScores = new int[MAX_PLY + 5][MAX_MOVES];
-	private final int[][] moveBuffers = new int[MAX_PLY + 5][MAX_MOVES];
+	private int[] rootMoves;
+	// Per-ply entries and move buffers are allocated up to the deepest ply reached so far
+	private final StackEntry[] stack = new StackEntry[MAX_PLY + 5];
+	private final long[][] moveEntries = new long[MAX_PLY + 5][];
+	private final int[][] moveBuffers = new int[MAX_PLY + 5][];
+	private int allocatedPlies;
+	// Rough size of a StackEntry with its AttackInfo, for the working-set report
+	private static final int STACK_ENTRY_BYTES = 900;
+
+	// Triangular PV table: the row for ply p holds PV_PLIES - p moves and starts at pvStart(p)
+	private static final int PV_PLIES = MAX_PLY + 5;
+	private final int[] pvTable = new int[PV_PLIES * (PV_PLIES + 1) / 2];
 	private final MoveGenerator moveGen = new MoveGenerator();
 	private final PositionFactory pos = new PositionFactory();
 
@@ -72,10 +100,28 @@ public final class Search {
 	private final int[] history = new int[HISTORY_SIZE];
 	private final int[] counterMoves = new int[HISTORY_SIZE];
 
+	// Continuation history: [prevPiece][prevTo][piece][to], one table for the move 1 ply back and one for 2 plies back.
+	private static final int PIECE_TO_SIZE = 12 * 64;
+	private static final int CONT_HISTORY_SIZE = PIECE_TO_SIZE * PIECE_TO_SIZE;
+	private final int[] contHistory1 = new int[CONT_HISTORY_SIZE];
+	private final int[] contHistory2 = new int[CONT_HISTORY_SIZE];
+
+	private final int[] captureHistory = new int[MovePicker.CAPTURE_HISTORY_SIZE];
+
+	// Static-eval correction history: running average of (search score - raw eval), keyed by pawn and non-pawn structure.
+	private static final int CORR_HIST_SIZE = 16384;
+	private static final int CORR_HIST_GRAIN = 256;
+	private static final int CORR_HIST_WEIGHT_SCALE = 256;
+	private static final int CORR_HIST_MAX = CORR_HIST_GRAIN * 32;
+	private final int[] pawnCorrHistory = new int[2 * CORR_HIST_SIZE];
+	private final int[] whiteNonPawnCorrHistory = new int[2 * CORR_HIST_SIZE];
+	private final int[] blackNonPawnCorrHistory = new int[2 * CORR_HIST_SIZE];
+
 	private static final int LMR_MAX_DEPTH = 64;
 	private static final int LMR_MAX_MOVES = 64;
 	private final int[][] lmrTable = new int[LMR_MAX_DEPTH + 1][LMR_MAX_MOVES + 1];
-	private final int[][] quietBuffers = new int[MAX_PLY + 5][MAX_MOVES];
+	private final int[][] quietBuffers = new int[MAX_PLY + 5][];
+	private final int[][] captureBuffers = new int[MAX_PLY + 5][];
 
 	private final int lmpMaxDepth;
 	private final int lmpBaseThreshold;
@@ -98,6 +144,8 @@ public final class Search {
 	private final int nmpEvalMax;
 	private final int razorMaxDepth;
 	private final int razorMarginPerDepth;
+	private final int probcutMinDepth;
+	private final int probcutMargin;
     private final int singularMinDepth;
 	private final int singularMarginPerDepth;
 
@@ -109,6 +157,13 @@ public final class Search {
 	private int lastScore = 0;
 
 	public Search(SPSA spsa) {
+		this(spsa, TranspositionTable.TT, TranspositionTable.QTT);
+	}
+
+	/** A searcher that probes and stores only in the given tables. */
+	public Search(SPSA spsa, TranspositionTable tt, TranspositionTable qtt) {
+		this.tt = tt;
+		this.qtt = qtt;
 		if (spsa == null) spsa = new SPSA();
 		this.lmrBase = spsa.lmrBase;
 		this.lmrDivisor = spsa.lmrDivisor;
@@ -134,7 +189,11 @@ public final class Search {
 		this.tmInstabilityScoreWeight = Math.max(0.0, spsa.tmInstabilityScoreWeight);
 		this.razorMaxDepth = Math.max(0, spsa.razorMaxDepth);
 		this.razorMarginPerDepth = Math.max(0, spsa.razorMarginPerDepth);
+		this.probcutMinDepth = Math.max(0, spsa.probcutMinDepth);
+		this.probcutMargin = Math.max(0, spsa.probcutMargin);
+		allocatePlies(1);
 		buildLmrTable();
+		newGame();
 	}
 
 	private void buildLmrTable() {
@@ -155,13 +214,38 @@ public final class Search {
 		stopRequested = true;
 	}
 
+	/**
+	 * Only asks the search whether a root move scores above bound: iterations use a null window at it and report
+	 * upper bounds until a move beats it, after which the search is exact again. Takes effect from the next
+	 * iteration, so it can be moved while a search runs.
+	 */
+	public void setRootBound(int bound) {
+		rootBound = bound == NO_BOUND ? NO_BOUND : Math.max(-INFTY, Math.min(INFTY - 1, bound));
+	}
+
+	/** Nodes searched so far by the current or last search, including an unfinished final iteration. */
+	public long nodes() {
+		return nodes;
+	}
+
+	/** Forget everything learned in the previous game; history is otherwise carried across searches. */
+	public void newGame() {
+		evalCache.clear();
+		clearHistory();
+		clearCounterMoves();
+		clearCorrectionHistory();
+	}
+
 	public Result search(long[] root, Limits limits, InfoHandler infoHandler) {
 		stopRequested = false;
 		startTimeMs = System.currentTimeMillis();
 		nodes = 0L;
 		selDepth = 0;
-		softStopTimeMs = limits.softMs > 0 ? startTimeMs + limits.softMs : Long.MAX_VALUE;
-		hardStopTimeMs = limits.hardMs > 0 ? startTimeMs + limits.hardMs : Long.MAX_VALUE;
+		softStopTimeMs = deadline(limits.softMs);
+		hardStopTimeMs = deadline(limits.hardMs);
+		nodeLimit = limits.nodes > 0 ? limits.nodes : Long.MAX_VALUE;
+		rootMoves = limits.searchMoves;
+		setRootBound(limits.rootBound);
 		iterationScores.clear();
 		completedDepth = 0;
 		lastScore = 0;
@@ -169,12 +253,10 @@ public final class Search {
 		Eval.refreshAccumulator(nnueState, root);
 
         // Age the TT for this new search
-        TranspositionTable.TT.nextSearch();
+        tt.nextSearch();
+        qtt.nextSearch();
 
-		stack = new StackEntry[MAX_PLY + 5];
-		for (int i = 0; i < stack.length; i++) stack[i] = new StackEntry();
-		clearHistory();
-		clearCounterMoves();
+		ageHistory();
 
 		Result result = new Result();
 
@@ -185,9 +267,9 @@ public final class Search {
 		for (int depth = 1; depth <= maxDepth; depth++) {
 			if (stopRequested || System.currentTimeMillis() >= hardStopTimeMs) break;
 
-			int score;
+			int score = -INFTY;
 
-			for (int i = 0; i < stack.length; i++) {
+			for (int i = 0; i < allocatedPlies; i++) {
 				StackEntry e = stack[i];
 				e.pvLength = 0;
 				e.inCheck = false;
@@ -196,12 +278,26 @@ public final class Search {
 				e.searchKiller = MoveFactory.MOVE_NONE;
 				e.staticEval = SCORE_NONE;
 				e.reduction = 0;
+				e.contHistIndex = -1;
 			}
 
 
 			final int rootDepth = depth;
 
-			if (depth <= 3) {
+			int bound = rootBound;
+			boolean upperBound = false;
+			if (bound != NO_BOUND) {
+				score = negamax(root, depth, 0, bound, bound + 1, NodeType.rootNode);
+				if (stopRequested || System.currentTimeMillis() >= hardStopTimeMs) break;
+				upperBound = score <= bound;
+				// A move beat the bound: search this depth again exactly, around the score it reached
+				if (!upperBound && rootBound == bound) rootBound = NO_BOUND;
+				previousScore = score;
+			}
+
+			if (upperBound) {
+				// Nothing beat the bound, so there is no exact score to find at this depth
+			} else if (depth <= 3) {
 				score = negamax(root, depth, 0, -INFTY, INFTY, NodeType.rootNode);
 			} else {
 				int delta = 12;
@@ -231,18 +327,32 @@ public final class Search {
 
 			if (stopRequested || System.currentTimeMillis() >= hardStopTimeMs) break;
 
+			if (upperBound) {
+				result.nodes = nodes;
+				result.depth = depth;
+				long elapsed = Math.max(1, System.currentTimeMillis() - startTimeMs);
+				if (infoHandler != null) {
+					infoHandler.onUpperBound(depth, selDepth, nodes, nodes * 1000L / elapsed, tt.hashfull(), score, elapsed);
+				}
+				completedDepth = depth;
+				if (limits.softMs > 0 && softTimeUp(startTimeMs, limits.softMs)) break;
+				continue;
+			}
+
 			List<Integer> pv = extractPV(0);
 			previousBest = pv.isEmpty() ? MoveFactory.MOVE_NONE : pv.get(0);
 			previousScore = score;
 
 			result.bestMove = previousBest;
 			result.scoreCp = score;
+			result.nodes = nodes;
+			result.depth = depth;
 			result.pv = pv;
 
 			long now = System.currentTimeMillis();
 			long elapsed = Math.max(1, now - startTimeMs);
 			long nps = (nodes * 1000L) / elapsed;
-            int hashfull = TranspositionTable.TT.hashfull();
+            int hashfull = tt.hashfull();
 			if (infoHandler != null) {
 				infoHandler.onInfo(depth, selDepth, nodes, nps, hashfull, score, elapsed, pv);
 			}
@@ -250,7 +360,7 @@ public final class Search {
 			iterationScores.add(previousScore);
 			completedDepth = depth;
 			lastScore = previousScore;
-			if (softTimeUp(startTimeMs, limits.softMs)) break;
+			if (limits.softMs > 0 && softTimeUp(startTimeMs, limits.softMs)) break;
 		}
 
 		return result;
@@ -286,7 +396,9 @@ public final class Search {
 		return currentElapsed >= extendedSoftTime;
 	}
 
+	/** Root and PV nodes. Zero-window nodes, nearly all of the tree, go through {@link #zeroWindow} instead. */
 	private int negamax(long[] board, int depth, int ply, int alpha, int beta, NodeType nodeType) {
+		if (ply + 2 > allocatedPlies) allocatePlies(ply + 2);
 		StackEntry se = stack[ply];
 		se.pvLength = 0;
 		if (stopCheck()) return 0;
@@ -295,6 +407,11 @@ public final class Search {
 
 		if (pos.isDraw(board)) return 0;
 
+		if (nodeType != NodeType.rootNode && alpha < 0 && pos.upcomingRepetition(board, ply)) {
+			alpha = 0;
+			if (alpha >= beta) return alpha;
+		}
+
 		if (nodeType != NodeType.rootNode && depth > 0) {
 			int alphaMate = -MATE_VALUE + ply;
 			int betaMate = MATE_VALUE - ply - 1;
@@ -303,32 +420,84 @@ public final class Search {
 			if (alpha >= beta) return alpha;
 		}
 
-		TranspositionTable.ProbeResult pr = TranspositionTable.TT.probe(pos.zobrist(board));
+		TranspositionTable.ProbeResult pr = tt.probe(pos.zobrist(board));
+		TranspositionTable.Entry entry = pr.entry;
+		boolean tableHit = pr.hit;
+		int tableScore = tableHit ? entry.getScore(ply) : 0;
+		int tableEval = tableHit ? entry.getStaticEval() : TranspositionTable.SCORE_VOID;
+		int tableDepth = tableHit ? entry.getDepth() : -1;
+		int tableBound = tableHit ? entry.getBound() : TranspositionTable.BOUND_NONE;
+		boolean tableWasPv = tableHit && entry.wasPV();
+
+		boolean inCheck = se.attacks.update(board).checkers() != 0;
+		se.inCheck = inCheck;
+		if (inCheck) {
+			se.staticEval = SCORE_NONE;
+		}
+
+		if (depth <= 0) {
+			nodes--;
+			return quiescence(board, ply, alpha, beta, nodeType);
+		}
+
+		if (ply + 1 < stack.length) stack[ply + 1].searchKiller = MoveFactory.MOVE_NONE;
+
+		int rawStaticEval = inCheck ? SCORE_NONE : staticEval(board, ply, tableHit, tableEval, true);
+
+		// Internal iterative reduction when there is no hash move to search first
+		if (!inCheck && nodeType != NodeType.rootNode && !hasHashMove(entry, tableHit) && depth >= Math.max(0, iirMinPVDepth)) {
+			depth--;
+		}
+
+		return searchMoves(board, depth, ply, alpha, beta, nodeType, entry, tableHit, tableScore, tableDepth, tableBound, tableWasPv, rawStaticEval);
+	}
+
+	/**
+	 * Non-PV nodes, searched with the window (beta - 1, beta). Only these take table cutoffs, prune before the move
+	 * loop and try ProbCut, so the PV path above stays small.
+	 */
+	private int zeroWindow(long[] board, int depth, int ply, int beta) {
+		if (ply + 2 > allocatedPlies) allocatePlies(ply + 2);
+		StackEntry se = stack[ply];
+		se.pvLength = 0;
+		if (stopCheck()) return 0;
+		nodes++;
+		selDepth = Math.max(selDepth, ply);
+
+		if (pos.isDraw(board)) return 0;
+
+		// Raising alpha to a draw or mate-distance bound closes a zero window, so either decides the node
+		if (beta <= 0 && pos.upcomingRepetition(board, ply)) return 0;
+		if (depth > 0) {
+			if (beta - 1 < -MATE_VALUE + ply) return -MATE_VALUE + ply;
+			if (beta > MATE_VALUE - ply - 1) return beta - 1;
+		}
+		int alpha = beta - 1;
+
+		TranspositionTable.ProbeResult pr = tt.probe(pos.zobrist(board));
 		TranspositionTable.Entry entry = pr.entry;
-        boolean tableHit = pr.hit;
+		boolean tableHit = pr.hit;
 		int tableScore = 0;
 		int tableEval = TranspositionTable.SCORE_VOID;
-        int tableDepth = -1;
-        int tableBound = TranspositionTable.BOUND_NONE;
-        boolean tableWasPv = false;
-        if (tableHit) {
+		int tableDepth = -1;
+		int tableBound = TranspositionTable.BOUND_NONE;
+		boolean tableWasPv = false;
+		if (tableHit) {
 			tableScore = entry.getScore(ply);
-            tableDepth = entry.getDepth();
-            tableBound = entry.getBound();
-            tableEval = entry.getStaticEval();
-            tableWasPv = entry.wasPV();
-			boolean excludedHere = stack[ply].excludedMove != MoveFactory.MOVE_NONE;
-			if (!excludedHere && nodeType == NodeType.nonPVNode && tableScore != TranspositionTable.SCORE_VOID && tableDepth >= depth) {
-                boolean boundAllows = (tableScore >= beta)
-                        ? ((tableBound & TranspositionTable.BOUND_LOWER) != 0)
-                        : ((tableBound & TranspositionTable.BOUND_UPPER) != 0);
-                if (boundAllows) return tableScore;
-            }
+			tableDepth = entry.getDepth();
+			tableBound = entry.getBound();
+			tableEval = entry.getStaticEval();
+			tableWasPv = entry.wasPV();
+			boolean excludedHere = se.excludedMove != MoveFactory.MOVE_NONE;
+			if (!excludedHere && tableScore != TranspositionTable.SCORE_VOID && tableDepth >= depth) {
+				boolean boundAllows = (tableScore >= beta)
+						? ((tableBound & TranspositionTable.BOUND_LOWER) != 0)
+						: ((tableBound & TranspositionTable.BOUND_UPPER) != 0);
+				if (boundAllows) return tableScore;
+			}
 		}
-		
-
 
-		boolean inCheck = pos.isInCheck(board);
+		boolean inCheck = se.attacks.update(board).checkers() != 0;
 		se.inCheck = inCheck;
 		if (inCheck) {
 			se.staticEval = SCORE_NONE;
@@ -336,81 +505,55 @@ public final class Search {
 
 		if (depth <= 0) {
 			nodes--;
-			return quiescence(board, ply, alpha, beta, nodeType);
+			return quiescence(board, ply, alpha, beta, NodeType.nonPVNode);
 		}
 
 		if (ply + 1 < stack.length) stack[ply + 1].searchKiller = MoveFactory.MOVE_NONE;
 
-		if (!inCheck) {
-            int rawEval = (tableHit && tableEval != TranspositionTable.SCORE_VOID) ? tableEval : evaluate(board);
-			boolean excludedHere = stack[ply].excludedMove != MoveFactory.MOVE_NONE;
-			if (!tableHit && !excludedHere) {
-                boolean isPVHere = (nodeType != NodeType.nonPVNode);
-                boolean pvBitEval = isPVHere || tableWasPv;
-                entry.store(pos.zobrist(board), TranspositionTable.BOUND_NONE, 0, 0, TranspositionTable.SCORE_VOID, rawEval, pvBitEval, ply);
-            }
-            se.staticEval = rawEval;
-        }
+		int rawStaticEval = inCheck ? SCORE_NONE : staticEval(board, ply, tableHit, tableEval, tableWasPv);
 
-		if (!inCheck && nodeType == NodeType.nonPVNode && depth <= razorMaxDepth) {
-			int eval = se.staticEval;
-			if (eval != SCORE_NONE && pos.hasNonPawnMaterialForSTM(board)) {
-				if (Math.abs(alpha) < MATE_VALUE && Math.abs(beta) < MATE_VALUE) {
-					int margin = razorMarginPerDepth * Math.max(1, depth);
-					if (eval + margin <= alpha) {
-						int score = quiescence(board, ply, alpha - 1, alpha, NodeType.nonPVNode);
-						if (score <= alpha) {
-							return score;
-						}
-					}
-				}
+		if (!inCheck) {
+			int cutoff = nonPVPruning(board, depth, ply, alpha, beta);
+			if (cutoff == SCORE_NONE && depth >= probcutMinDepth) {
+				cutoff = probCut(board, depth, ply, beta, entry, tableHit, tableScore, tableDepth, tableWasPv, rawStaticEval);
 			}
-		}
+			if (cutoff != SCORE_NONE) return cutoff;
 
-		if (!inCheck && nodeType == NodeType.nonPVNode && depth <= reverseFutilityMaxDepth) {
-			if (pos.hasNonPawnMaterialForSTM(board)) {
-				int eval = se.staticEval;
-				int margin = reverseFutilityMarginPerDepth * depth;
-				if (Math.abs(beta) < MATE_VALUE && eval - margin >= beta) {
-					return eval - margin;
-				}
-			}
+			// Internal iterative reduction; a zero-window node is always an expected cut node
+			if (!hasHashMove(entry, tableHit) && depth >= Math.max(0, iirMinCutDepth)) depth--;
 		}
 
-		boolean prevWasNull = (ply > 0) && (stack[ply - 1].move == MoveFactory.MOVE_NONE);
-		if (!inCheck && nodeType == NodeType.nonPVNode && depth >= 3 && !prevWasNull) {
-			if (pos.hasNonPawnMaterialForSTM(board)) {
-				int evalBonus = 0;
-				if (Math.abs(beta) < MATE_VALUE) {
-					int diff = se.staticEval - beta;
-					if (diff > 0) {
-						evalBonus = Math.min(nmpEvalMax, diff / Math.max(1, nmpEvalMargin));
-					}
-				}
-				int depthBonus = (int) Math.floor(depth * nmpDepthScale);
-				int R = Math.max(1, nmpBase + depthBonus + evalBonus);
-				stack[ply].move = MoveFactory.MOVE_NONE;
-				pos.makeNullMoveInPlace(board);
-				int score = -negamax(board, depth - 1 - R, ply + 1, -beta, -beta + 1, NodeType.nonPVNode);
-				pos.undoNullMoveInPlace(board);
-				if (score >= beta) {
-					return score;
-				}
-			}
-		}
+		return searchMoves(board, depth, ply, alpha, beta, NodeType.nonPVNode, entry, tableHit, tableScore, tableDepth, tableBound, tableWasPv, rawStaticEval);
+	}
+
+	private static boolean hasHashMove(TranspositionTable.Entry entry, boolean tableHit) {
+		return tableHit && (entry.getPackedMove() & 0xFFFF) != 0;
+	}
 
-		if (!inCheck && nodeType != NodeType.rootNode) {
-			boolean isPVNode = (nodeType != NodeType.nonPVNode);
-			boolean cutNode = (!isPVNode) && (beta == alpha + 1);
-			int ttPackedMove = tableHit ? (entry.getPackedMove() & 0xFFFF) : 0;
-			boolean hasHashMove = tableHit && ttPackedMove != 0;
-			int pvThreshold = Math.max(0, iirMinPVDepth);
-			int cutThreshold = Math.max(0, iirMinCutDepth);
-			if (!hasHashMove && ((isPVNode && depth >= pvThreshold) || (cutNode && depth >= cutThreshold))) {
-				depth--;
+	/** Static eval of a node out of check, corrected into the stack entry; returns the raw eval. */
+	private int staticEval(long[] board, int ply, boolean tableHit, int tableEval, boolean pvBit) {
+		int rawEval;
+		if (tableHit && tableEval != TranspositionTable.SCORE_VOID) {
+			rawEval = tableEval;
+		} else {
+			// Bare evals live in the qsearch table; the main table only takes searched entries
+			TranspositionTable.ProbeResult qpr = qtt.probe(pos.zobrist(board));
+			int qEval = qpr.hit ? qpr.entry.getStaticEval() : TranspositionTable.SCORE_VOID;
+			rawEval = qEval != TranspositionTable.SCORE_VOID ? qEval : evaluate(board);
+			boolean excludedHere = stack[ply].excludedMove != MoveFactory.MOVE_NONE;
+			if (!tableHit && !qpr.hit && !excludedHere) {
+				qpr.entry.store(pos.zobrist(board), TranspositionTable.BOUND_NONE, 0, 0, TranspositionTable.SCORE_VOID, rawEval, pvBit, ply);
 			}
 		}
+		stack[ply].staticEval = correctStaticEval(board, rawEval);
+		return rawEval;
+	}
 
+	/** The move loop shared by every node type, then the table store and correction history update. */
+	private int searchMoves(long[] board, int depth, int ply, int alpha, int beta, NodeType nodeType, TranspositionTable.Entry entry,
+			boolean tableHit, int tableScore, int tableDepth, int tableBound, boolean tableWasPv, int rawStaticEval) {
+		StackEntry se = stack[ply];
+		boolean inCheck = se.inCheck;
 		int[] moves = moveBuffers[ply];
 		int ttMoveForNode = tableHit ? MoveFactory.intToMove(entry.getPackedMove()) : MoveFactory.MOVE_NONE;
 		int killer = MoveFactory.MOVE_NONE;
@@ -424,7 +567,10 @@ public final class Search {
 			}
 			killer = stack[ply].searchKiller;
 		}
-		MovePicker picker = new MovePicker(board, pos, moveGen, history, moves, moveScores[ply], ttMoveForNode, killer, true, counterToPass);
+		int cont1 = ply > 0 ? stack[ply - 1].contHistIndex : -1;
+		int cont2 = ply > 1 ? stack[ply - 2].contHistIndex : -1;
+		MovePicker picker = new MovePicker(board, pos, moveGen, se.attacks, history, captureHistory, moves, moveEntries[ply], depth, ttMoveForNode, killer, true, counterToPass,
+				contHistory1, cont1, contHistory2, cont2);
 
 		boolean movePlayed = false;
 		int originalAlpha = alpha;
@@ -433,73 +579,37 @@ public final class Search {
 		int quietsTried = 0;
 		int[] quietList = quietBuffers[ply];
 		int quietCount = 0;
+		int[] captureList = captureBuffers[ply];
+		int captureCount = 0;
 		for (int move; !MoveFactory.isNone(move = picker.next()); i++) {
 			if (stopCheck()) break;
 
 			if (move == se.excludedMove) {
 				continue;
 			}
+			if (ply == 0 && rootMoves != null && !contains(rootMoves, move)) {
+				i--; // so the first allowed move is still searched as the PV move
+				continue;
+			}
 
 			boolean isQuiet = PositionFactory.isQuiet(board, move);
+			boolean isCapture = !isQuiet && MoveFactory.GetFlags(move) != MoveFactory.FLAG_CASTLE;
+			int movedPiece = PositionFactory.pieceAt(board, MoveFactory.GetFrom(move));
 
-			if (nodeType == NodeType.nonPVNode && !se.inCheck && isQuiet && move != ttMoveForNode && move != killer) {
-				int eval = se.staticEval;
-				if (eval != SCORE_NONE && Math.abs(alpha) < MATE_VALUE && Math.abs(beta) < MATE_VALUE && pos.hasNonPawnMaterialForSTM(board)) {
-					int dIdxF = Math.min(depth, LMR_MAX_DEPTH);
-					int mIdxF = Math.min(i + 1, LMR_MAX_MOVES);
-					int lmrR = lmrTable[dIdxF][mIdxF];
-					int lmrDepth = Math.max(0, depth - lmrR);
-					if (lmrDepth <= futilityMaxDepth) {
-						int margin = futilityMarginPerDepth * Math.max(1, lmrDepth);
-						if (eval + margin <= alpha) {
-							boolean givesCheck = pos.givesCheck(board, move, moveGen);
-							if (!givesCheck) {
-								quietsTried++;
-								continue;
-							}
-						}
-					}
-				}
-			}
-			
-			if (nodeType == NodeType.nonPVNode && !se.inCheck && isQuiet && depth <= lmpMaxDepth && move != ttMoveForNode && move != killer) {
-				int threshold = lmpBaseThreshold + lmpPerDepth * depth;
-				int eval = se.staticEval;
-				if (eval != SCORE_NONE) {
-					int margin = lmpMarginPerDepth * depth;
-					if (quietsTried >= threshold && eval + margin <= alpha) {
-						quietsTried++;
-						continue;
-					}
-				}
+			if (nodeType == NodeType.nonPVNode && !se.inCheck && isQuiet && move != ttMoveForNode && move != killer
+					&& pruneQuietMove(board, se.attacks, move, depth, i, quietsTried, alpha, beta, se.staticEval)) {
+				quietsTried++;
+				continue;
 			}
 
 			int searchDepthChild = depth - 1;
 			int extension = 0;
 
-		if (!se.inCheck && depth >= singularMinDepth && tableHit && move == ttMoveForNode) {
+			if (!se.inCheck && depth >= singularMinDepth && tableHit && move == ttMoveForNode) {
 				boolean ttIsLower = (tableBound & TranspositionTable.BOUND_LOWER) != 0;
 				if (ttIsLower && tableScore != TranspositionTable.SCORE_VOID && Math.abs(tableScore) < MATE_VALUE && tableDepth >= depth - 3) {
 					int singularBeta = tableScore - Math.max(1, singularMarginPerDepth) * depth;
-					int singularDepth = Math.max(1, (depth - 1) / 2);
-
-					int savedPVLen = se.pvLength;
-					int savedMove = se.move;
-					int savedExcluded = se.excludedMove;
-					int savedKiller = se.searchKiller;
-					int savedStaticEval = se.staticEval;
-					int savedReduction = se.reduction;
-
-					se.excludedMove = move;
-					int singularValue = negamax(board, singularDepth, ply, singularBeta - 1, singularBeta, NodeType.nonPVNode);
-					se.excludedMove = savedExcluded;
-
-					se.pvLength = savedPVLen;
-					se.move = savedMove;
-					se.searchKiller = savedKiller;
-					se.staticEval = savedStaticEval;
-					se.reduction = savedReduction;
-
+					int singularValue = singularSearch(board, se, move, depth, ply, singularBeta);
 					if (singularValue < singularBeta) {
 						extension = nodeType != NodeType.pvNode && MoveFactory.GetFlags(move) != MoveFactory.FLAG_PROMOTION ? 2 : 1;
 					} else if (singularBeta >= beta) {
@@ -514,41 +624,31 @@ public final class Search {
 			int appliedReduction = 0;
 			boolean parentIsPV = (nodeType != NodeType.nonPVNode);
 			boolean childPv = parentIsPV && i == 0;
-			if (!se.inCheck && !childPv && isQuiet && depth >= 3 && i >= 1) {
-				if (move == ttMoveForNode) {
-					appliedReduction = 0;
-				} else {
-				int dIdx = Math.min(depth, LMR_MAX_DEPTH);
-				int mIdx = Math.min(i + 1, LMR_MAX_MOVES);
-				int r = lmrTable[dIdx][mIdx];
-				if (parentIsPV) r = Math.max(0, r - 1);
-				if (move == killer) r = Math.max(0, r - 1);
-				boolean whiteSTM = PositionFactory.whiteToMove(board);
-				int hVal = historyScore(whiteSTM, move);
-				if (hVal > (HISTORY_MAX >> 1)) r = Math.max(0, r - 1);
-				else if (hVal < -(HISTORY_MAX >> 1)) r = r + 1;
+			if (!se.inCheck && !childPv && isQuiet && depth >= 3 && i >= 1 && move != ttMoveForNode) {
+				int r = lmrReduction(board, move, movedPiece, depth, i, parentIsPV, move == killer, cont1, cont2);
 				if (r > 0) {
 					appliedReduction = Math.min(r, depth - 1);
 					searchDepthChild = Math.max(1, depth - 1 - appliedReduction);
 					se.reduction = appliedReduction;
 				}
-				}
 			}
 
 			Eval.doMoveAccumulator(nnueState, board, move);
-			if (!pos.makeMoveInPlace(board, move, moveGen)) { Eval.undoMoveAccumulator(nnueState); continue; }
+			if (!pos.makeMoveInPlace(board, move, moveGen, se.attacks)) { Eval.undoMoveAccumulator(nnueState); continue; }
 			movePlayed = true;
 			if (isQuiet && quietCount < MAX_MOVES) quietList[quietCount++] = move;
+			else if (isCapture && captureCount < MAX_MOVES) captureList[captureCount++] = move;
 
 			stack[ply].move = move;
+			stack[ply].contHistIndex = pieceTo(movedPiece, move) * PIECE_TO_SIZE;
 			int score;
 			if (childPv) {
 				score = -negamax(board, searchDepthChild, ply + 1, -beta, -alpha, NodeType.pvNode);
 			} else {
-				score = -negamax(board, searchDepthChild, ply + 1, -alpha - 1, -alpha, NodeType.nonPVNode);
+				score = -zeroWindow(board, searchDepthChild, ply + 1, -alpha);
 
 				if (appliedReduction > 0 && score > alpha) {
-					score = -negamax(board, depth - 1, ply + 1, -alpha - 1, -alpha, NodeType.nonPVNode);
+					score = -zeroWindow(board, depth - 1, ply + 1, -alpha);
 				}
 				
 				if (parentIsPV && score > alpha && score < beta) {
@@ -564,28 +664,17 @@ public final class Search {
 				bestScore = score;
 				if (score > alpha) {
 					alpha = score;
-					se.pv[0] = move;
+					int row = pvStart(ply);
 					int childLen = stack[ply + 1].pvLength;
-					System.arraycopy(stack[ply + 1].pv, 0, se.pv, 1, childLen);
+					pvTable[row] = move;
+					System.arraycopy(pvTable, row + PV_PLIES - ply, pvTable, row + 1, childLen);
 					se.pvLength = childLen + 1;
 				}
 			}
 
 			if (alpha >= beta) {
-				if (isQuiet) {
-					int m = MoveFactory.intToMove(move);
-					if (m != 0) stack[ply].searchKiller = m;
-					boolean white = PositionFactory.whiteToMove(board);
-					applyHistoryUpdatesForCutoff(white, move, Math.max(1, depth), quietList, quietCount);
-					if (ply > 0) {
-						int prev = stack[ply - 1].move;
-						if (!MoveFactory.isNone(prev)) {
-							boolean prevWhite = !PositionFactory.whiteToMove(board);
-							int cIdx = historyIndex(prevWhite, prev);
-							if (cIdx >= 0 && cIdx < counterMoves.length) counterMoves[cIdx] = MoveFactory.intToMove(move);
-						}
-					}
-				}
+				if (isQuiet) updateQuietCutoff(board, move, ply, depth, quietList, quietCount, cont1, cont2);
+				applyCaptureHistoryUpdatesForCutoff(board, isCapture ? move : MoveFactory.MOVE_NONE, Math.max(1, depth), captureList, captureCount);
 				break;
 			}
 		}
@@ -598,19 +687,176 @@ public final class Search {
 
 		int resultBound = bestScore >= beta ? TranspositionTable.BOUND_LOWER : (bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER);
 
-		int bestMove = se.pvLength > 0 ? se.pv[0] : MoveFactory.MOVE_NONE;
-		int rawEval = (se.staticEval != SCORE_NONE) ? se.staticEval : 0;
+		int bestMove = se.pvLength > 0 ? pvTable[pvStart(ply)] : MoveFactory.MOVE_NONE;
+		int rawEval = (rawStaticEval != SCORE_NONE) ? rawStaticEval : 0;
 		boolean isPV = (nodeType != NodeType.nonPVNode);
 		boolean pvBit = isPV || tableWasPv;
 		boolean excludedHere = stack[ply].excludedMove != MoveFactory.MOVE_NONE;
-		if (!excludedHere) {
+		// A root searched over some of its moves only has a partial score, which must not reach the table
+		boolean partialRoot = ply == 0 && rootMoves != null;
+		if (!excludedHere && !partialRoot) {
 			entry.store(pos.zobrist(board), resultBound, depth, MoveFactory.intToMove(bestMove), bestScore, rawEval, pvBit, ply);
+
+			if (!inCheck && (MoveFactory.isNone(bestMove) || PositionFactory.isQuiet(board, bestMove))
+					&& !(resultBound == TranspositionTable.BOUND_LOWER && bestScore <= se.staticEval)
+					&& !(resultBound == TranspositionTable.BOUND_UPPER && bestScore >= se.staticEval)) {
+				updateCorrectionHistory(board, depth, bestScore - rawStaticEval);
+			}
 		}
 
 		return bestScore;
 	}
 
+	/** Razoring, reverse futility and null-move pruning; returns a cutoff score or SCORE_NONE. Only reached at non-PV nodes out of check. */
+	private int nonPVPruning(long[] board, int depth, int ply, int alpha, int beta) {
+		StackEntry se = stack[ply];
+		int eval = se.staticEval;
+		if (!pos.hasNonPawnMaterialForSTM(board)) return SCORE_NONE;
+
+		if (depth <= razorMaxDepth && eval != SCORE_NONE && Math.abs(alpha) < MATE_VALUE && Math.abs(beta) < MATE_VALUE) {
+			int margin = razorMarginPerDepth * Math.max(1, depth);
+			if (eval + margin <= alpha) {
+				int score = quiescence(board, ply, alpha - 1, alpha, NodeType.nonPVNode);
+				if (score <= alpha) return score;
+			}
+		}
+
+		if (depth <= reverseFutilityMaxDepth) {
+			int margin = reverseFutilityMarginPerDepth * depth;
+			if (Math.abs(beta) < MATE_VALUE && eval - margin >= beta) return eval - margin;
+		}
+
+		boolean prevWasNull = (ply > 0) && (stack[ply - 1].move == MoveFactory.MOVE_NONE);
+		if (depth >= 3 && !prevWasNull) {
+			int evalBonus = 0;
+			if (Math.abs(beta) < MATE_VALUE) {
+				int diff = eval - beta;
+				if (diff > 0) {
+					evalBonus = Math.min(nmpEvalMax, diff / Math.max(1, nmpEvalMargin));
+				}
+			}
+			int depthBonus = (int) Math.floor(depth * nmpDepthScale);
+			int R = Math.max(1, nmpBase + depthBonus + evalBonus);
+			se.move = MoveFactory.MOVE_NONE;
+			se.contHistIndex = -1;
+			pos.makeNullMoveInPlace(board);
+			int score = -zeroWindow(board, depth - 1 - R, ply + 1, -beta + 1);
+			pos.undoNullMoveInPlace(board);
+			if (score >= beta) return score;
+		}
+		return SCORE_NONE;
+	}
+
+	// ProbCut: a capture that beats beta by a margin at reduced depth will almost surely beat beta at full depth
+	private int probCut(long[] board, int depth, int ply, int beta, TranspositionTable.Entry entry, boolean tableHit, int tableScore, int tableDepth,
+			boolean tableWasPv, int rawStaticEval) {
+		StackEntry se = stack[ply];
+		if (se.excludedMove != MoveFactory.MOVE_NONE || Math.abs(beta) >= MATE_VALUE - MAX_PLY) return SCORE_NONE;
+		int probBeta = beta + probcutMargin;
+		int probDepth = depth - 4;
+		if (tableHit && tableScore != TranspositionTable.SCORE_VOID && tableDepth >= depth - 3 && tableScore < probBeta) return SCORE_NONE;
+
+		int ttMoveForProbCut = tableHit ? MoveFactory.intToMove(entry.getPackedMove()) : MoveFactory.MOVE_NONE;
+		MovePicker probPicker = new MovePicker(board, pos, moveGen, se.attacks, history, captureHistory, moveBuffers[ply], moveEntries[ply], depth, ttMoveForProbCut, MoveFactory.MOVE_NONE, false, MoveFactory.MOVE_NONE,
+				null, -1, null, -1);
+		int seeThreshold = probBeta - se.staticEval;
+		for (int move; !MoveFactory.isNone(move = probPicker.next()); ) {
+			if (stopCheck()) break;
+			if (PositionFactory.isQuiet(board, move) || MoveFactory.GetFlags(move) == MoveFactory.FLAG_CASTLE) continue;
+			if (SEE.see(board, move) < seeThreshold) continue;
+
+			int movedPiece = PositionFactory.pieceAt(board, MoveFactory.GetFrom(move));
+			Eval.doMoveAccumulator(nnueState, board, move);
+			if (!pos.makeMoveInPlace(board, move, moveGen, se.attacks)) { Eval.undoMoveAccumulator(nnueState); continue; }
+			se.move = move;
+			se.contHistIndex = pieceTo(movedPiece, move) * PIECE_TO_SIZE;
+
+			int score = -quiescence(board, ply + 1, -probBeta, -probBeta + 1, NodeType.nonPVNode);
+			if (score >= probBeta && probDepth > 0) {
+				score = -zeroWindow(board, probDepth, ply + 1, -probBeta + 1);
+			}
+
+			pos.undoMoveInPlace(board);
+			Eval.undoMoveAccumulator(nnueState);
+
+			if (score >= probBeta && !stopRequested) {
+				entry.store(pos.zobrist(board), TranspositionTable.BOUND_LOWER, probDepth + 1, MoveFactory.intToMove(move), score, rawStaticEval, tableWasPv, ply);
+				return score;
+			}
+		}
+		return SCORE_NONE;
+	}
+
+	/** Futility and late-move pruning of a quiet move at a non-PV node. */
+	private boolean pruneQuietMove(long[] board, AttackInfo attacks, int move, int depth, int moveIndex, int quietsTried, int alpha, int beta, int eval) {
+		if (eval == SCORE_NONE) return false;
+		if (Math.abs(alpha) < MATE_VALUE && Math.abs(beta) < MATE_VALUE && pos.hasNonPawnMaterialForSTM(board)) {
+			int lmrR = lmrTable[Math.min(depth, LMR_MAX_DEPTH)][Math.min(moveIndex + 1, LMR_MAX_MOVES)];
+			int lmrDepth = Math.max(0, depth - lmrR);
+			if (lmrDepth <= futilityMaxDepth) {
+				int margin = futilityMarginPerDepth * Math.max(1, lmrDepth);
+				if (eval + margin <= alpha && !pos.givesCheck(board, move, moveGen, attacks)) return true;
+			}
+		}
+		if (depth <= lmpMaxDepth) {
+			int threshold = lmpBaseThreshold + lmpPerDepth * depth;
+			int margin = lmpMarginPerDepth * depth;
+			return quietsTried >= threshold && eval + margin <= alpha;
+		}
+		return false;
+	}
+
+	/** Searches the node again without the TT move; the stack entry is restored afterwards. */
+	private int singularSearch(long[] board, StackEntry se, int move, int depth, int ply, int singularBeta) {
+		int singularDepth = Math.max(1, (depth - 1) / 2);
+
+		int savedPVLen = se.pvLength;
+		int savedMove = se.move;
+		int savedExcluded = se.excludedMove;
+		int savedKiller = se.searchKiller;
+		int savedStaticEval = se.staticEval;
+		int savedReduction = se.reduction;
+
+		se.excludedMove = move;
+		int singularValue = zeroWindow(board, singularDepth, ply, singularBeta);
+		se.excludedMove = savedExcluded;
+
+		se.pvLength = savedPVLen;
+		se.move = savedMove;
+		se.searchKiller = savedKiller;
+		se.staticEval = savedStaticEval;
+		se.reduction = savedReduction;
+		return singularValue;
+	}
+
+	private int lmrReduction(long[] board, int move, int movedPiece, int depth, int moveIndex, boolean parentIsPV, boolean isKiller, int cont1, int cont2) {
+		int r = lmrTable[Math.min(depth, LMR_MAX_DEPTH)][Math.min(moveIndex + 1, LMR_MAX_MOVES)];
+		if (parentIsPV) r = Math.max(0, r - 1);
+		if (isKiller) r = Math.max(0, r - 1);
+		boolean whiteSTM = PositionFactory.whiteToMove(board);
+		int hVal = historyScore(whiteSTM, move) + contHistoryScore(cont1, cont2, movedPiece, move);
+		if (hVal > HISTORY_MAX) r = Math.max(0, r - 1);
+		else if (hVal < -HISTORY_MAX) r = r + 1;
+		return r;
+	}
+
+	private void updateQuietCutoff(long[] board, int move, int ply, int depth, int[] quietList, int quietCount, int cont1, int cont2) {
+		int m = MoveFactory.intToMove(move);
+		if (m != 0) stack[ply].searchKiller = m;
+		boolean white = PositionFactory.whiteToMove(board);
+		applyHistoryUpdatesForCutoff(board, white, move, Math.max(1, depth), quietList, quietCount, cont1, cont2);
+		if (ply > 0) {
+			int prev = stack[ply - 1].move;
+			if (!MoveFactory.isNone(prev)) {
+				boolean prevWhite = !PositionFactory.whiteToMove(board);
+				int cIdx = historyIndex(prevWhite, prev);
+				if (cIdx >= 0 && cIdx < counterMoves.length) counterMoves[cIdx] = m;
+			}
+		}
+	}
+
 	private int quiescence(long[] board, int ply, int alpha, int beta, NodeType nodeType) {
+		if (ply + 2 > allocatedPlies) allocatePlies(ply + 2);
 		StackEntry se = stack[ply];
 		se.pvLength = 0;
 		if (stopCheck()) return 0;
@@ -619,7 +865,16 @@ public final class Search {
 
 		if (pos.isDraw(board)) return 0;
 
-        TranspositionTable.ProbeResult pr = TranspositionTable.TT.probe(pos.zobrist(board));
+		if (alpha < 0 && pos.upcomingRepetition(board, ply)) {
+			alpha = 0;
+			if (alpha >= beta) return alpha;
+		}
+
+        long key = pos.zobrist(board);
+        TranspositionTable.ProbeResult pr = tt.probe(key);
+        // A main-table hit is at least as deep as anything qsearch stores; otherwise read and write the qsearch table
+        boolean mainHit = pr.hit;
+        if (!mainHit) pr = qtt.probe(key);
         TranspositionTable.Entry ttEntry = pr.entry;
         boolean ttHit = pr.hit;
         int ttStaticEval = TranspositionTable.SCORE_VOID;
@@ -638,14 +893,16 @@ public final class Search {
             }
         }
 
-		boolean inCheck = pos.isInCheck(board);
+		boolean inCheck = se.attacks.update(board).checkers() != 0;
 		int originalAlpha = alpha;
 
         int standPat;
+        int rawStaticEval = 0;
         if (!inCheck) {
             int rawEval;
             if (ttStaticEval != TranspositionTable.SCORE_VOID) rawEval = ttStaticEval; else rawEval = evaluate(board);
-            standPat = rawEval;
+            rawStaticEval = rawEval;
+            standPat = correctStaticEval(board, rawEval);
 
             if (ttHit) {
                 int qttScore = ttEntry.getScore(ply);
@@ -662,7 +919,7 @@ public final class Search {
 			if (standPat >= beta) {
 				if (!ttHit && !excludedHere) {
 					boolean pvHere = (nodeType != NodeType.nonPVNode) || ttPV;
-					ttEntry.store(pos.zobrist(board), TranspositionTable.BOUND_LOWER, 0, 0, standPat, rawEval, pvHere, ply);
+					ttEntry.store(key, TranspositionTable.BOUND_LOWER, 0, 0, standPat, rawEval, pvHere, ply);
 				}
                 if (Math.abs(standPat) < MATE_VALUE && Math.abs(beta) < MATE_VALUE)
                     return (standPat + beta) / 2;
@@ -675,10 +932,13 @@ public final class Search {
 
         int[] moves = moveBuffers[ply];
         int ttMoveForQ = ttHit ? MoveFactory.intToMove(ttEntry.getPackedMove()) : MoveFactory.MOVE_NONE;
-        MovePicker picker = new MovePicker(board, pos, moveGen, history, moves, moveScores[ply], ttMoveForQ, MoveFactory.MOVE_NONE, inCheck, MoveFactory.MOVE_NONE);
+        MovePicker picker = new MovePicker(board, pos, moveGen, se.attacks, history, captureHistory, moves, moveEntries[ply], 0, ttMoveForQ, MoveFactory.MOVE_NONE, inCheck, MoveFactory.MOVE_NONE,
+                null, -1, null, -1);
 
 		boolean movePlayed = false;
         int bestScore = standPat;
+        int[] captureList = captureBuffers[ply];
+        int captureCount = 0;
         for (int move; !MoveFactory.isNone(move = picker.next()); ) {
 			if (stopCheck()) break;
 
@@ -688,8 +948,9 @@ public final class Search {
 				}
 			}
 
+			boolean isCapture = !PositionFactory.isQuiet(board, move) && MoveFactory.GetFlags(move) != MoveFactory.FLAG_CASTLE;
 			Eval.doMoveAccumulator(nnueState, board, move);
-			if (!pos.makeMoveInPlace(board, move, moveGen)) { Eval.undoMoveAccumulator(nnueState); continue; }
+			if (!pos.makeMoveInPlace(board, move, moveGen, se.attacks)) { Eval.undoMoveAccumulator(nnueState); continue; }
 			movePlayed = true;
 
 			int score = -quiescence(board, ply + 1, -beta, -alpha, nodeType);
@@ -701,16 +962,19 @@ public final class Search {
 				bestScore = score;
 				if (score > alpha) {
 					alpha = score;
-					se.pv[0] = move;
+					int row = pvStart(ply);
 					int childLen = stack[ply + 1].pvLength;
-					System.arraycopy(stack[ply + 1].pv, 0, se.pv, 1, childLen);
+					pvTable[row] = move;
+					System.arraycopy(pvTable, row + PV_PLIES - ply, pvTable, row + 1, childLen);
 					se.pvLength = childLen + 1;
 				}
 			}
 
 			if (alpha >= beta) {
+				applyCaptureHistoryUpdatesForCutoff(board, isCapture ? move : MoveFactory.MOVE_NONE, 1, captureList, captureCount);
 				break;
 			}
+			if (isCapture && captureCount < MAX_MOVES) captureList[captureCount++] = move;
 		}
 
 		if (!movePlayed) {
@@ -724,20 +988,74 @@ public final class Search {
 		else if (alpha != originalAlpha) bound = TranspositionTable.BOUND_EXACT;
 		else bound = TranspositionTable.BOUND_UPPER;
 
-        int rawEval = (standPat != -INFTY) ? standPat : 0;
-        int bestMove = se.pvLength > 0 ? se.pv[0] : MoveFactory.MOVE_NONE;
+        int bestMove = se.pvLength > 0 ? pvTable[pvStart(ply)] : MoveFactory.MOVE_NONE;
         int storeBound = (bestScore >= beta) ? TranspositionTable.BOUND_LOWER : TranspositionTable.BOUND_UPPER;
-        ttEntry.store(pos.zobrist(board), storeBound, inCheck ? 1 : 0, MoveFactory.intToMove(bestMove), bestScore, rawEval, ttPV, ply);
+        if (!mainHit) ttEntry.store(key, storeBound, inCheck ? 1 : 0, MoveFactory.intToMove(bestMove), bestScore, rawStaticEval, ttPV, ply);
 
 		return bestScore;
 	}
 
 	private int evaluate(long[] board) {
-		return Eval.evaluate(nnueState, board);
+		long key = pos.zobrist(board);
+		int raw = evalCache.probe(key);
+		if (raw == EvalCache.MISS) {
+			raw = Eval.evaluate(nnueState, board);
+			evalCache.store(key, raw);
+		}
+		return Material.adjust(board, raw);
+	}
+
+	public String evalCacheStats() {
+		return evalCache.stats();
+	}
+
+	/** Memory held by this searcher in KB, split by component; per-ply storage counts only the plies reached so far. */
+	public String workingSet() {
+		long acc = nnueState.bytes();
+		long stackBytes = (long) allocatedPlies * (STACK_ENTRY_BYTES + MAX_MOVES * (8 + 3 * 4));
+		long pv = 4L * pvTable.length;
+		long hist = 4L * (history.length + counterMoves.length + contHistory1.length + contHistory2.length + captureHistory.length
+				+ pawnCorrHistory.length + whiteNonPawnCorrHistory.length + blackNonPawnCorrHistory.length);
+		long cache = evalCache.bytes();
+		return String.format("plies %d accumulators %d KB stack %d KB pv %d KB history %d KB evalcache %d KB total %d KB",
+				allocatedPlies, acc / 1024, stackBytes / 1024, pv / 1024, hist / 1024, cache / 1024,
+				(acc + stackBytes + pv + hist + cache) / 1024);
+	}
+
+	private int corrHistIndex(long[] board, long key) {
+		int side = PositionFactory.whiteToMove(board) ? 0 : 1;
+		return side * CORR_HIST_SIZE + (int) (key & (CORR_HIST_SIZE - 1));
+	}
+
+	private int correctStaticEval(long[] board, int rawEval) {
+		int pawn = pawnCorrHistory[corrHistIndex(board, pos.pawnKey(board))];
+		int white = whiteNonPawnCorrHistory[corrHistIndex(board, pos.nonPawnKey(board, true))];
+		int black = blackNonPawnCorrHistory[corrHistIndex(board, pos.nonPawnKey(board, false))];
+		// Every table learns the whole error, so the terms are weighted to sum to one: half pawn, a quarter each side
+		int corrected = rawEval + (2 * pawn + white + black) / (4 * CORR_HIST_GRAIN);
+		return Math.max(-MATE_VALUE + MAX_PLY + 1, Math.min(MATE_VALUE - MAX_PLY - 1, corrected));
+	}
+
+	private void updateCorrectionHistory(long[] board, int depth, int diff) {
+		if (Math.abs(diff) >= MATE_VALUE - MAX_PLY) return;
+		int scaledDiff = diff * CORR_HIST_GRAIN;
+		int weight = Math.min(depth + 1, 16);
+		updateCorrectionEntry(pawnCorrHistory, corrHistIndex(board, pos.pawnKey(board)), scaledDiff, weight);
+		updateCorrectionEntry(whiteNonPawnCorrHistory, corrHistIndex(board, pos.nonPawnKey(board, true)), scaledDiff, weight);
+		updateCorrectionEntry(blackNonPawnCorrHistory, corrHistIndex(board, pos.nonPawnKey(board, false)), scaledDiff, weight);
+	}
+
+	private static void updateCorrectionEntry(int[] table, int idx, int scaledDiff, int weight) {
+		int v = (table[idx] * (CORR_HIST_WEIGHT_SCALE - weight) + scaledDiff * weight) / CORR_HIST_WEIGHT_SCALE;
+		table[idx] = Math.max(-CORR_HIST_MAX, Math.min(CORR_HIST_MAX, v));
 	}
 
 	private boolean stopCheck() {
 		if (stopRequested) return true;
+		if (nodes >= nodeLimit) {
+			stopRequested = true;
+			return true;
+		}
 		if ((nodes & 2047L) == 0L) {
 			long now = System.currentTimeMillis();
 			if (now >= hardStopTimeMs) {
@@ -748,11 +1066,38 @@ public final class Search {
 		return false;
 	}
 
+	// Infinite searches pass Long.MAX_VALUE, which must not wrap around when added to the start time
+	private long deadline(long limitMs) {
+		return limitMs > 0 && limitMs < Long.MAX_VALUE - startTimeMs ? startTimeMs + limitMs : Long.MAX_VALUE;
+	}
+
+	private static boolean contains(int[] moves, int move) {
+		for (int m : moves) if (m == move) return true;
+		return false;
+	}
+
+	private static int pvStart(int ply) {
+		return ply * PV_PLIES - ply * (ply - 1) / 2;
+	}
+
+	private void allocatePlies(int plies) {
+		plies = Math.min(plies, stack.length);
+		for (int i = allocatedPlies; i < plies; i++) {
+			stack[i] = new StackEntry();
+			moveEntries[i] = new long[MAX_MOVES];
+			moveBuffers[i] = new int[MAX_MOVES];
+			quietBuffers[i] = new int[MAX_MOVES];
+			captureBuffers[i] = new int[MAX_MOVES];
+		}
+		allocatedPlies = Math.max(allocatedPlies, plies);
+	}
+
 	private List<Integer> extractPV(int ply) {
 		StackEntry se = stack[ply];
+		int row = pvStart(ply);
 		List<Integer> pv = new ArrayList<>(se.pvLength);
 		for (int i = 0; i < se.pvLength; i++) {
-			int m = se.pv[i];
+			int m = pvTable[row + i];
 			if (MoveFactory.isNone(m)) break;
 			pv.add(m);
 		}
@@ -768,38 +1113,94 @@ public final class Search {
 
 	private void clearHistory() {
 		for (int i = 0; i < history.length; i++) history[i] = 0;
+		for (int i = 0; i < captureHistory.length; i++) captureHistory[i] = 0;
+		for (int i = 0; i < CONT_HISTORY_SIZE; i++) {
+			contHistory1[i] = 0;
+			contHistory2[i] = 0;
+		}
+	}
+
+	private void clearCorrectionHistory() {
+		for (int i = 0; i < pawnCorrHistory.length; i++) {
+			pawnCorrHistory[i] = 0;
+			whiteNonPawnCorrHistory[i] = 0;
+			blackNonPawnCorrHistory[i] = 0;
+		}
 	}
 
 	private void clearCounterMoves() {
 		for (int i = 0; i < counterMoves.length; i++) counterMoves[i] = MoveFactory.MOVE_NONE;
 	}
 
+	// Halve history between moves so the previous search still seeds ordering without dominating it.
+	private void ageHistory() {
+		for (int i = 0; i < history.length; i++) history[i] >>= 1;
+		for (int i = 0; i < captureHistory.length; i++) captureHistory[i] >>= 1;
+		for (int i = 0; i < CONT_HISTORY_SIZE; i++) {
+			contHistory1[i] >>= 1;
+			contHistory2[i] >>= 1;
+		}
+	}
+
 	private int historyScore(boolean white, int move) {
 		return history[historyIndex(white, move)];
 	}
 
+	private static int pieceTo(int piece, int move) {
+		return piece * 64 + MoveFactory.GetTo(move);
+	}
+
+	private int contHistoryScore(int cont1, int cont2, int piece, int move) {
+		int pt = pieceTo(piece, move);
+		int score = 0;
+		if (cont1 >= 0) score += contHistory1[cont1 + pt];
+		if (cont2 >= 0) score += contHistory2[cont2 + pt];
+		return score;
+	}
+
 	private static int calculateHistoryBonus(int depth) {
 		int bonus = Math.max(0, depth * 300 - 300);
 		return Math.min(bonus, HISTORY_MAX - 1);
 	}
 
-	private void updateHistoryScore(int idx, int delta) {
+	private static void updateHistoryScore(int[] table, int idx, int delta) {
 		int d = Math.max(-HISTORY_MAX, Math.min(HISTORY_MAX, delta));
-		int old = history[idx];
+		int old = table[idx];
 		int adj = (int) (((long) Math.abs(d) * (long) old) / HISTORY_MAX);
-		history[idx] = old + d - adj;
+		table[idx] = old + d - adj;
+	}
+
+	private static int calculateCaptureHistoryBonus(int depth) {
+		return Math.min(depth * 300 + 100, HISTORY_MAX - 1);
+	}
+
+	private void applyCaptureHistoryUpdatesForCutoff(long[] board, int bestCapture, int depth, int[] captures, int count) {
+		int bonus = calculateCaptureHistoryBonus(depth);
+		if (!MoveFactory.isNone(bestCapture)) {
+			updateHistoryScore(captureHistory, MovePicker.captureHistoryIndex(board, bestCapture), bonus);
+		}
+		for (int i = 0; i < count; i++) {
+			int mv = captures[i];
+			if (mv == bestCapture) continue;
+			updateHistoryScore(captureHistory, MovePicker.captureHistoryIndex(board, mv), -bonus);
+		}
+	}
+
+	private void updateQuietHistories(long[] board, boolean white, int move, int delta, int cont1, int cont2) {
+		updateHistoryScore(history, historyIndex(white, move), delta);
+		int pt = pieceTo(PositionFactory.pieceAt(board, MoveFactory.GetFrom(move)), move);
+		if (cont1 >= 0) updateHistoryScore(contHistory1, cont1 + pt, delta);
+		if (cont2 >= 0) updateHistoryScore(contHistory2, cont2 + pt, delta);
 	}
 
-	private void applyHistoryUpdatesForCutoff(boolean white, int bestMove, int depth, int[] quietMoves, int count) {
+	private void applyHistoryUpdatesForCutoff(long[] board, boolean white, int bestMove, int depth, int[] quietMoves, int count, int cont1, int cont2) {
 		int bonus = calculateHistoryBonus(depth);
 		int malus = -bonus;
-		int bestIdx = historyIndex(white, bestMove);
-		updateHistoryScore(bestIdx, bonus);
+		updateQuietHistories(board, white, bestMove, bonus, cont1, cont2);
 		for (int i = 0; i < count; i++) {
 			int mv = quietMoves[i];
 			if (mv == bestMove) continue;
-			int idx = historyIndex(white, mv);
-			updateHistoryScore(idx, malus);
+			updateQuietHistories(board, white, mv, malus, cont1, cont2);
 		}
 	}
 }
@@ -0,0 +1,302 @@
+package org.engine;
+
+/**
+ * Rook and bishop attack backends. PEXT is fastest where Long.compress is intrinsified on BMI2 hardware,
+ * fancy magics only need a multiply, and the Kogge-Stone fills need no table at all. The magic table stores a
+ * 16-bit index per slot into the few thousand distinct attack sets, a quarter of the PEXT table's size. The backend is picked
+ * once at startup by timing all three on a fixed sample, or forced with -Dcatalan.slider=pext|magic|kogge.
+ */
+final class Sliders {
+  static final int PEXT = 0, MAGIC = 1, KOGGE_STONE = 2;
+  private static final String[] NAMES = {"pext", "magic", "kogge"};
+
+  static final int BACKEND;
+  private static final long[] PEXT_TABLE;
+  private static final char[] MAGIC_INDEX;
+  private static final long[] MAGIC_ATTACKS;
+  private static final long[] ROOK_MAGICS;
+  private static final long[] BISHOP_MAGICS;
+
+  // Magic and PEXT indices span the same 2^popcount(mask) range per square, so both tables share the PEXT offsets.
+  // The magics found leave no slot unused, so squares cannot overlap; only the attack sets are deduplicated.
+  private static final int TABLE_SIZE = MoveGenerator.BISHOPOFFSET_PEXT[63] + (1 << Long.bitCount(MoveGenerator.BISHOPMASK_PEXT[63]));
+
+  private static final int[] ROOK_DIRS = {8, -8, 1, -1};
+  private static final int[] BISHOP_DIRS = {9, 7, -7, -9};
+
+  private static final long NOT_FILE_A = ~0x0101_0101_0101_0101L;
+  private static final long NOT_FILE_H = ~0x8080_8080_8080_8080L;
+
+  // Per-rank xorshift seeds known to find every magic quickly; the search is deterministic
+  private static final long[] MAGIC_SEEDS = {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+
+  private static final int CALIBRATION_SAMPLES = 1024;
+  private static final int CALIBRATION_PASSES = 64;
+  static volatile long sink;
+
+  static {
+    String forced = System.getProperty("catalan.slider", "auto").trim().toLowerCase();
+    int backend = switch (forced) {
+      case "pext" -> PEXT;
+      case "magic" -> MAGIC;
+      case "kogge", "kogge-stone" -> KOGGE_STONE;
+      default -> -1;
+    };
+
+    long[] rookMagics = new long[64], bishopMagics = new long[64];
+    long[] pext = backend < 0 || backend == PEXT ? loadOrBuildPextTable() : new long[0];
+    long[][] magicAttacks = {new long[0]};
+    char[] magic = backend < 0 || backend == MAGIC ? buildMagicTable(rookMagics, bishopMagics, magicAttacks) : new char[0];
+    if (backend < 0) backend = calibrate(pext, magic, magicAttacks[0], rookMagics, bishopMagics);
+
+    BACKEND = backend;
+    // Only the selected table stays reachable
+    PEXT_TABLE = backend == PEXT ? pext : new long[0];
+    MAGIC_INDEX = backend == MAGIC ? magic : new char[0];
+    MAGIC_ATTACKS = backend == MAGIC ? magicAttacks[0] : new long[0];
+    ROOK_MAGICS = rookMagics;
+    BISHOP_MAGICS = bishopMagics;
+  }
+
+  private Sliders() {}
+
+  static String backendName() {
+    return NAMES[BACKEND];
+  }
+
+  static long rook(long occ, int sq) {
+    return switch (BACKEND) {
+      case PEXT -> rookPext(PEXT_TABLE, occ, sq);
+      case MAGIC -> rookMagic(MAGIC_INDEX, MAGIC_ATTACKS, ROOK_MAGICS, occ, sq);
+      default -> rookKogge(occ, sq);
+    };
+  }
+
+  static long bishop(long occ, int sq) {
+    return switch (BACKEND) {
+      case PEXT -> bishopPext(PEXT_TABLE, occ, sq);
+      case MAGIC -> bishopMagic(MAGIC_INDEX, MAGIC_ATTACKS, BISHOP_MAGICS, occ, sq);
+      default -> bishopKogge(occ, sq);
+    };
+  }
+
+  /**
+   * Builds the tables of every backend and counts, per backend, the rook and bishop lookups that disagree with a
+   * plain ray walk over samples random occupancies plus the empty and full board. Slow; meant for tests.
+   */
+  static int[] mismatches(int samples) {
+    long[] rookMagics = new long[64], bishopMagics = new long[64];
+    long[] pext = loadOrBuildPextTable();
+    long[][] magicAttacks = {new long[0]};
+    char[] magic = buildMagicTable(rookMagics, bishopMagics, magicAttacks);
+
+    int[] bad = new int[3];
+    long[] seed = {0xA77AC5};
+    for (int i = 0; i < samples + 2; ++i) {
+      long occ = i == 0 ? 0L : i == 1 ? -1L : nextRandom(seed) & nextRandom(seed);
+      for (int sq = 0; sq < 64; ++sq) {
+        long rook = slowAttacks(ROOK_DIRS, sq, occ), bishop = slowAttacks(BISHOP_DIRS, sq, occ);
+        if (rookPext(pext, occ, sq) != rook || bishopPext(pext, occ, sq) != bishop) bad[PEXT]++;
+        if (rookMagic(magic, magicAttacks[0], rookMagics, occ, sq) != rook
+            || bishopMagic(magic, magicAttacks[0], bishopMagics, occ, sq) != bishop) bad[MAGIC]++;
+        if (rookKogge(occ, sq) != rook || bishopKogge(occ, sq) != bishop) bad[KOGGE_STONE]++;
+      }
+    }
+    return bad;
+  }
+
+  private static long rookPext(long[] table, long occ, int sq) {
+    return table[MoveGenerator.ROOKOFFSET_PEXT[sq] + (int) Long.compress(occ, MoveGenerator.ROOKMASK_PEXT[sq])];
+  }
+
+  private static long bishopPext(long[] table, long occ, int sq) {
+    return table[MoveGenerator.BISHOPOFFSET_PEXT[sq] + (int) Long.compress(occ, MoveGenerator.BISHOPMASK_PEXT[sq])];
+  }
+
+  private static long rookMagic(char[] index, long[] attacks, long[] magics, long occ, int sq) {
+    long mask = MoveGenerator.ROOKMASK_PEXT[sq];
+    return attacks[index[MoveGenerator.ROOKOFFSET_PEXT[sq] + (int) (((occ & mask) * magics[sq]) >>> (64 - Long.bitCount(mask)))]];
+  }
+
+  private static long bishopMagic(char[] index, long[] attacks, long[] magics, long occ, int sq) {
+    long mask = MoveGenerator.BISHOPMASK_PEXT[sq];
+    return attacks[index[MoveGenerator.BISHOPOFFSET_PEXT[sq] + (int) (((occ & mask) * magics[sq]) >>> (64 - Long.bitCount(mask)))]];
+  }
+
+  private static long rookKogge(long occ, int sq) {
+    long gen = 1L << sq, empty = ~occ;
+    return fillUp(gen, empty, 8, -1L) | fillDown(gen, empty, 8, -1L) | fillUp(gen, empty, 1, NOT_FILE_A) | fillDown(gen, empty, 1, NOT_FILE_H);
+  }
+
+  private static long bishopKogge(long occ, int sq) {
+    long gen = 1L << sq, empty = ~occ;
+    return fillUp(gen, empty, 9, NOT_FILE_A) | fillUp(gen, empty, 7, NOT_FILE_H) | fillDown(gen, empty, 7, NOT_FILE_A) | fillDown(gen, empty, 9, NOT_FILE_H);
+  }
+
+  // Occluded fill towards higher squares; wrap clears the file a shift would wrap onto
+  private static long fillUp(long gen, long empty, int s, long wrap) {
+    empty &= wrap;
+    gen |= empty & (gen << s);
+    empty &= empty << s;
+    gen |= empty & (gen << 2 * s);
+    empty &= empty << 2 * s;
+    gen |= empty & (gen << 4 * s);
+    return (gen << s) & wrap;
+  }
+
+  private static long fillDown(long gen, long empty, int s, long wrap) {
+    empty &= wrap;
+    gen |= empty & (gen >>> s);
+    empty &= empty >>> s;
+    gen |= empty & (gen >>> 2 * s);
+    empty &= empty >>> 2 * s;
+    gen |= empty & (gen >>> 4 * s);
+    return (gen >>> s) & wrap;
+  }
+
+  private static long slowAttacks(int[] dirs, int sq, long occ) {
+    long attacks = 0L;
+    for (int d : dirs) {
+      int s = sq;
+      while (true) {
+        int fileBefore = s & 7;
+        s += d;
+        if (s < 0 || s > 63 || Math.abs((s & 7) - fileBefore) > 1) break;
+        attacks |= 1L << s;
+        if ((occ & (1L << s)) != 0) break;
+      }
+    }
+    return attacks;
+  }
+
+  private static long[] loadOrBuildPextTable() {
+    try (var in = Sliders.class.getResourceAsStream("/gen/Pext.bin")) {
+      if (in != null) {
+        byte[] raw = in.readAllBytes();
+        long[] table = new long[Math.max(TABLE_SIZE, raw.length >>> 3)];
+        java.nio.ByteBuffer.wrap(raw).order(java.nio.ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(table, 0, raw.length >>> 3);
+        return table;
+      }
+    } catch (java.io.IOException ignored) {
+      // fall through and build the table
+    }
+    long[] table = new long[TABLE_SIZE];
+    for (int sq = 0; sq < 64; ++sq) {
+      long rookMask = MoveGenerator.ROOKMASK_PEXT[sq], bishopMask = MoveGenerator.BISHOPMASK_PEXT[sq];
+      for (int i = 0; i < 1 << Long.bitCount(rookMask); ++i)
+        table[MoveGenerator.ROOKOFFSET_PEXT[sq] + i] = slowAttacks(ROOK_DIRS, sq, Long.expand(i, rookMask));
+      for (int i = 0; i < 1 << Long.bitCount(bishopMask); ++i)
+        table[MoveGenerator.BISHOPOFFSET_PEXT[sq] + i] = slowAttacks(BISHOP_DIRS, sq, Long.expand(i, bishopMask));
+    }
+    return table;
+  }
+
+  /** Finds the magics, then returns the per-slot index table; attacksOut[0] receives the distinct attack sets. */
+  private static char[] buildMagicTable(long[] rookMagics, long[] bishopMagics, long[][] attacksOut) {
+    long[] table = new long[TABLE_SIZE];
+    int[] epoch = new int[TABLE_SIZE];
+    int[] attempt = {0};
+    for (int sq = 0; sq < 64; ++sq) {
+      rookMagics[sq] = findMagic(table, epoch, attempt, ROOK_DIRS, sq, MoveGenerator.ROOKMASK_PEXT[sq], MoveGenerator.ROOKOFFSET_PEXT[sq]);
+      bishopMagics[sq] = findMagic(table, epoch, attempt, BISHOP_DIRS, sq, MoveGenerator.BISHOPMASK_PEXT[sq], MoveGenerator.BISHOPOFFSET_PEXT[sq]);
+    }
+
+    java.util.Map<Long, Integer> ids = new java.util.HashMap<>();
+    char[] index = new char[TABLE_SIZE];
+    long[] attacks = new long[TABLE_SIZE];
+    for (int i = 0; i < TABLE_SIZE; ++i) {
+      int id = ids.computeIfAbsent(table[i], v -> ids.size());
+      if (id > Character.MAX_VALUE) throw new IllegalStateException("too many distinct slider attack sets");
+      attacks[id] = table[i];
+      index[i] = (char) id;
+    }
+    attacksOut[0] = java.util.Arrays.copyOf(attacks, ids.size());
+    return index;
+  }
+
+  private static long findMagic(long[] table, int[] epoch, int[] attempt, int[] dirs, int sq, long mask, int offset) {
+    int bits = Long.bitCount(mask);
+    int size = 1 << bits;
+    long[] occupancy = new long[size];
+    long[] reference = new long[size];
+    long b = 0L;
+    int n = 0;
+    do {
+      occupancy[n] = b;
+      reference[n++] = slowAttacks(dirs, sq, b);
+      b = (b - mask) & mask;
+    } while (b != 0);
+
+    long[] seed = {MAGIC_SEEDS[sq >>> 3]};
+    while (true) {
+      long magic;
+      do {
+        magic = nextRandom(seed) & nextRandom(seed) & nextRandom(seed);
+      } while (Long.bitCount((magic * mask) >>> 56) < 6);
+
+      int cnt = ++attempt[0];
+      boolean ok = true;
+      for (int i = 0; i < size; ++i) {
+        int idx = offset + (int) ((occupancy[i] * magic) >>> (64 - bits));
+        if (epoch[idx] < cnt) {
+          epoch[idx] = cnt;
+          table[idx] = reference[i];
+        } else if (table[idx] != reference[i]) {
+          ok = false;
+          break;
+        }
+      }
+      if (ok) return magic;
+    }
+  }
+
+  private static long nextRandom(long[] s) {
+    long x = s[0];
+    x ^= x >>> 12;
+    x ^= x << 25;
+    x ^= x >>> 27;
+    s[0] = x;
+    return x * 2685821657736338717L;
+  }
+
+  private static int calibrate(long[] pext, char[] magic, long[] magicAttacks, long[] rookMagics, long[] bishopMagics) {
+    long[] occ = new long[CALIBRATION_SAMPLES];
+    int[] squares = new int[CALIBRATION_SAMPLES];
+    long[] seed = {0x5EED};
+    for (int i = 0; i < CALIBRATION_SAMPLES; ++i) {
+      occ[i] = nextRandom(seed) & nextRandom(seed);
+      squares[i] = (int) (nextRandom(seed) >>> 58);
+    }
+
+    long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+    // Early rounds only warm up the JIT; keep the best later timing per backend
+    for (int round = 0; round < 5; ++round) {
+      for (int backend = PEXT; backend <= KOGGE_STONE; ++backend) {
+        long t0 = System.nanoTime();
+        sink += timeBackend(backend, occ, squares, pext, magic, magicAttacks, rookMagics, bishopMagics);
+        long elapsed = System.nanoTime() - t0;
+        if (round >= 2) best[backend] = Math.min(best[backend], elapsed);
+      }
+    }
+    int choice = PEXT;
+    for (int backend = MAGIC; backend <= KOGGE_STONE; ++backend) if (best[backend] < best[choice]) choice = backend;
+    return choice;
+  }
+
+  private static long timeBackend(int backend, long[] occ, int[] squares, long[] pext, char[] magic, long[] magicAttacks,
+                                  long[] rookMagics, long[] bishopMagics) {
+    long acc = 0L;
+    for (int pass = 0; pass < CALIBRATION_PASSES; ++pass) {
+      for (int i = 0; i < CALIBRATION_SAMPLES; ++i) {
+        long o = occ[i] ^ pass;
+        int sq = squares[i];
+        acc += switch (backend) {
+          case PEXT -> rookPext(pext, o, sq) ^ bishopPext(pext, o, sq);
+          case MAGIC -> rookMagic(magic, magicAttacks, rookMagics, o, sq) ^ bishopMagic(magic, magicAttacks, bishopMagics, o, sq);
+          default -> rookKogge(o, sq) ^ bishopKogge(o, sq);
+        };
+      }
+    }
+    return acc;
+  }
+}
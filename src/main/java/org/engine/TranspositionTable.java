@@ -1,6 +1,20 @@
 package org.engine;
 
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 public final class TranspositionTable {
 
@@ -22,24 +36,63 @@ public final class TranspositionTable {
 
     public static final short SCORE_VOID = (short) 0x7FFF;
 
+    // Shared by the UCI loop and the benches; hosted games own their tables
     public static final TranspositionTable TT = new TranspositionTable();
 
+    // Small table for qsearch and static-eval-only entries so they stay out of the main table's buckets; sized to sit in L2
+    public static final TranspositionTable QTT = newQuiescenceTable();
+    private static final long QTT_KILOBYTES = 1024;
+
+    // Entries at or above this depth count as deep for the survival statistics
+    private static final int DEEP_DEPTH = 8;
+
     private long[] bodies;
     private short[] keys;
     private long numBuckets;
     private byte age;
 
-    private TranspositionTable() {
+    // Table before the last resize, holding entries whose new bucket could not be derived from their 16-bit key.
+    // Probes that miss fall back to it and migrate the entry; it is dropped once the first search after the resize ends.
+    private long[] prevBodies;
+    private short[] prevKeys;
+    private long prevBuckets;
+    private int prevSearchesLeft;
+
+    // Shared mode: entries live in a file mapped by every attached process instead of in keys/bodies
+    private MemorySegment shared;
+    private FileChannel sharedChannel;
+    private Arena sharedArena;
+    private Path sharedPath;
+    private Thread detachHook;
+
+    private long probes;
+    private long probeHits;
+    private long stores;
+    private long deepStores;
+    private long deepEvictions;
+
+    /** An empty table; {@link #init} sizes it. */
+    public TranspositionTable() {
         this.bodies = null;
         this.keys = null;
         this.numBuckets = 0L;
         this.age = 1;
     }
 
+    /** A table sized like {@link #QTT}, for a searcher that does not share the global one. */
+    public static TranspositionTable newQuiescenceTable() {
+        TranspositionTable t = new TranspositionTable();
+        t.initBytes(QTT_KILOBYTES * 1024L);
+        return t;
+    }
+
     public synchronized void init(long megaBytes) {
         final long ONE_MB = 1024L * 1024L;
-        final long hashSize = megaBytes * ONE_MB;
+        initBytes(megaBytes * ONE_MB);
+    }
 
+    private void initBytes(long hashSize) {
+        if (shared != null) throw new IllegalStateException("the hash is shared through " + sharedPath);
         this.numBuckets = hashSize / SET_SIZE_BYTES_NO_PADDING;
 
         long numEntriesLong = this.numBuckets * SLOTS_PER_SET;
@@ -54,18 +107,137 @@ public final class TranspositionTable {
     }
 
     public synchronized void clear() {
+        dropPrevious();
+        if (shared != null) {
+            clearShared();
+            return;
+        }
         if (bodies == null || keys == null) return;
         Arrays.fill(bodies, 0L);
         Arrays.fill(keys, (short) 0);
         age = 1;
+        probes = probeHits = stores = deepStores = deepEvictions = 0;
+    }
+
+    /**
+     * Changes the table size keeping what it can. Only 16 bits of each key are stored, so an entry can be moved
+     * eagerly only when its whole old bucket maps onto a single new bucket; that holds for most buckets when
+     * shrinking, and those entries are rehashed in parallel, keeping the deeper and more recent entry when they
+     * collide. The rest, which is every entry when growing, stay in the old table: a probe that misses the new
+     * table looks there and moves the entry it finds. The old table is released once the next search has run.
+     * Must not run while a search is using the table.
+     *
+     * @return number of entries carried over eagerly
+     */
+    public synchronized long resize(long megaBytes) {
+        if (shared != null) throw new IllegalStateException("the hash is shared through " + sharedPath);
+        if (bodies == null) {
+            init(megaBytes);
+            return 0;
+        }
+        long newBuckets = megaBytes * 1024L * 1024L / SET_SIZE_BYTES_NO_PADDING;
+        if (newBuckets == numBuckets) return 0;
+        if (newBuckets * SLOTS_PER_SET > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Requested TT too large: entries=" + newBuckets * SLOTS_PER_SET);
+        }
+
+        dropPrevious();
+        long[] oldBodies = bodies;
+        short[] oldKeys = keys;
+        long oldBuckets = numBuckets;
+        bodies = new long[(int) (newBuckets * SLOTS_PER_SET)];
+        keys = new short[bodies.length];
+        numBuckets = newBuckets;
+
+        long moved = rehash(oldKeys, oldBodies, oldBuckets);
+        prevKeys = oldKeys;
+        prevBodies = oldBodies;
+        prevBuckets = oldBuckets;
+        prevSearchesLeft = 2;
+        return moved;
+    }
+
+    private long rehash(short[] oldKeys, long[] oldBodies, long oldBuckets) {
+        // 2^64 = q * oldBuckets + r, so the first key of old bucket b is b * q + ceil(b * r / oldBuckets)
+        long q = Long.divideUnsigned(-1L, oldBuckets);
+        long r = Long.remainderUnsigned(-1L, oldBuckets) + 1;
+        if (r == oldBuckets) { q++; r = 0; }
+        final long fq = q, fr = r;
+
+        // Chunks of one parity never share a destination bucket, so each parity can run in parallel without locking
+        int chunk = (int) Math.max(1 << 16, 2 * (oldBuckets / numBuckets + 1));
+        int chunks = (int) ((oldBuckets + chunk - 1) / chunk);
+        LongAdder moved = new LongAdder();
+        for (int parity = 0; parity < 2; parity++) {
+            final int p = parity;
+            IntStream.range(0, (chunks + 1 - p) / 2).parallel().forEach(c -> {
+                long start = (long) (2 * c + p) * chunk, end = Math.min(oldBuckets, start + chunk);
+                long n = 0;
+                for (long b = start; b < end; b++) {
+                    long firstKey = b * fq + (b * fr + oldBuckets - 1) / oldBuckets;
+                    long lastKey = b == oldBuckets - 1 ? -1L : (b + 1) * fq + ((b + 1) * fr + oldBuckets - 1) / oldBuckets - 1;
+                    long dest = mulhi(firstKey, numBuckets);
+                    if (dest != mulhi(lastKey, numBuckets)) continue;
+                    for (int slot = 0; slot < SLOTS_PER_SET; slot++) {
+                        int i = setBase((int) b) + slot;
+                        if (emptyBody(oldBodies[i])) continue;
+                        if (place(setBase((int) dest), oldKeys[i], oldBodies[i])) n++;
+                        oldKeys[i] = 0;
+                        oldBodies[i] = 0L;
+                    }
+                }
+                moved.add(n);
+            });
+        }
+        return moved.sum();
+    }
+
+    private boolean place(int base, short key, long body) {
+        // Two old entries can share a key fragment in their new bucket; keep only the stronger one
+        int target = -1;
+        for (int slot = 0; slot < SLOTS_PER_SET && target < 0; slot++) {
+            if (keys[base + slot] == key && !emptyBody(bodies[base + slot])) target = base + slot;
+        }
+        for (int slot = 0; slot < SLOTS_PER_SET && target < 0; slot++) {
+            if (emptyBody(bodies[base + slot])) target = base + slot;
+        }
+        if (target < 0) {
+            target = base;
+            for (int slot = 1; slot < SLOTS_PER_SET; slot++) {
+                if (replaceMetric(bodies[base + slot]) < replaceMetric(bodies[target])) target = base + slot;
+            }
+        }
+        if (!emptyBody(bodies[target]) && replaceMetric(body) <= replaceMetric(bodies[target])) return false;
+        keys[target] = key;
+        bodies[target] = body;
+        return true;
+    }
+
+    private boolean migrate(long key, int idx) {
+        int base = setBase((int) mulhi(key, prevBuckets));
+        for (int slot = 0; slot < SLOTS_PER_SET; slot++) {
+            int i = base + slot;
+            if ((prevKeys[i] & 0xFFFF) == (int) (key & 0xFFFFL) && !emptyBody(prevBodies[i])) {
+                keys[idx] = prevKeys[i];
+                bodies[idx] = prevBodies[i];
+                prevKeys[i] = 0;
+                prevBodies[i] = 0L;
+                return true;
+            }
+        }
+        return false;
     }
 
-    public synchronized void resize(long megaBytes) {
-        init(megaBytes);
+    private void dropPrevious() {
+        prevKeys = null;
+        prevBodies = null;
+        prevBuckets = 0;
     }
 
     public void nextSearch() {
-        updateTableAge();
+        if (prevKeys != null && --prevSearchesLeft == 0) dropPrevious();
+        if (shared != null) nextSharedAge();
+        else updateTableAge();
     }
 
     public int hashfull() {
@@ -73,16 +245,16 @@ public final class TranspositionTable {
     }
 
     public int getHashfull() {
-        if (bodies == null || numBuckets == 0) return 0;
+        if ((bodies == null && shared == null) || numBuckets == 0) return 0;
         int toSample = (int) Math.min(2000L, numBuckets);
         int hit = 0;
         for (int i = 0; i < toSample; i++) {
             int base = setBase(i);
             for (int slot = 0; slot < SLOTS_PER_SET; slot++) {
                 int idx = base + slot;
-                short key = keys[idx];
+                short key = keyAt(idx);
                 if ((key & 0xFFFF) != 0) {
-                    long body = bodies[idx];
+                    long body = bodyAt(idx);
                     byte abpv = decodeAgeBoundPV(body);
                     if (ageFromTT(abpv) == age) hit++;
                 }
@@ -91,10 +263,290 @@ public final class TranspositionTable {
         return hit / (2 * SLOTS_PER_SET);
     }
 
+    /** One-line summary of hit rate, fill and how well deep entries survive replacement since the last clear. */
+    public String stats() {
+        int sampled = 0, deep = 0;
+        int toSample = (int) Math.min(2000L, numBuckets);
+        for (int i = 0; i < toSample * SLOTS_PER_SET; i++) {
+            long body = bodyAt(i);
+            if ((keyAt(i) & 0xFFFF) == 0 || ageFromTT(decodeAgeBoundPV(body)) != age) continue;
+            sampled++;
+            if ((decodeDepth(body) & 0xFF) >= DEEP_DEPTH) deep++;
+        }
+        String line = String.format("entries %d probes %d hitrate %.1f%% stores %d full %d deep %d/%d deepstored %d deepevicted %d",
+                numBuckets * SLOTS_PER_SET, probes, percent(probeHits, probes), stores, getHashfull(),
+                deep, sampled, deepStores, deepEvictions);
+        return shared == null ? line : line + " shared " + sharedPath + " attached " + attachedProcesses();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
     public void updateTableAge() {
         age = (byte) ((age + 1) & AGE_MASK);
     }
 
+    // Hash file: 32-byte little-endian header, then the key array padded to 8 bytes, then the body array.
+    // The CRC covers everything after the header.
+    private static final int FILE_MAGIC = 0x54544143; // "CATT"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 32;
+    private static final int IO_CHUNK_BYTES = 1 << 20;
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+
+    /** Writes the table, its geometry and age to path. Must not run while a search is using the table. */
+    public synchronized void save(Path path) throws IOException {
+        if (shared != null) throw new IOException("the hash is shared through " + sharedPath + " already");
+        if (bodies == null) throw new IllegalStateException("transposition table not initialised");
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocateDirect(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ch.position(FILE_HEADER_BYTES);
+            for (int i = 0; i < keys.length; ) {
+                int n = Math.min(keys.length - i, IO_CHUNK_BYTES / Short.BYTES);
+                buf.clear();
+                buf.asShortBuffer().put(keys, i, n);
+                buf.limit(n * Short.BYTES);
+                i += n;
+                writeChunk(ch, buf, crc);
+            }
+            writeChunk(ch, ByteBuffer.allocate((int) (keysPadded(keys.length) - (long) keys.length * Short.BYTES)), crc);
+            for (int i = 0; i < bodies.length; ) {
+                int n = Math.min(bodies.length - i, IO_CHUNK_BYTES / Long.BYTES);
+                buf.clear();
+                buf.asLongBuffer().put(bodies, i, n);
+                buf.limit(n * Long.BYTES);
+                i += n;
+                writeChunk(ch, buf, crc);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(numBuckets).putInt(SLOTS_PER_SET).putInt(age).putLong(crc.getValue());
+            header.flip();
+            ch.position(0);
+            while (header.hasRemaining()) ch.write(header);
+        }
+    }
+
+    /**
+     * Replaces the table with the contents of a file written by {@link #save}, adopting its geometry.
+     * The file is memory-mapped and verified before anything is copied, so a bad file leaves the table untouched.
+     */
+    public synchronized void load(Path path) throws IOException {
+        if (shared != null) throw new IOException("the hash is shared through " + sharedPath);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && ch.read(header, header.position()) > 0) { }
+            header.flip();
+            if (header.remaining() < FILE_HEADER_BYTES || header.getInt() != FILE_MAGIC) throw new IOException("not a hash file");
+            int version = header.getInt();
+            if (version != FILE_VERSION) throw new IOException("unsupported hash file version " + version);
+            long fileBuckets = header.getLong();
+            int slots = header.getInt();
+            int fileAge = header.getInt();
+            long expectedCrc = header.getLong();
+            long entries = fileBuckets * slots;
+            if (slots != SLOTS_PER_SET || fileBuckets <= 0 || entries > Integer.MAX_VALUE) throw new IOException("incompatible hash geometry");
+            long keyBytes = keysPadded((int) entries);
+            if (ch.size() != FILE_HEADER_BYTES + keyBytes + entries * Long.BYTES) throw new IOException("hash file truncated");
+
+            CRC32 crc = new CRC32();
+            for (long off = FILE_HEADER_BYTES; off < ch.size(); off += MAP_WINDOW_BYTES) {
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(MAP_WINDOW_BYTES, ch.size() - off)));
+            }
+            if (crc.getValue() != expectedCrc) throw new IOException("hash file checksum mismatch");
+
+            boolean sameSize = keys != null && keys.length == entries;
+            short[] newKeys = sameSize ? keys : new short[(int) entries];
+            long[] newBodies = sameSize ? bodies : new long[(int) entries];
+            // Windows are multiples of 8 bytes, so no element straddles two mappings
+            for (long done = 0; done < entries; ) {
+                long off = FILE_HEADER_BYTES + done * Short.BYTES;
+                int n = (int) Math.min(entries - done, MAP_WINDOW_BYTES / Short.BYTES);
+                map(ch, off, (long) n * Short.BYTES).asShortBuffer().get(newKeys, (int) done, n);
+                done += n;
+            }
+            for (long done = 0; done < entries; ) {
+                long off = FILE_HEADER_BYTES + keyBytes + done * Long.BYTES;
+                int n = (int) Math.min(entries - done, MAP_WINDOW_BYTES / Long.BYTES);
+                map(ch, off, (long) n * Long.BYTES).asLongBuffer().get(newBodies, (int) done, n);
+                done += n;
+            }
+
+            dropPrevious();
+            keys = newKeys;
+            bodies = newBodies;
+            numBuckets = fileBuckets;
+            age = (byte) (fileAge & AGE_MASK);
+            probes = probeHits = stores = deepStores = deepEvictions = 0;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel ch, long offset, long length) throws IOException {
+        MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        mb.order(ByteOrder.LITTLE_ENDIAN);
+        return mb;
+    }
+
+    private static long keysPadded(int entries) {
+        return ((long) entries * Short.BYTES + 7) & ~7L;
+    }
+
+    private static void writeChunk(FileChannel ch, ByteBuffer buf, CRC32 crc) throws IOException {
+        buf.position(0);
+        crc.update(buf.duplicate());
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // Shared file: 64-byte native-order header, then 16-byte entries of (key ^ body, body). The header is only
+    // read or written under a file lock on its range; entries are read and written without locking.
+    private static final int SHARED_MAGIC = 0x53544143; // "CATS"
+    private static final int SHARED_VERSION = 1;
+    private static final long SHARED_HEADER_BYTES = 64;
+    private static final long SHARED_ENTRY_BYTES = 16;
+    private static final long H_MAGIC = 0, H_VERSION = 4, H_BUCKETS = 8, H_SLOTS = 16, H_AGE = 20, H_AGED_AT = 24, H_ATTACHED = 32;
+    // Every attached process starts searches, so the shared age advances at most this often rather than per search
+    private static final long SHARED_AGE_INTERVAL_MS = 1000;
+
+    /**
+     * Backs the table with a file mapped by every process that shares it, creating the file with room for
+     * megaBytes of entries if it is empty or missing; an existing file keeps its own size. The private entries
+     * are dropped. Must not run while a search is using the table.
+     */
+    public synchronized void share(Path path, long megaBytes) throws IOException {
+        if (shared != null) {
+            Runtime.getRuntime().removeShutdownHook(detachHook);
+            detach();
+        }
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Arena arena = Arena.ofShared();
+        try {
+            long buckets;
+            try (FileLock lock = ch.lock(0, SHARED_HEADER_BYTES, false)) {
+                long size = ch.size();
+                if (size != 0 && size < SHARED_HEADER_BYTES) throw new IOException("not a shared hash file");
+                MemorySegment header = ch.map(FileChannel.MapMode.READ_WRITE, 0, SHARED_HEADER_BYTES, arena);
+                if (size == 0) {
+                    buckets = megaBytes * 1024L * 1024L / (SLOTS_PER_SET * SHARED_ENTRY_BYTES);
+                    if (buckets <= 0 || buckets * SLOTS_PER_SET > Integer.MAX_VALUE) throw new IOException("bad shared hash size " + megaBytes + " MB");
+                    // Extending the file zero-fills the entries
+                    ch.write(ByteBuffer.allocate(1), SHARED_HEADER_BYTES + buckets * SLOTS_PER_SET * SHARED_ENTRY_BYTES - 1);
+                    header.set(ValueLayout.JAVA_INT, H_VERSION, SHARED_VERSION);
+                    header.set(ValueLayout.JAVA_LONG, H_BUCKETS, buckets);
+                    header.set(ValueLayout.JAVA_INT, H_SLOTS, SLOTS_PER_SET);
+                    header.set(ValueLayout.JAVA_INT, H_AGE, 1);
+                    header.set(ValueLayout.JAVA_LONG, H_AGED_AT, System.currentTimeMillis());
+                    header.set(ValueLayout.JAVA_INT, H_ATTACHED, 0);
+                    header.set(ValueLayout.JAVA_INT, H_MAGIC, SHARED_MAGIC);
+                } else {
+                    if (header.get(ValueLayout.JAVA_INT, H_MAGIC) != SHARED_MAGIC) throw new IOException("not a shared hash file");
+                    int version = header.get(ValueLayout.JAVA_INT, H_VERSION);
+                    if (version != SHARED_VERSION) throw new IOException("unsupported shared hash version " + version);
+                    buckets = header.get(ValueLayout.JAVA_LONG, H_BUCKETS);
+                    if (header.get(ValueLayout.JAVA_INT, H_SLOTS) != SLOTS_PER_SET || buckets <= 0 || buckets * SLOTS_PER_SET > Integer.MAX_VALUE
+                            || ch.size() != SHARED_HEADER_BYTES + buckets * SLOTS_PER_SET * SHARED_ENTRY_BYTES) {
+                        throw new IOException("incompatible shared hash geometry");
+                    }
+                }
+                header.set(ValueLayout.JAVA_INT, H_ATTACHED, header.get(ValueLayout.JAVA_INT, H_ATTACHED) + 1);
+                age = (byte) (header.get(ValueLayout.JAVA_INT, H_AGE) & AGE_MASK);
+            }
+            shared = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size(), arena);
+            numBuckets = buckets;
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            ch.close();
+            throw e;
+        }
+        dropPrevious();
+        sharedChannel = ch;
+        sharedArena = arena;
+        sharedPath = path;
+        keys = null;
+        bodies = null;
+        probes = probeHits = stores = deepStores = deepEvictions = 0;
+        // A process that exits without detaching would otherwise keep the file from ever being wiped by clear.
+        // The hook only drops the count: a search thread may still be reading the mapping while the JVM exits
+        MemorySegment segment = shared;
+        detachHook = new Thread(() -> leave(ch, segment), "shared-hash-detach");
+        Runtime.getRuntime().addShutdownHook(detachHook);
+    }
+
+    /** Detaches from the shared file and goes back to a private table of the same number of buckets. */
+    public synchronized void unshare() {
+        if (shared == null) return;
+        long buckets = numBuckets;
+        Runtime.getRuntime().removeShutdownHook(detachHook);
+        detach();
+        initBytes(buckets * SET_SIZE_BYTES_NO_PADDING);
+    }
+
+    public boolean isShared() {
+        return shared != null;
+    }
+
+    private void detach() {
+        leave(sharedChannel, shared);
+        sharedArena.close();
+        try {
+            sharedChannel.close();
+        } catch (IOException ignored) {}
+        shared = null;
+        sharedChannel = null;
+        sharedArena = null;
+        sharedPath = null;
+        detachHook = null;
+    }
+
+    private static void leave(FileChannel ch, MemorySegment segment) {
+        try (FileLock lock = ch.lock(0, SHARED_HEADER_BYTES, false)) {
+            segment.set(ValueLayout.JAVA_INT, H_ATTACHED, Math.max(0, segment.get(ValueLayout.JAVA_INT, H_ATTACHED) - 1));
+        } catch (IOException ignored) {
+            // The count only decides whether clear may wipe the file
+        }
+    }
+
+    private int attachedProcesses() {
+        return shared.get(ValueLayout.JAVA_INT, H_ATTACHED);
+    }
+
+    // Wipes the file only when no other process is attached; otherwise ageing makes the old entries replaceable
+    private void clearShared() {
+        try (FileLock lock = sharedChannel.lock(0, SHARED_HEADER_BYTES, false)) {
+            if (attachedProcesses() <= 1) {
+                shared.asSlice(SHARED_HEADER_BYTES).fill((byte) 0);
+                shared.set(ValueLayout.JAVA_INT, H_AGE, 1);
+            } else {
+                shared.set(ValueLayout.JAVA_INT, H_AGE, (shared.get(ValueLayout.JAVA_INT, H_AGE) + 1) & AGE_MASK);
+            }
+            shared.set(ValueLayout.JAVA_LONG, H_AGED_AT, System.currentTimeMillis());
+            age = (byte) (shared.get(ValueLayout.JAVA_INT, H_AGE) & AGE_MASK);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot lock shared hash " + sharedPath, e);
+        }
+        probes = probeHits = stores = deepStores = deepEvictions = 0;
+    }
+
+    private void nextSharedAge() {
+        try (FileLock lock = sharedChannel.lock(0, SHARED_HEADER_BYTES, false)) {
+            long now = System.currentTimeMillis();
+            int sharedAge = shared.get(ValueLayout.JAVA_INT, H_AGE);
+            if (now - shared.get(ValueLayout.JAVA_LONG, H_AGED_AT) >= SHARED_AGE_INTERVAL_MS) {
+                sharedAge = (sharedAge + 1) & AGE_MASK;
+                shared.set(ValueLayout.JAVA_INT, H_AGE, sharedAge);
+                shared.set(ValueLayout.JAVA_LONG, H_AGED_AT, now);
+            }
+            age = (byte) (sharedAge & AGE_MASK);
+        } catch (IOException e) {
+            // Keep the local age; entries stay valid either way
+        }
+    }
+
+    private static long entryOffset(int i) {
+        return SHARED_HEADER_BYTES + i * SHARED_ENTRY_BYTES;
+    }
+
     public static int scoreToTT(int score, int ply) {
         if (score > MATE_THRESHOLD) return score + ply;
         if (score < -MATE_THRESHOLD) return score - ply;
@@ -128,54 +580,64 @@ public final class TranspositionTable {
 
     public final class Entry {
         private final int index;
+        // Shared mode reads the body once at probe time, so another process rewriting the slot cannot mix positions.
+        // snapshotKey is the key that body was stored under, as far as the probe could tell.
+        private long snapshot;
+        private long snapshotKey;
 
-        private Entry(int index) {
+        private Entry(int index, long snapshot, long snapshotKey) {
             this.index = index;
+            this.snapshot = snapshot;
+            this.snapshotKey = snapshotKey;
+        }
+
+        private long body() {
+            return shared == null ? bodies[index] : snapshot;
         }
 
         public boolean matches(long key) {
-            return (keys[index] & 0xFFFF) == ((int) key & 0xFFFF);
+            return keyMatches(index, key);
         }
 
         public int getStaticEval() {
-            long body = bodies[index];
+            long body = body();
             return decodeEval(body);
         }
 
         public int getDepth() {
-            long body = bodies[index];
+            long body = body();
             return decodeDepth(body) & 0xFF;
         }
 
         public int getBound() {
-            long body = bodies[index];
+            long body = body();
             return boundFromTT(decodeAgeBoundPV(body) & 0xFF);
         }
 
         public int getAge() {
-            long body = bodies[index];
+            long body = body();
             return ageFromTT(decodeAgeBoundPV(body) & 0xFF);
         }
 
         public short getPackedMove() {
-            long body = bodies[index];
+            long body = body();
             return decodePackedMove(body);
         }
 
         public int getScore(int ply) {
-            long body = bodies[index];
+            long body = body();
             int s = decodeScore(body);
             if (s == SCORE_VOID) return SCORE_VOID;
             return scoreFromTT(s, ply);
         }
 
         public boolean wasPV() {
-            long body = bodies[index];
+            long body = body();
             return formerPV(decodeAgeBoundPV(body) & 0xFF);
         }
 
         public boolean isEmpty() {
-            long body = bodies[index];
+            long body = body();
             short s = decodeScore(body);
             byte ab = decodeAgeBoundPV(body);
             return s == 0 && ab == 0;
@@ -187,8 +649,28 @@ public final class TranspositionTable {
         }
 
         public void store(long key, int bound, int depth, int move, int score, int eval, boolean isPV, int ply) {
-            long body = bodies[index];
-            short existingKey = keys[index];
+            long body = body();
+            short existingKey;
+            if (shared == null) {
+                existingKey = keys[index];
+            } else {
+                // Merge only with a snapshot of this very key; a slot that held another position is replaced outright.
+                // The live key is not consulted, since another process may have rewritten the slot since the probe.
+                if (snapshotKey != key) {
+                    stores++;
+                    if (depth >= DEEP_DEPTH) deepStores++;
+                    if ((decodeDepth(body) & 0xFF) >= DEEP_DEPTH) deepEvictions++;
+                    int adj = score == SCORE_VOID ? score : scoreToTT(score, ply);
+                    long fresh = encodeBody((short) (move & 0xFFFF), (short) clamp(adj, Short.MIN_VALUE, Short.MAX_VALUE),
+                            (short) clamp(eval, Short.MIN_VALUE, Short.MAX_VALUE), (byte) clamp(depth, 0, 255),
+                            (byte) packToTT(bound, isPV, age & 0xFF));
+                    setEntry(index, key, fresh);
+                    snapshot = fresh;
+                    snapshotKey = key;
+                    return;
+                }
+                existingKey = (short) key;
+            }
 
             short bodyMove = decodePackedMove(body);
             short bodyScore = decodeScore(body);
@@ -213,6 +695,12 @@ public final class TranspositionTable {
                     || (depth + 5 + (isPV ? 2 : 0) > (bodyDepth & 0xFF))
                     || (ageFromTT(bodyAbpv & 0xFF) != (age & 0xFF));
 
+            stores++;
+            if (keyMismatch && overwrite) {
+                if (depth >= DEEP_DEPTH) deepStores++;
+                if ((bodyDepth & 0xFF) >= DEEP_DEPTH && (existingKey & 0xFFFF) != 0) deepEvictions++;
+            }
+
             if (overwrite) {
                 bodyDepth = (byte) clamp(depth, 0, 255);
                 boolean persistPV = isPV || ((bodyAbpv & 0xFF) != 0 && formerPV(bodyAbpv & 0xFF));
@@ -222,13 +710,15 @@ public final class TranspositionTable {
             }
 
             long newBody = encodeBody(newPackedMove, bodyScore, bodyEval, bodyDepth, bodyAbpv);
-            bodies[index] = newBody;
-            keys[index] = (short) wantKey;
+            setEntry(index, key, newBody);
+            snapshot = newBody;
+            snapshotKey = key;
         }
     }
 
     public ProbeResult probe(long key) {
-        if (bodies == null || numBuckets == 0) return new ProbeResult(new Entry(0), false);
+        if ((bodies == null && shared == null) || numBuckets == 0) return new ProbeResult(new Entry(0, 0L, 0L), false);
+        probes++;
         int bucket = (int) index(key);
         int base = setBase(bucket);
         int wantKey = (int) (key & 0xFFFFL);
@@ -237,19 +727,26 @@ public final class TranspositionTable {
 
         for (int slot = 0; slot < SLOTS_PER_SET; slot++) {
             int idx = base + slot;
-            short k = keys[idx];
-            if ((k & 0xFFFF) == wantKey) {
-                Entry e = new Entry(idx);
+            long body;
+            boolean match;
+            if (shared == null) {
+                body = bodies[idx];
+                match = (keys[idx] & 0xFFFF) == wantKey;
+            } else {
+                // Lockless verification: the check word is key ^ body, so a torn or foreign write fails to match
+                long off = entryOffset(idx);
+                long check = shared.get(ValueLayout.JAVA_LONG, off);
+                body = shared.get(ValueLayout.JAVA_LONG, off + Long.BYTES);
+                match = (check ^ body) == key;
+            }
+            if (match) {
+                Entry e = new Entry(idx, body, key);
                 boolean hit = !e.isEmpty();
+                if (hit) probeHits++;
                 return new ProbeResult(e, hit);
             }
 
-            long body = bodies[idx];
-            byte abpv = decodeAgeBoundPV(body);
-            byte entryDepth = decodeDepth(body);
-
-            int ageDelta = (MAX_AGE + (age & 0xFF) - ageFromTT(abpv & 0xFF)) & AGE_MASK;
-            int metric = (entryDepth & 0xFF) - ageDelta * 4;
+            int metric = replaceMetric(body);
             if (slot == 0 || metric < bestMetric) {
                 bestMetric = metric;
                 bestSlot = slot;
@@ -257,14 +754,67 @@ public final class TranspositionTable {
         }
 
         int idx = base + bestSlot;
-        return new ProbeResult(new Entry(idx), false);
+        if (shared == null) {
+            if (prevKeys != null && migrate(key, idx)) {
+                probeHits++;
+                return new ProbeResult(new Entry(idx, 0L, 0L), true);
+            }
+            return new ProbeResult(new Entry(idx, 0L, 0L), false);
+        }
+        // Read both words together: a torn pair yields a key no store will match, which just means a full replacement
+        long off = entryOffset(idx);
+        long check = shared.get(ValueLayout.JAVA_LONG, off);
+        long body = shared.get(ValueLayout.JAVA_LONG, off + Long.BYTES);
+        return new ProbeResult(new Entry(idx, body, check ^ body), false);
+    }
+
+    private short keyAt(int i) {
+        if (shared == null) return keys[i];
+        long off = entryOffset(i);
+        return (short) (shared.get(ValueLayout.JAVA_LONG, off) ^ shared.get(ValueLayout.JAVA_LONG, off + Long.BYTES));
+    }
+
+    private long bodyAt(int i) {
+        return shared == null ? bodies[i] : shared.get(ValueLayout.JAVA_LONG, entryOffset(i) + Long.BYTES);
+    }
+
+    private boolean keyMatches(int i, long key) {
+        if (shared == null) return (keys[i] & 0xFFFF) == ((int) key & 0xFFFF);
+        long off = entryOffset(i);
+        return (shared.get(ValueLayout.JAVA_LONG, off) ^ shared.get(ValueLayout.JAVA_LONG, off + Long.BYTES)) == key;
+    }
+
+    private void setEntry(int i, long key, long body) {
+        if (shared == null) {
+            keys[i] = (short) key;
+            bodies[i] = body;
+            return;
+        }
+        long off = entryOffset(i);
+        shared.set(ValueLayout.JAVA_LONG, off, key ^ body);
+        shared.set(ValueLayout.JAVA_LONG, off + Long.BYTES, body);
+    }
+
+    // Lower is a better replacement candidate: shallow entries from older searches go first
+    private int replaceMetric(long body) {
+        int ageDelta = (MAX_AGE + (age & 0xFF) - ageFromTT(decodeAgeBoundPV(body) & 0xFF)) & AGE_MASK;
+        return (decodeDepth(body) & 0xFF) - ageDelta * 4;
+    }
+
+    private static boolean emptyBody(long body) {
+        return decodeScore(body) == 0 && decodeAgeBoundPV(body) == 0;
     }
 
     private long index(long posKey) {
+        return mulhi(posKey, numBuckets);
+    }
+
+    // High 64 bits of the unsigned product, mapping a key uniformly onto [0, n)
+    private static long mulhi(long posKey, long n) {
         long xlo = (int) posKey & 0xFFFFFFFFL;
         long xhi = (posKey >>> 32) & 0xFFFFFFFFL;
-        long nlo = (int) numBuckets & 0xFFFFFFFFL;
-        long nhi = (numBuckets >>> 32) & 0xFFFFFFFFL;
+        long nlo = (int) n & 0xFFFFFFFFL;
+        long nhi = (n >>> 32) & 0xFFFFFFFFL;
         long c1 = (xlo * nlo) >>> 32;
         long c2 = (xhi * nlo) + c1;
         long c3 = (xlo * nhi) + (c2 & 0xFFFFFFFFL);
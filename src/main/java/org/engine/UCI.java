@@ -3,21 +3,33 @@ package org.engine;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Minimal UCI implementation supporting: uci, isready, ucinewgame, position, go depth N, stop, quit.
+ * Extensions: ttstats, savehash FILE, loadhash FILE, evalbatch FILE [OUT], go nodes, go searchmoves and go rootbound CP,
+ * whose bound rootbound CP moves during the search (see {@link Search#setRootBound}); options Hash, SharedHashFile,
+ * EvalFile and SmallEvalFile. In cluster mode go is spread over worker processes (see {@link ClusterSearch}).
  */
 public class UCI {
 
+    private static final String NO_SHARED_HASH = "<none>";
+
     private final PositionFactory pos = new PositionFactory();
     private final long[] board = pos.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"); // replaced on position commands
     private final SPSA spsa = new SPSA();
     private Search search = new Search(spsa);
     private final TimeManager timeManager = new TimeManager();
     private Thread searchThread;
+    private Thread resizeThread;
+    private Thread evalBatchThread;
+    private final AtomicBoolean evalBatchCancel = new AtomicBoolean();
+    private long hashMegaBytes = 8;
+    private ClusterSearch cluster;
 
     public static void main(String[] args) throws Exception {
         Eval.initializeEval();
@@ -25,6 +37,19 @@ public class UCI {
         new UCI().loop();
     }
 
+    static void runCluster(int workers, long hashMegaBytes) throws Exception {
+        Eval.initializeEval();
+        TranspositionTable.TT.init(8);
+        UCI uci = new UCI();
+        uci.hashMegaBytes = hashMegaBytes;
+        uci.cluster = new ClusterSearch(workers, hashMegaBytes);
+        try {
+            uci.loop();
+        } finally {
+            uci.cluster.close();
+        }
+    }
+
     private void loop() throws IOException {
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         String line;
@@ -34,6 +59,13 @@ public class UCI {
             if (line.equals("uci")) {
                 System.out.println("id name Catalan");
                 System.out.println("id author Tyler Breese");
+                System.out.println("info string slider attacks " + Sliders.backendName());
+                System.out.println("info string simd kernels " + Kernels.describe());
+                if (cluster != null) System.out.println("info string cluster " + cluster.describe());
+                System.out.println("option name Hash type spin default 8 min 1 max 20000");
+                System.out.println("option name SharedHashFile type string default " + NO_SHARED_HASH);
+                System.out.println("option name EvalFile type string default " + Eval.INTERNAL_NETWORK);
+                System.out.println("option name SmallEvalFile type string default " + Eval.NO_NETWORK);
                 if (Main.SPSA_TUNE_MODE) {
                     System.out.println("option name NMPBase type spin default " + spsa.nmpBase + " min 0 max 10");
                     System.out.println("option name NMPDepthScale100 type spin default " + (int)Math.round(spsa.nmpDepthScale * 100) + " min 0 max 200");
@@ -57,21 +89,44 @@ public class UCI {
                     System.out.println("option name TMHeuristicsMinDepth type spin default " + spsa.tmHeuristicsMinDepth + " min 0 max 32");
                     System.out.println("option name TMMaxExtensionFactor100 type spin default " + (int)Math.round(spsa.tmMaxExtensionFactor * 100) + " min 100 max 1000");
                     System.out.println("option name TMInstabilityScoreWeight10000 type spin default " + (int)Math.round(spsa.tmInstabilityScoreWeight * 10000) + " min 0 max 1000");
+                    System.out.println("option name ProbCutMinDepth type spin default " + spsa.probcutMinDepth + " min 0 max 16");
+                    System.out.println("option name ProbCutMargin type spin default " + spsa.probcutMargin + " min 0 max 1024");
                 }
                 System.out.println("uciok");
             } else if (line.equals("isready")) {
+                awaitResize();
                 System.out.println("readyok");
             } else if (line.startsWith("setoption")) {
                 handleSetOption(line);
             } else if (line.equals("ucinewgame")) {
+                awaitResize();
                 long[] fresh = pos.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
                 System.arraycopy(fresh, 0, board, 0, fresh.length);
-                TranspositionTable.TT.clear();
-                search = new Search(spsa);
+                if (cluster != null) {
+                    newClusterGame();
+                } else {
+                    TranspositionTable.TT.clear();
+                    TranspositionTable.QTT.clear();
+                    search.newGame();
+                }
             } else if (line.startsWith("position")) {
                 handlePosition(line);
             } else if (line.startsWith("go")) {
                 handleGo(line);
+            } else if (line.startsWith("savehash ") || line.startsWith("loadhash ")) {
+                handleHashFile(line);
+            } else if (line.startsWith("evalbatch ")) {
+                handleEvalBatch(line);
+            } else if (line.equals("ttstats")) {
+                awaitResize();
+                System.out.println("info string tt " + TranspositionTable.TT.stats());
+                System.out.println("info string qtt " + TranspositionTable.QTT.stats());
+                System.out.println("info string evalcache " + search.evalCacheStats());
+                System.out.println("info string searcher " + search.workingSet());
+            } else if (line.startsWith("rootbound ")) {
+                try {
+                    search.setRootBound(Integer.parseInt(line.substring("rootbound ".length()).trim()));
+                } catch (NumberFormatException ignored) {}
             } else if (line.equals("stop")) {
                 stopSearch();
             } else if (line.equals("quit")) {
@@ -81,6 +136,25 @@ public class UCI {
         }
     }
 
+    private void handleHashFile(String cmd) {
+        boolean save = cmd.startsWith("savehash");
+        String file = cmd.substring(cmd.indexOf(' ') + 1).trim();
+        if (searchThread != null && searchThread.isAlive()) {
+            System.out.println("info string cannot access the hash file while searching");
+            return;
+        }
+        awaitResize();
+        long t0 = System.nanoTime();
+        try {
+            if (save) TranspositionTable.TT.save(Path.of(file));
+            else TranspositionTable.TT.load(Path.of(file));
+            long ms = (System.nanoTime() - t0) / 1_000_000L;
+            System.out.println("info string " + (save ? "saved" : "loaded") + " hash " + file + " in " + ms + " ms");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("info string hash file error: " + e.getMessage());
+        }
+    }
+
     private void handleSetOption(String cmd) {
         String name = null;
         String value = null;
@@ -93,6 +167,7 @@ public class UCI {
                 while (st.hasMoreTokens()) {
                     String peek = st.nextToken();
                     if ("value".equals(peek)) {
+                        if (st.hasMoreTokens()) value = st.nextToken("").trim();
                         break;
                     }
                     if (nb.length() > 0) nb.append(' ');
@@ -111,15 +186,53 @@ public class UCI {
         }
 
         if (name == null || value == null) return;
+        if (cluster != null) {
+            if (name.equalsIgnoreCase("Hash") || name.equalsIgnoreCase("SharedHashFile")) {
+                System.out.println("info string the cluster hash is set when the cluster starts");
+                return;
+            }
+            stopSearch();
+            try {
+                cluster.forward(cmd);
+            } catch (IOException e) {
+                System.out.println("info string cluster workers failed: " + e.getMessage());
+            }
+        }
+        if (name.equalsIgnoreCase("EvalFile") || name.equalsIgnoreCase("SmallEvalFile")) {
+            loadEvalFile(value, name.equalsIgnoreCase("SmallEvalFile"));
+            return;
+        }
+        if (name.equalsIgnoreCase("Hash")) {
+            try {
+                long mb = Long.parseLong(value.trim());
+                if (TranspositionTable.TT.isShared()) {
+                    hashMegaBytes = Math.max(1, Math.min(20000, mb));
+                    System.out.println("info string hash is shared; Hash only sizes newly created shared files");
+                } else {
+                    startResize(mb);
+                }
+            } catch (NumberFormatException ignored) {}
+            return;
+        }
+        if (name.equalsIgnoreCase("SharedHashFile")) {
+            shareHash(value.trim());
+            return;
+        }
         try {
             int intVal = Integer.parseInt(value.trim());
             spsa.setByName(name, intVal);
+            search = new Search(spsa);
         } catch (Exception ignored) {
             // non-integer values are ignored for these options
         }
     }
 
     private void handlePosition(String cmd) {
+        setPosition(pos, board, cmd);
+    }
+
+    /** Applies a position command to board in place; malformed commands leave it unchanged. */
+    static void setPosition(PositionFactory pos, long[] board, String cmd) {
         StringTokenizer st = new StringTokenizer(cmd);
         st.nextToken();
         if (!st.hasMoreTokens()) return;
@@ -147,21 +260,21 @@ public class UCI {
 
         List<String> rest = new ArrayList<>();
         while (st.hasMoreTokens()) rest.add(st.nextToken());
-        applyMoves(rest);
+        applyMoves(pos, board, rest);
     }
 
-    private void applyMoves(List<String> tokens) {
+    private static void applyMoves(PositionFactory pos, long[] board, List<String> tokens) {
         if (tokens.isEmpty()) return;
         int idx = 0;
         if (idx < tokens.size() && "moves".equals(tokens.get(idx))) idx++;
         for (; idx < tokens.size(); idx++) {
             String mv = tokens.get(idx);
-            int move = uciToMove(mv);
+            int move = uciToMove(board, mv);
             if (move != 0) pos.makeMoveInPlace(board, move, new org.engine.MoveGenerator());
         }
     }
 
-    private int uciToMove(String uci) {
+    static int uciToMove(long[] board, String uci) {
         if (uci == null || uci.length() < 4) return 0;
         int from = (uci.charAt(0) - 'a') + 8 * (uci.charAt(1) - '1');
         int to   = (uci.charAt(2) - 'a') + 8 * (uci.charAt(3) - '1');
@@ -204,18 +317,48 @@ public class UCI {
     }
 
     private void handleGo(String cmd) {
-        // Support: go depth N | wtime T btime T winc I binc I movestogo M | movetime X
+        stopSearch();
+        awaitResize();
+
+        Search.Limits limits = parseGo(cmd, board, timeManager);
+        searchThread = new Thread(() -> {
+            Search.Result res = cluster != null
+                    ? cluster.search(board, cmd, limits, PRINTER)
+                    : search.search(board, limits, PRINTER);
+            System.out.println("bestmove " + org.engine.MoveFactory.moveToUci(bestMove(res, board)));
+        }, "search-thread");
+        searchThread.setDaemon(true);
+        searchThread.start();
+    }
+
+    /** Turns a go command into search limits for the side to move on board. */
+    static Search.Limits parseGo(String cmd, long[] board, TimeManager timeManager) {
+        // Support: go depth N | nodes N | wtime T btime T winc I binc I movestogo M | movetime X, each optionally with
+        // searchmoves and rootbound CP
         int depth = -1;
+        int rootBound = Search.NO_BOUND;
+        long nodes = 0;
         int wtime = -1, btime = -1, winc = 0, binc = 0, movestogo = 0, movetime = 0;
         boolean ponder = false;
         boolean infinite = false;
+        List<Integer> searchMoves = null;
         StringTokenizer st = new StringTokenizer(cmd);
         st.nextToken(); // go
         while (st.hasMoreTokens()) {
             String t = st.nextToken();
+            if (searchMoves != null && isUciMove(t)) {
+                searchMoves.add(uciToMove(board, t));
+                continue;
+            }
             try {
-                if ("depth".equals(t) && st.hasMoreTokens()) {
+                if ("searchmoves".equals(t)) {
+                    searchMoves = new ArrayList<>();
+                } else if ("depth".equals(t) && st.hasMoreTokens()) {
                     depth = Integer.parseInt(st.nextToken());
+                } else if ("nodes".equals(t) && st.hasMoreTokens()) {
+                    nodes = Long.parseLong(st.nextToken());
+                } else if ("rootbound".equals(t) && st.hasMoreTokens()) {
+                    rootBound = Integer.parseInt(st.nextToken());
                 } else if ("wtime".equals(t) && st.hasMoreTokens()) {
                     wtime = Integer.parseInt(st.nextToken());
                 } else if ("btime".equals(t) && st.hasMoreTokens()) {
@@ -236,82 +379,209 @@ public class UCI {
             } catch (Exception ignored) {}
         }
 
-        stopSearch();
+        boolean hasTiming = movetime > 0 || wtime >= 0 || btime >= 0 || ponder || infinite;
+        if (!hasTiming && depth <= 0 && nodes <= 0) depth = 3; // default fixed depth when no timing is given
 
-        final boolean hasTiming = movetime > 0 || wtime >= 0 || btime >= 0 || ponder || infinite;
-        if (!hasTiming && depth <= 0) depth = 3; // default fixed depth when no timing is given
+        Search.Limits limits = new Search.Limits();
+        if (hasTiming) {
+            boolean whiteToMove = (board[12] & 1L) == 0L;
+            TimeManager.TimeAllocation alloc;
+            if (infinite || ponder) {
+                alloc = new TimeManager.TimeAllocation(Long.MAX_VALUE, Long.MAX_VALUE);
+            } else {
+                alloc = timeManager.allocate(whiteToMove, Math.max(0, wtime), Math.max(0, btime), Math.max(0, winc),
+                        Math.max(0, binc), Math.max(0, movestogo), Math.max(0, movetime));
+            }
+            limits.softMs = alloc.soft();
+            limits.hardMs = alloc.maximum();
+        } else {
+            limits.depth = depth;
+        }
+        limits.nodes = nodes;
+        limits.rootBound = rootBound;
+        if (searchMoves != null && !searchMoves.isEmpty()) limits.searchMoves = searchMoves.stream().mapToInt(Integer::intValue).toArray();
+        return limits;
+    }
 
-        final int fDepth = depth;
-        final int fwtime = Math.max(0, wtime);
-        final int fbtime = Math.max(0, btime);
-        final int fwinc = Math.max(0, winc);
-        final int fbinc = Math.max(0, binc);
-        final int fmovestogo = Math.max(0, movestogo);
-        final int fmovetime = Math.max(0, movetime);
-        final boolean fPonder = ponder;
-        final boolean fInfinite = infinite;
+    static boolean isUciMove(String t) {
+        return (t.length() == 4 || t.length() == 5)
+                && t.charAt(0) >= 'a' && t.charAt(0) <= 'h' && t.charAt(1) >= '1' && t.charAt(1) <= '8'
+                && t.charAt(2) >= 'a' && t.charAt(2) <= 'h' && t.charAt(3) >= '1' && t.charAt(3) <= '8'
+                && (t.length() == 4 || "nbrq".indexOf(t.charAt(4)) >= 0);
+    }
 
-        searchThread = new Thread(() -> {
-            Search.Limits limits = new Search.Limits();
-            if (hasTiming) {
-                boolean whiteToMove = (board[12] & 1L) == 0L;
-                TimeManager.TimeAllocation alloc;
-                if (fInfinite || fPonder) {
-                    alloc = new TimeManager.TimeAllocation(Long.MAX_VALUE, Long.MAX_VALUE);
-                } else {
-                    alloc = timeManager.allocate(whiteToMove, fwtime, fbtime, fwinc, fbinc, fmovestogo, fmovetime);
-                }
-                limits.softMs = alloc.soft();
-                limits.hardMs = alloc.maximum();
-            } else {
-                limits.depth = fDepth;
+    private static final Search.InfoHandler PRINTER = new Search.InfoHandler() {
+        @Override
+        public void onInfo(int depth, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs, List<Integer> pv) {
+            printInfo(depth, seldepth, nodes, nps, hashfull, scoreCp, timeMs, pv);
+        }
+
+        @Override
+        public void onUpperBound(int depth, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs) {
+            System.out.println(infoLine(depth, seldepth, nodes, nps, hashfull, scoreCp, true, timeMs, List.of()));
+        }
+    };
+
+    static void printInfo(int depth, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs, List<Integer> pv) {
+        System.out.println(infoLine(depth, seldepth, nodes, nps, hashfull, scoreCp, timeMs, pv));
+    }
+
+    static String infoLine(int depthInfo, int seldepth, long nodes, long nps, int hashfull, int scoreCp, long timeMs, List<Integer> pv) {
+        return infoLine(depthInfo, seldepth, nodes, nps, hashfull, scoreCp, false, timeMs, pv);
+    }
+
+    private static String infoLine(int depthInfo, int seldepth, long nodes, long nps, int hashfull, int scoreCp, boolean upperBound,
+                                   long timeMs, List<Integer> pv) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("info depth ").append(depthInfo)
+                .append(" seldepth ").append(seldepth)
+                .append(" nodes ").append(nodes)
+                .append(" nps ").append(nps)
+                .append(" hashfull ").append(hashfull);
+
+        if (isMateScore(scoreCp)) {
+            sb.append(" score mate ").append(mateIn(scoreCp));
+        } else {
+            sb.append(" score cp ").append(scoreCp);
+        }
+        if (upperBound) sb.append(" upperbound");
+
+        sb.append(" wdl ").append("0 0 0")
+                .append(" time ").append(timeMs)
+                .append(" pv");
+        for (int m : pv) sb.append(' ').append(org.engine.MoveFactory.moveToUci(m));
+        return sb.toString();
+    }
+
+    private static final int MATE_VAL = 32000;
+
+    static boolean isMateScore(int scoreCp) {
+        return Math.abs(scoreCp) > MATE_VAL - 1000;
+    }
+
+    /** Moves to mate for a mate score, negative when the side to move is getting mated. */
+    static int mateIn(int scoreCp) {
+        int movesToMate = (MATE_VAL - Math.abs(scoreCp) + 1) / 2;
+        return scoreCp > 0 ? movesToMate : -movesToMate;
+    }
+
+    /** The search's best move, or the first legal move when it returned none. */
+    static int bestMove(Search.Result res, long[] board) {
+        int best = res.bestMove;
+        if (best == 0) {
+            MoveGenerator mg = new MoveGenerator();
+            best = mg.getFirstLegalMove(board);
+        }
+        return best;
+    }
+
+    /** Runs on its own thread so isready and stop are still answered; stop cancels it after the chunk in progress. */
+    private void handleEvalBatch(String cmd) {
+        String[] parts = cmd.trim().split("\\s+");
+        Path in = Path.of(parts[1]);
+        Path out = parts.length > 2 ? Path.of(parts[2]) : Path.of(parts[1] + ".eval");
+        stopSearch();
+        awaitResize();
+        evalBatchCancel.set(false);
+        evalBatchThread = new Thread(() -> {
+            long t0 = System.nanoTime();
+            try {
+                long count = BatchEval.run(in, out, evalBatchCancel);
+                long ms = Math.max(1, (System.nanoTime() - t0) / 1_000_000L);
+                System.out.println("info string evalbatch " + count + " positions in " + ms + " ms (" + (count * 1000 / ms) + " pos/s) to " + out
+                        + (evalBatchCancel.get() ? ", stopped" : ""));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("info string evalbatch failed: " + e.getMessage());
             }
-            Search.Result res = search.search(board, limits, (depthInfo, seldepth, nodes, nps, hashfull, scoreCp, timeMs, pv) -> {
-                StringBuilder sb = new StringBuilder();
-                sb.append("info depth ").append(depthInfo)
-                        .append(" seldepth ").append(seldepth)
-                        .append(" nodes ").append(nodes)
-                        .append(" nps ").append(nps)
-                        .append(" hashfull ").append(hashfull);
-
-                int abs = Math.abs(scoreCp);
-                final int MATE_VAL = 32000;
-                if (abs > MATE_VAL - 1000) {
-                    int plies = MATE_VAL - abs;
-                    int movesToMate = (plies + 1) / 2;
-                    int mateOut = scoreCp > 0 ? movesToMate : -movesToMate;
-                    sb.append(" score mate ").append(mateOut);
-                } else {
-                    sb.append(" score cp ").append(scoreCp);
-                }
+        }, "evalbatch-thread");
+        evalBatchThread.setDaemon(true);
+        evalBatchThread.start();
+    }
 
-                sb.append(" wdl ").append("0 0 0")
-                        .append(" time ").append(timeMs)
-                        .append(" pv");
-                for (int m : pv) sb.append(' ').append(org.engine.MoveFactory.moveToUci(m));
-                System.out.println(sb.toString());
-            });
-            int best = res.bestMove;
-            
-            if (best == 0) {
-                MoveGenerator mg = new MoveGenerator();
-                best = mg.getFirstLegalMove(board);
+    private void loadEvalFile(String file, boolean small) {
+        stopSearch();
+        awaitResize();
+        try {
+            if (small) System.out.println("info string small network " + Eval.loadSmallNetwork(file));
+            else System.out.println("info string network " + Eval.loadNetwork(file));
+            // Stored static evals and cached outputs belong to the previous net
+            TranspositionTable.TT.clear();
+            TranspositionTable.QTT.clear();
+            search.newGame();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("info string failed to load network " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Maps the hash onto a file other engine processes can attach to; "<none>" or an empty value goes back to a private hash. */
+    private void shareHash(String file) {
+        stopSearch();
+        awaitResize();
+        try {
+            if (file.isEmpty() || file.equals(NO_SHARED_HASH)) {
+                TranspositionTable.TT.unshare();
+                System.out.println("info string hash is private");
+            } else {
+                TranspositionTable.TT.share(Path.of(file), hashMegaBytes);
+                System.out.println("info string hash shared through " + file + ": " + TranspositionTable.TT.stats());
             }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("info string cannot share hash " + file + ": " + e.getMessage());
+        }
+    }
 
-            System.out.println("bestmove " + org.engine.MoveFactory.moveToUci(best));
-        }, "search-thread");
-        searchThread.setDaemon(true);
-        searchThread.start();
+    /** Resizes the hash on a worker thread so the loop keeps reading input; isready and go wait for it. */
+    private void startResize(long megaBytes) {
+        stopSearch();
+        awaitResize();
+        long mb = Math.max(1, Math.min(20000, megaBytes));
+        hashMegaBytes = mb;
+        resizeThread = new Thread(() -> {
+            long t0 = System.nanoTime();
+            long kept = TranspositionTable.TT.resize(mb);
+            long ms = (System.nanoTime() - t0) / 1_000_000L;
+            System.out.println("info string hash resized to " + mb + " MB in " + ms + " ms, kept " + kept + " entries");
+        }, "resize-thread");
+        resizeThread.setDaemon(true);
+        resizeThread.start();
+    }
+
+    private void awaitResize() {
+        if (resizeThread == null) return;
+        try {
+            resizeThread.join();
+        } catch (InterruptedException ignored) {}
+        resizeThread = null;
     }
 
     private void stopSearch() {
+        if (evalBatchThread != null) {
+            // Waits for the batch to wind down, since the next command may replace the network it reads
+            evalBatchCancel.set(true);
+            try {
+                evalBatchThread.join();
+            } catch (InterruptedException ignored) {}
+            evalBatchThread = null;
+        }
         if (searchThread != null && searchThread.isAlive()) {
-            search.stop();
+            if (cluster != null) cluster.stop();
+            else search.stop();
             try {
-                searchThread.join(50);
+                // A cluster search must collect every worker's bestmove before the workers take new commands
+                if (cluster != null) searchThread.join();
+                else searchThread.join(50);
             } catch (InterruptedException ignored) {}
         }
     }
+
+    private void newClusterGame() {
+        stopSearch();
+        try {
+            cluster.newGame();
+        } catch (IOException e) {
+            System.out.println("info string cluster workers failed: " + e.getMessage());
+        }
+    }
 }
 
 
@@ -0,0 +1,460 @@
+package org.engine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the network kernels, one copy per register width. Only {@link Kernels} calls into this
+ * class, and only after checking that the incubator module is present. The copies are deliberate: the species
+ * has to be a static final constant inside each loop for the JIT to intrinsify it. A shared body taking the
+ * species as a parameter gets compiled on its own, stops being inlined, and runs on the Vector API's boxed
+ * fallback path several times slower than plain loops.
+ */
+final class VectorKernels {
+  private VectorKernels() {}
+
+  /** Widest register the hardware supports natively, in bits. */
+  static int maxWidth() {
+    return ShortVector.SPECIES_MAX.vectorBitSize();
+  }
+
+  static void addWeights(int width, short[] acc, short[] w) {
+    switch (width) {
+      case 512 -> W512.addWeights(acc, w);
+      case 256 -> W256.addWeights(acc, w);
+      default -> W128.addWeights(acc, w);
+    }
+  }
+
+  static void addSub(int width, short[] to, short[] from, short[] add, short[] sub) {
+    switch (width) {
+      case 512 -> W512.addSub(to, from, add, sub);
+      case 256 -> W256.addSub(to, from, add, sub);
+      default -> W128.addSub(to, from, add, sub);
+    }
+  }
+
+  static void addSubSub(int width, short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+    switch (width) {
+      case 512 -> W512.addSubSub(to, from, add, sub, sub2);
+      case 256 -> W256.addSubSub(to, from, add, sub, sub2);
+      default -> W128.addSubSub(to, from, add, sub, sub2);
+    }
+  }
+
+  static void addAddSubSub(int width, short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+    switch (width) {
+      case 512 -> W512.addAddSubSub(to, from, add, add2, sub, sub2);
+      case 256 -> W256.addAddSubSub(to, from, add, add2, sub, sub2);
+      default -> W128.addAddSubSub(to, from, add, add2, sub, sub2);
+    }
+  }
+
+  static void addWeights8(int width, short[] acc, byte[] w, int shift) {
+    switch (width) {
+      case 512 -> W512.addWeights8(acc, w, shift);
+      case 256 -> W256.addWeights8(acc, w, shift);
+      default -> W128.addWeights8(acc, w, shift);
+    }
+  }
+
+  static void addSub8(int width, short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+    switch (width) {
+      case 512 -> W512.addSub8(to, from, add, sub, shift);
+      case 256 -> W256.addSub8(to, from, add, sub, shift);
+      default -> W128.addSub8(to, from, add, sub, shift);
+    }
+  }
+
+  static void addSubSub8(int width, short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+    switch (width) {
+      case 512 -> W512.addSubSub8(to, from, add, sub, sub2, shift);
+      case 256 -> W256.addSubSub8(to, from, add, sub, sub2, shift);
+      default -> W128.addSubSub8(to, from, add, sub, sub2, shift);
+    }
+  }
+
+  static void addAddSubSub8(int width, short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+    switch (width) {
+      case 512 -> W512.addAddSubSub8(to, from, add, add2, sub, sub2, shift);
+      case 256 -> W256.addAddSubSub8(to, from, add, add2, sub, sub2, shift);
+      default -> W128.addAddSubSub8(to, from, add, add2, sub, sub2, shift);
+    }
+  }
+
+  static int screluDot(int width, short[] acc, short[] w, int from, int to, int qa) {
+    return switch (width) {
+      case 512 -> W512.screluDot(acc, w, from, to, qa);
+      case 256 -> W256.screluDot(acc, w, from, to, qa);
+      default -> W128.screluDot(acc, w, from, to, qa);
+    };
+  }
+
+  private static final class W128 {
+    private static final VectorSpecies<Short> S = ShortVector.SPECIES_128;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_128;
+    // Half the lanes of S, so screluDot widens each load into one int vector without a part-1 conversion
+    private static final VectorSpecies<Short> H = ShortVector.SPECIES_64;
+    // Same lane count as S, so a byte row widens into exactly one short vector
+    private static final VectorSpecies<Byte> B = ByteVector.SPECIES_64;
+
+    static void addWeights(short[] acc, short[] w) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(ShortVector.fromArray(S, w, i)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += w[i];
+    }
+
+    static void addSub(short[] to, short[] from, short[] add, short[] sub) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        a.add(b).sub(c).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i]);
+    }
+
+    static void addSubSub(short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        var d = ShortVector.fromArray(S, sub2, i);
+        a.add(b).sub(c).sub(d).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i] - sub2[i]);
+    }
+
+    static void addAddSubSub(short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, add2, i);
+        var d = ShortVector.fromArray(S, sub, i);
+        var e = ShortVector.fromArray(S, sub2, i);
+        a.add(b).add(c).sub(d).sub(e).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] + add2[i] - sub[i] - sub2[i]);
+    }
+
+    private static ShortVector widen(byte[] w, int i) {
+      return (ShortVector) ByteVector.fromArray(B, w, i).convertShape(VectorOperators.B2S, S, 0);
+    }
+
+    static void addWeights8(short[] acc, byte[] w, int shift) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(widen(w, i).lanewise(VectorOperators.LSHL, shift)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += (short) (w[i] << shift);
+    }
+
+    static void addSub8(short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift));
+    }
+
+    static void addSubSub8(short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static void addAddSubSub8(short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).add(widen(add2, i)).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) + (add2[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    // Widened to ints so the result matches the scalar lookup-table loop exactly
+    static int screluDot(short[] acc, short[] w, int from, int to, int qa) {
+      IntVector sum = IntVector.zero(I);
+      int i = from;
+      int upper = from + H.loopBound(to - from);
+      for (; i < upper; i += H.length()) {
+        IntVector a = (IntVector) ShortVector.fromArray(H, acc, i).max((short) 0).min((short) qa)
+            .convertShape(VectorOperators.S2I, I, 0);
+        IntVector wv = (IntVector) ShortVector.fromArray(H, w, i).convertShape(VectorOperators.S2I, I, 0);
+        sum = sum.add(a.mul(a).mul(wv));
+      }
+      int result = sum.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        int v = Math.max(0, Math.min(acc[i], qa));
+        result += v * v * w[i];
+      }
+      return result;
+    }
+  }
+
+  private static final class W256 {
+    private static final VectorSpecies<Short> S = ShortVector.SPECIES_256;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_256;
+    // Half the lanes of S, so screluDot widens each load into one int vector without a part-1 conversion
+    private static final VectorSpecies<Short> H = ShortVector.SPECIES_128;
+    private static final VectorSpecies<Byte> B = ByteVector.SPECIES_128;
+
+    static void addWeights(short[] acc, short[] w) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(ShortVector.fromArray(S, w, i)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += w[i];
+    }
+
+    static void addSub(short[] to, short[] from, short[] add, short[] sub) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        a.add(b).sub(c).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i]);
+    }
+
+    static void addSubSub(short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        var d = ShortVector.fromArray(S, sub2, i);
+        a.add(b).sub(c).sub(d).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i] - sub2[i]);
+    }
+
+    static void addAddSubSub(short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, add2, i);
+        var d = ShortVector.fromArray(S, sub, i);
+        var e = ShortVector.fromArray(S, sub2, i);
+        a.add(b).add(c).sub(d).sub(e).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] + add2[i] - sub[i] - sub2[i]);
+    }
+
+    private static ShortVector widen(byte[] w, int i) {
+      return (ShortVector) ByteVector.fromArray(B, w, i).convertShape(VectorOperators.B2S, S, 0);
+    }
+
+    static void addWeights8(short[] acc, byte[] w, int shift) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(widen(w, i).lanewise(VectorOperators.LSHL, shift)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += (short) (w[i] << shift);
+    }
+
+    static void addSub8(short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift));
+    }
+
+    static void addSubSub8(short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static void addAddSubSub8(short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).add(widen(add2, i)).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) + (add2[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static int screluDot(short[] acc, short[] w, int from, int to, int qa) {
+      IntVector sum = IntVector.zero(I);
+      int i = from;
+      int upper = from + H.loopBound(to - from);
+      for (; i < upper; i += H.length()) {
+        IntVector a = (IntVector) ShortVector.fromArray(H, acc, i).max((short) 0).min((short) qa)
+            .convertShape(VectorOperators.S2I, I, 0);
+        IntVector wv = (IntVector) ShortVector.fromArray(H, w, i).convertShape(VectorOperators.S2I, I, 0);
+        sum = sum.add(a.mul(a).mul(wv));
+      }
+      int result = sum.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        int v = Math.max(0, Math.min(acc[i], qa));
+        result += v * v * w[i];
+      }
+      return result;
+    }
+  }
+
+  private static final class W512 {
+    private static final VectorSpecies<Short> S = ShortVector.SPECIES_512;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_512;
+    // Half the lanes of S, so screluDot widens each load into one int vector without a part-1 conversion
+    private static final VectorSpecies<Short> H = ShortVector.SPECIES_256;
+    private static final VectorSpecies<Byte> B = ByteVector.SPECIES_256;
+
+    static void addWeights(short[] acc, short[] w) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(ShortVector.fromArray(S, w, i)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += w[i];
+    }
+
+    static void addSub(short[] to, short[] from, short[] add, short[] sub) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        a.add(b).sub(c).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i]);
+    }
+
+    static void addSubSub(short[] to, short[] from, short[] add, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, sub, i);
+        var d = ShortVector.fromArray(S, sub2, i);
+        a.add(b).sub(c).sub(d).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] - sub[i] - sub2[i]);
+    }
+
+    static void addAddSubSub(short[] to, short[] from, short[] add, short[] add2, short[] sub, short[] sub2) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var a = ShortVector.fromArray(S, from, i);
+        var b = ShortVector.fromArray(S, add, i);
+        var c = ShortVector.fromArray(S, add2, i);
+        var d = ShortVector.fromArray(S, sub, i);
+        var e = ShortVector.fromArray(S, sub2, i);
+        a.add(b).add(c).sub(d).sub(e).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + add[i] + add2[i] - sub[i] - sub2[i]);
+    }
+
+    private static ShortVector widen(byte[] w, int i) {
+      return (ShortVector) ByteVector.fromArray(B, w, i).convertShape(VectorOperators.B2S, S, 0);
+    }
+
+    static void addWeights8(short[] acc, byte[] w, int shift) {
+      int upper = S.loopBound(acc.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        ShortVector.fromArray(S, acc, i).add(widen(w, i).lanewise(VectorOperators.LSHL, shift)).intoArray(acc, i);
+      }
+      for (; i < acc.length; i++) acc[i] += (short) (w[i] << shift);
+    }
+
+    static void addSub8(short[] to, short[] from, byte[] add, byte[] sub, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift));
+    }
+
+    static void addSubSub8(short[] to, short[] from, byte[] add, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static void addAddSubSub8(short[] to, short[] from, byte[] add, byte[] add2, byte[] sub, byte[] sub2, int shift) {
+      int upper = S.loopBound(to.length);
+      int i = 0;
+      for (; i < upper; i += S.length()) {
+        var delta = widen(add, i).add(widen(add2, i)).sub(widen(sub, i)).sub(widen(sub2, i));
+        ShortVector.fromArray(S, from, i).add(delta.lanewise(VectorOperators.LSHL, shift)).intoArray(to, i);
+      }
+      for (; i < to.length; i++) {
+        to[i] = (short) (from[i] + (add[i] << shift) + (add2[i] << shift) - (sub[i] << shift) - (sub2[i] << shift));
+      }
+    }
+
+    static int screluDot(short[] acc, short[] w, int from, int to, int qa) {
+      IntVector sum = IntVector.zero(I);
+      int i = from;
+      int upper = from + H.loopBound(to - from);
+      for (; i < upper; i += H.length()) {
+        IntVector a = (IntVector) ShortVector.fromArray(H, acc, i).max((short) 0).min((short) qa)
+            .convertShape(VectorOperators.S2I, I, 0);
+        IntVector wv = (IntVector) ShortVector.fromArray(H, w, i).convertShape(VectorOperators.S2I, I, 0);
+        sum = sum.add(a.mul(a).mul(wv));
+      }
+      int result = sum.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        int v = Math.max(0, Math.min(acc[i], qa));
+        result += v * v * w[i];
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package org.engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AttackInfoLegalityTest {
+
+    private final PositionFactory pf = new PositionFactory();
+    private final MoveGenerator gen = new MoveGenerator();
+    private final Set<String> fens = new LinkedHashSet<>();
+
+    @BeforeAll
+    void load() throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("/qbbAll.txt");
+             BufferedReader br = new BufferedReader(new InputStreamReader(
+                     Objects.requireNonNull(in, "qbbAll.txt not on classpath")))) {
+            br.lines().map(String::trim)
+                    .filter(l -> !(l.isEmpty() || l.startsWith("#")))
+                    .forEach(l -> fens.add(l.split(";")[0].trim()));
+        }
+        assertFalse(fens.isEmpty(), "qbbAll.txt missing / empty");
+    }
+
+    @Test
+    void cachedLegalityAndCheckMatchMakeUnmake() {
+        for (String fen : fens) {
+            long[] board = pf.fromFen(fen);
+            dfsCheck(fen, board, 2);
+        }
+    }
+
+    @Test
+    void pieceAttackMapsAndThreatsMatchRayWalk() {
+        for (String fen : fens) {
+            long[] board = pf.fromFen(fen);
+            AttackInfo attacks = new AttackInfo().update(board);
+            long occ = 0L;
+            for (int p = PositionFactory.WP; p <= PositionFactory.BK; p++) occ |= board[p];
+
+            long[] byPiece = new long[12];
+            for (int p = PositionFactory.WP; p <= PositionFactory.BK; p++) {
+                for (long pieces = board[p]; pieces != 0; pieces &= pieces - 1) {
+                    byPiece[p] |= rayWalk(occ, p, Long.numberOfTrailingZeros(pieces));
+                }
+                assertEquals(byPiece[p], attacks.attackedByPiece(p), "attacks of piece " + p + " differ for " + fen);
+            }
+
+            // Own pieces other than the king hit by a cheaper enemy piece, or attacked and undefended
+            boolean white = PositionFactory.whiteToMove(board);
+            int us = white ? PositionFactory.WP : PositionFactory.BP, them = white ? PositionFactory.BP : PositionFactory.WP;
+            long byUs = 0L, byThem = 0L;
+            for (int t = 0; t < 6; t++) {
+                byUs |= byPiece[us + t];
+                byThem |= byPiece[them + t];
+            }
+            long expected = 0L;
+            for (int t = 0; t < 5; t++) {
+                for (long pieces = board[us + t]; pieces != 0; pieces &= pieces - 1) {
+                    long sq = pieces & -pieces;
+                    long cheaper = 0L;
+                    for (int c = 0; c < 6 && VALUE[c] < VALUE[t]; c++) cheaper |= byPiece[them + c];
+                    if ((cheaper & sq) != 0 || (byThem & sq & ~byUs) != 0) expected |= sq;
+                }
+            }
+            assertEquals(expected, attacks.threatened(), "threatened pieces differ for " + fen);
+        }
+    }
+
+    // Knights and bishops count as equal, so neither threatens the other
+    private static final int[] VALUE = {1, 3, 3, 5, 9, 100};
+    private static final int[][] KNIGHT_STEPS = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+    private static final int[][] KING_STEPS = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+    private static final int[][] ROOK_RAYS = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+    private static final int[][] BISHOP_RAYS = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+
+    private static long rayWalk(long occ, int piece, int sq) {
+        int type = piece % 6;
+        int forward = piece < 6 ? 1 : -1;
+        return switch (type) {
+            case 0 -> steps(sq, new int[][]{{1, forward}, {-1, forward}}, false, occ);
+            case 1 -> steps(sq, KNIGHT_STEPS, false, occ);
+            case 2 -> steps(sq, BISHOP_RAYS, true, occ);
+            case 3 -> steps(sq, ROOK_RAYS, true, occ);
+            case 4 -> steps(sq, BISHOP_RAYS, true, occ) | steps(sq, ROOK_RAYS, true, occ);
+            default -> steps(sq, KING_STEPS, false, occ);
+        };
+    }
+
+    private static long steps(int sq, int[][] dirs, boolean slide, long occ) {
+        long set = 0L;
+        for (int[] d : dirs) {
+            int f = sq % 8 + d[0], r = sq / 8 + d[1];
+            while (f >= 0 && f < 8 && r >= 0 && r < 8) {
+                long bit = 1L << (r * 8 + f);
+                set |= bit;
+                if (!slide || (occ & bit) != 0) break;
+                f += d[0];
+                r += d[1];
+            }
+        }
+        return set;
+    }
+
+    // Every pseudo-legal move must be accepted or rejected the same way, and flagged as checking the same way,
+    // whether the caller passes the cached attack sets or the move is simply played out
+    private void dfsCheck(String fen, long[] board, int depth) {
+        AttackInfo attacks = new AttackInfo().update(board);
+        int[] moves = new int[256];
+        int n = gen.generateCaptures(board, moves, 0);
+        n = gen.generateQuiets(board, moves, n);
+
+        for (int i = 0; i < n; i++) {
+            int mv = moves[i];
+            long key = board[PositionFactory.HASH];
+
+            boolean legal = pf.makeMoveInPlace(board, mv, gen);
+            long after = board[PositionFactory.HASH];
+            if (legal) pf.undoMoveInPlace(board);
+            boolean check = pf.givesCheck(board, mv, gen);
+
+            boolean cachedLegal = pf.makeMoveInPlace(board, mv, gen, attacks);
+            assertEquals(legal, cachedLegal, () -> "legality mismatch FEN=" + fen + " now=" + pf.toFen(board) + " move=" + MoveFactory.moveToUci(mv));
+            if (!cachedLegal) {
+                assertEquals(key, board[PositionFactory.HASH], "rejected move changed the position");
+                continue;
+            }
+            assertEquals(after, board[PositionFactory.HASH], "position differs after make with attack sets");
+            pf.undoMoveInPlace(board);
+
+            attacks.update(board);
+            assertEquals(check, pf.givesCheck(board, mv, gen, attacks),
+                    () -> "givesCheck mismatch FEN=" + fen + " now=" + pf.toFen(board) + " move=" + MoveFactory.moveToUci(mv));
+
+            if (depth > 1) {
+                pf.makeMoveInPlace(board, mv, gen, attacks);
+                dfsCheck(fen, board, depth - 1);
+                pf.undoMoveInPlace(board);
+                attacks.update(board);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchEvalTest {
+
+    private static final String[] FENS = new String[]{
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/2pb1ppp/2pp1q2/p7/1nP1B3/1P2P3/P2N1PPP/R2QK2R w KQkq a6 0 14",
+            "4rrk1/2p1b1p1/p1p3q1/4p3/2P2n1p/1P1NR2P/PB3PP1/3R1QK1 b - - 2 24",
+            "not a fen",
+            "",
+            "8/8/1p2k1p1/3p3p/1p1P1P1P/1P2PK2/8/8 w - - 3 54"
+    };
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void init() {
+        Eval.initializeEval();
+    }
+
+    @Test
+    void batchScoresMatchSinglePositionEval() {
+        List<String> fens = positions(3000);
+        int[] scores = BatchEval.evaluateFens(fens, new AtomicBoolean());
+        assertEquals(fens.size(), scores.length);
+        PositionFactory pf = new PositionFactory();
+        for (int i = 0; i < fens.size(); i++) {
+            String fen = fens.get(i);
+            if (fen.isEmpty() || fen.startsWith("not")) {
+                assertEquals(BatchEval.INVALID, scores[i], "expected invalid for \"" + fen + "\"");
+                continue;
+            }
+            long[] board = pf.fromFen(fen);
+            Eval.NNUEState state = new Eval.NNUEState();
+            Eval.refreshAccumulator(state, board);
+            assertEquals(Eval.evaluate(state, board), scores[i], "score differs for " + fen);
+        }
+    }
+
+    @Test
+    void cancelledBatchWritesNoUnscoredLines() throws IOException {
+        AtomicBoolean cancel = new AtomicBoolean(true);
+        assertEquals(0, BatchEval.evaluateFens(positions(3000), cancel).length, "skipped slices were returned");
+
+        Path in = Files.write(dir.resolve("fens.txt"), positions(3000));
+        Path out = dir.resolve("fens.eval");
+        assertEquals(0, BatchEval.run(in, out, cancel));
+        assertEquals(0, Files.readAllLines(out).size(), "a stopped batch wrote unscored lines");
+
+        assertEquals(3000, BatchEval.run(in, out, new AtomicBoolean()));
+        assertEquals(3000, Files.readAllLines(out).size());
+    }
+
+    private static List<String> positions(int count) {
+        List<String> fens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) fens.add(FENS[i % FENS.length]);
+        return fens;
+    }
+}
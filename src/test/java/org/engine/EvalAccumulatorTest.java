@@ -2,6 +2,12 @@ package org.engine;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -21,6 +27,15 @@ public class EvalAccumulatorTest {
             "4q1bk/6b1/7p/p1p4p/PNPpP2P/KN4P1/3Q4/4R3 b - - 0 37"
     };
 
+    // Lopsided enough for the small net to answer on its own in part of the tree
+    private static final String[] UNEVEN_FENS = new String[]{
+            "4k3/pp3ppp/8/8/8/8/PPP2PPP/2RQKR2 w - - 0 1",
+            "2r3k1/5ppp/8/3B4/8/2N5/5PPP/3QR1K1 b - - 0 1"
+    };
+
+    @TempDir
+    Path dir;
+
     @BeforeAll
     static void init() {
         Eval.initializeEval();
@@ -74,6 +89,73 @@ public class EvalAccumulatorTest {
             Eval.undoMoveAccumulator(inc);
         }
     }
-}
 
+    @Test
+    void lazyBigNetCatchesUpAtLeaves() {
+        for (String fen : BENCH_FENS) leafCheck(fen, 3);
+    }
 
+    @Test
+    void lazyBigNetCatchesUpBehindSmallNet() throws IOException {
+        // Stand-in small net: the first 64 neurons of the bundled one
+        Eval.Network big = Eval.openNetwork(Eval.INTERNAL_NETWORK);
+        boolean int8 = big.l1Weights8 != null;
+        Eval.Network small = new Eval.Network("small", 64, big.outputBuckets, big.qa, big.qb, big.scale, int8, big.l1Shift);
+        for (int i = 0; i < Eval.INPUT_SIZE; i++) {
+            if (int8) System.arraycopy(big.l1Weights8[i], 0, small.l1Weights8[i], 0, small.hiddenSize);
+            else System.arraycopy(big.l1Weights[i], 0, small.l1Weights[i], 0, small.hiddenSize);
+        }
+        System.arraycopy(big.l1Biases, 0, small.l1Biases, 0, small.hiddenSize);
+        for (int k = 0; k < big.outputBuckets; k++) {
+            System.arraycopy(big.l2Weights[k][0], 0, small.l2Weights[k][0], 0, small.hiddenSize);
+            System.arraycopy(big.l2Weights[k][1], 0, small.l2Weights[k][1], 0, small.hiddenSize);
+        }
+        System.arraycopy(big.l2Biases, 0, small.l2Biases, 0, big.outputBuckets);
+        Path file = dir.resolve("small.nnue");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            Eval.writeNetwork(small, out);
+        }
+
+        Eval.loadSmallNetwork(file.toString());
+        try {
+            for (String fen : UNEVEN_FENS) leafCheck(fen, 3);
+            for (int i = 0; i < 3; i++) leafCheck(BENCH_FENS[i], 3);
+        } finally {
+            Eval.loadSmallNetwork(Eval.NO_NETWORK);
+        }
+    }
+
+    // Evaluates only the leaves, so the big net has to replay every move on the line since its last evaluation
+    private void leafCheck(String fen, int depth) {
+        PositionFactory pf = new PositionFactory();
+        long[] board = pf.fromFen(fen);
+        Eval.NNUEState inc = new Eval.NNUEState();
+        Eval.refreshAccumulator(inc, board);
+        leafWalk(fen, board, inc, pf, new MoveGenerator(), depth);
+    }
+
+    private void leafWalk(String fen, long[] board, Eval.NNUEState inc, PositionFactory pf, MoveGenerator gen, int depth) {
+        if (depth == 0) {
+            Eval.NNUEState full = new Eval.NNUEState();
+            Eval.refreshAccumulator(full, board);
+            assertEquals(Eval.evaluate(full, board), Eval.evaluate(inc, board), () -> "Leaf eval mismatch FEN=" + fen + " at " + pf.toFen(board));
+            return;
+        }
+
+        int[] moves = new int[256];
+        int n = gen.generateCaptures(board, moves, 0);
+        n = gen.generateQuiets(board, moves, n);
+
+        for (int i = 0; i < n; i++) {
+            int mv = moves[i];
+            Eval.doMoveAccumulator(inc, board, mv);
+            if (!pf.makeMoveInPlace(board, mv, gen)) {
+                Eval.undoMoveAccumulator(inc);
+                continue;
+            }
+            leafWalk(fen, board, inc, pf, gen, depth - 1);
+            pf.undoMoveInPlace(board);
+            Eval.undoMoveAccumulator(inc);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class KernelsTest {
+
+    private static final int[] WIDTHS = {128, 256, 512};
+    // Around and between the 8, 16 and 32 lane counts, so every width runs its tail loop
+    private static final int[] LENGTHS = {1, 7, 8, 9, 15, 17, 31, 33, 63, 65, 100, 257, 1000};
+
+    private final SplittableRandom rnd = new SplittableRandom(44);
+
+    @Test
+    void int16KernelsMatchScalar() {
+        for (int width : WIDTHS) {
+            for (int n : LENGTHS) {
+                short[] from = shorts(n), add = shorts(n), add2 = shorts(n), sub = shorts(n), sub2 = shorts(n);
+                short[] expected = from.clone(), actual = from.clone();
+                String where = " width=" + width + " n=" + n;
+
+                Kernels.Scalar.addWeights(expected, add);
+                VectorKernels.addWeights(width, actual, add);
+                assertArrayEquals(expected, actual, "addWeights" + where);
+
+                Kernels.Scalar.addSub(expected, from, add, sub);
+                VectorKernels.addSub(width, actual, from, add, sub);
+                assertArrayEquals(expected, actual, "addSub" + where);
+
+                Kernels.Scalar.addSubSub(expected, from, add, sub, sub2);
+                VectorKernels.addSubSub(width, actual, from, add, sub, sub2);
+                assertArrayEquals(expected, actual, "addSubSub" + where);
+
+                Kernels.Scalar.addAddSubSub(expected, from, add, add2, sub, sub2);
+                VectorKernels.addAddSubSub(width, actual, from, add, add2, sub, sub2);
+                assertArrayEquals(expected, actual, "addAddSubSub" + where);
+            }
+        }
+    }
+
+    @Test
+    void int8KernelsMatchScalar() {
+        for (int width : WIDTHS) {
+            for (int n : LENGTHS) {
+                for (int shift = 0; shift <= Eval.MAX_L1_SHIFT; shift++) {
+                    short[] from = shorts(n);
+                    byte[] add = bytes(n), add2 = bytes(n), sub = bytes(n), sub2 = bytes(n);
+                    short[] expected = from.clone(), actual = from.clone();
+                    String where = " width=" + width + " n=" + n + " shift=" + shift;
+
+                    Kernels.Scalar.addWeights8(expected, add, shift);
+                    VectorKernels.addWeights8(width, actual, add, shift);
+                    assertArrayEquals(expected, actual, "addWeights8" + where);
+
+                    Kernels.Scalar.addSub8(expected, from, add, sub, shift);
+                    VectorKernels.addSub8(width, actual, from, add, sub, shift);
+                    assertArrayEquals(expected, actual, "addSub8" + where);
+
+                    Kernels.Scalar.addSubSub8(expected, from, add, sub, sub2, shift);
+                    VectorKernels.addSubSub8(width, actual, from, add, sub, sub2, shift);
+                    assertArrayEquals(expected, actual, "addSubSub8" + where);
+
+                    Kernels.Scalar.addAddSubSub8(expected, from, add, add2, sub, sub2, shift);
+                    VectorKernels.addAddSubSub8(width, actual, from, add, add2, sub, sub2, shift);
+                    assertArrayEquals(expected, actual, "addAddSubSub8" + where);
+                }
+            }
+        }
+    }
+
+    @Test
+    void screluDotMatchesScalarOnAnyRange() {
+        int qa = 255;
+        short[] acc = new short[1024], w = new short[1024];
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] = (short) rnd.nextInt(-100, 400);
+            w[i] = (short) rnd.nextInt(-128, 128);
+        }
+        for (int width : WIDTHS) {
+            for (int from : new int[]{0, 1, 7, 16, 255, 256}) {
+                for (int n : LENGTHS) {
+                    int to = Math.min(acc.length, from + n);
+                    assertEquals(Kernels.Scalar.screluDot(acc, w, from, to, qa), VectorKernels.screluDot(width, acc, w, from, to, qa),
+                            "screluDot width=" + width + " range=[" + from + "," + to + ")");
+                }
+                assertEquals(0, VectorKernels.screluDot(width, acc, w, from, from, qa), "empty range width=" + width);
+            }
+        }
+    }
+
+    @Test
+    void selectedWidthMatchesScalar() {
+        short[] from = shorts(1000), add = shorts(1000), sub = shorts(1000);
+        short[] expected = new short[1000], actual = new short[1000];
+        Kernels.Scalar.addSub(expected, from, add, sub);
+        Kernels.addSub(actual, from, add, sub);
+        assertArrayEquals(expected, actual, "dispatch through " + Kernels.describe());
+        assertEquals(Kernels.Scalar.screluDot(from, add, 3, 997, 255), Kernels.screluDot(from, add, 3, 997, 255));
+    }
+
+    private short[] shorts(int n) {
+        short[] a = new short[n];
+        for (int i = 0; i < n; i++) a[i] = (short) rnd.nextInt(Short.MIN_VALUE, Short.MAX_VALUE + 1);
+        return a;
+    }
+
+    private byte[] bytes(int n) {
+        byte[] a = new byte[n];
+        for (int i = 0; i < n; i++) a[i] = (byte) rnd.nextInt(Byte.MIN_VALUE, Byte.MAX_VALUE + 1);
+        return a;
+    }
+}
@@ -0,0 +1,127 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MaterialTest {
+
+    private static final String[] FENS = new String[]{
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "n1n5/PPPk4/8/8/8/8/4Kppp/5N1N b - - 0 1",
+            "8/8/1p2k1p1/3p3p/1p1P1P1P/1P2PK2/8/8 w - - 3 54"
+    };
+
+    @Test
+    void incrementalSignatureMatchesRecount() {
+        PositionFactory pf = new PositionFactory();
+        MoveGenerator gen = new MoveGenerator();
+        for (String fen : FENS) {
+            long[] board = pf.fromFen(fen);
+            assertEquals(recount(board), board[PositionFactory.MATERIAL], "root signature mismatch FEN=" + fen);
+            dfsCheck(fen, board, pf, gen, 3);
+        }
+    }
+
+    @Test
+    void insufficientMaterialFollowsTheMinorPieceRules() {
+        assertInsufficient(true, "4k3/8/8/8/8/8/8/4K3 w - - 0 1");
+        assertInsufficient(true, "4k3/8/8/8/8/8/8/3NK3 w - - 0 1");
+        assertInsufficient(true, "4k3/8/8/8/8/8/8/2B1K3 w - - 0 1");
+        assertInsufficient(true, "2b1k3/8/8/8/8/8/8/3NK3 w - - 0 1");
+        assertInsufficient(true, "4kb2/8/8/8/8/8/8/2B1K3 w - - 0 1");
+        assertInsufficient(false, "2b1k3/8/8/8/8/8/8/2B1K3 w - - 0 1");
+        assertInsufficient(true, "4k3/8/8/8/8/4B3/8/2B1K3 w - - 0 1");
+        assertInsufficient(false, "4k3/8/8/8/8/8/8/2BBK3 w - - 0 1");
+        assertInsufficient(false, "4k3/8/8/8/8/8/8/2NNK3 w - - 0 1");
+        assertInsufficient(false, "4k3/8/8/8/8/8/4P3/4K3 w - - 0 1");
+        assertInsufficient(false, "4k3/8/8/8/8/8/8/R3K3 w - - 0 1");
+    }
+
+    @Test
+    void loneMajorPieceDrivesTheKingToTheEdge() {
+        assertEquals(Material.KNOWN_WIN + 30, adjust("8/8/8/4k3/8/8/8/1R2K3 w - - 0 1", 0));
+        assertEquals(-(Material.KNOWN_WIN + 30), adjust("8/8/8/4k3/8/8/8/1R2K3 b - - 0 1", 0));
+        assertEquals(Material.KNOWN_WIN + 60, adjust("k7/8/8/8/8/8/8/1R2K3 w - - 0 1", 0));
+        assertEquals(-(Material.KNOWN_WIN + 60), adjust("1q2k3/8/8/8/8/8/8/K7 w - - 0 1", 0));
+    }
+
+    @Test
+    void bishopAndKnightDriveTheKingToTheBishopsCorner() {
+        // Dark-squared bishop on c1: a1 and h8 are the mating corners
+        assertEquals(Material.KNOWN_WIN + 140, adjust("7k/8/8/8/8/8/8/2BNK3 w - - 0 1", 0));
+        assertEquals(Material.KNOWN_WIN, adjust("k7/8/8/8/8/8/8/2BNK3 w - - 0 1", 0));
+    }
+
+    @Test
+    void rookPawnIsDrawnOnceTheDefenderHoldsTheCorner() {
+        assertEquals(0, adjust("k7/8/8/8/8/8/P7/4K3 w - - 0 1", 500));
+        assertEquals(0, adjust("4k3/7p/8/8/8/8/8/6K1 b - - 0 1", 500));
+        assertEquals(500, adjust("7k/8/8/8/8/8/P7/4K3 w - - 0 1", 500));
+        assertEquals(500, adjust("k7/8/8/8/8/8/1P6/4K3 w - - 0 1", 500));
+    }
+
+    @Test
+    void oppositeColouredBishopsHalveTheEval() {
+        assertEquals(100, adjust("4k3/5p2/8/3b4/8/8/4PB2/4K3 w - - 0 1", 200));
+        assertEquals(-100, adjust("4k3/5p2/8/3b4/8/8/4PB2/4K3 w - - 0 1", -200));
+        assertEquals(200, adjust("4k3/5p2/8/4b3/8/8/4PB2/4K3 w - - 0 1", 200));
+        assertEquals(200, adjust("4k3/5p2/8/3b4/8/8/4PB2/3RK3 w - - 0 1", 200));
+    }
+
+    @Test
+    void singleMinorWithoutPawnsCannotWin() {
+        assertEquals(0, adjust("4k3/4p3/8/8/8/8/8/3NK3 w - - 0 1", 150));
+        assertEquals(-150, adjust("4k3/4p3/8/8/8/8/8/3NK3 w - - 0 1", -150));
+        assertEquals(150, adjust("4k3/4p3/8/8/8/8/8/3NK3 b - - 0 1", 150));
+        assertEquals(0, adjust("4k3/4p3/8/8/8/8/8/3NK3 b - - 0 1", -150));
+        assertEquals(150, adjust("4k3/4p3/8/8/8/8/3P4/3NK3 w - - 0 1", 150));
+    }
+
+    private static int adjust(String fen, int eval) {
+        return Material.adjust(new PositionFactory().fromFen(fen), eval);
+    }
+
+    private static void assertInsufficient(boolean expected, String fen) {
+        PositionFactory pf = new PositionFactory();
+        long[] board = pf.fromFen(fen);
+        assertEquals(expected, Material.isInsufficient(board[PositionFactory.MATERIAL]), "insufficient material for " + fen);
+        assertEquals(expected, pf.isDraw(board), "draw for " + fen);
+    }
+    private void dfsCheck(String fen, long[] board, PositionFactory pf, MoveGenerator gen, int depth) {
+        if (depth == 0) return;
+
+        int[] moves = new int[256];
+        int n = gen.generateCaptures(board, moves, 0);
+        n = gen.generateQuiets(board, moves, n);
+
+        long before = board[PositionFactory.MATERIAL];
+        for (int i = 0; i < n; i++) {
+            int mv = moves[i];
+            if (!pf.makeMoveInPlace(board, mv, gen)) {
+                assertEquals(before, board[PositionFactory.MATERIAL], "rejected move changed the signature");
+                continue;
+            }
+            assertEquals(recount(board), board[PositionFactory.MATERIAL],
+                    () -> "signature mismatch depth=" + depth + " FEN=" + fen + " move=" + MoveFactory.moveToUci(mv));
+
+            dfsCheck(fen, board, pf, gen, depth - 1);
+
+            pf.undoMoveInPlace(board);
+            assertEquals(before, board[PositionFactory.MATERIAL],
+                    () -> "signature not restored FEN=" + fen + " move=" + MoveFactory.moveToUci(mv));
+        }
+    }
+
+    private static long recount(long[] board) {
+        long sig = 0;
+        for (int pc = PositionFactory.WP; pc <= PositionFactory.BK; pc++) {
+            for (long b = board[pc]; b != 0; b &= b - 1) sig += Material.unit(pc, Long.numberOfTrailingZeros(b));
+        }
+        return sig;
+    }
+}
@@ -0,0 +1,78 @@
+package org.engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NetworkFileTest {
+
+    private static final String FEN = "r3k2r/2pb1ppp/2pp1q2/p7/1nP1B3/1P2P3/P2N1PPP/R2QK2R w KQkq a6 0 14";
+
+    private static byte[] valid;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void init() throws IOException {
+        Eval.initializeEval();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Eval.writeNetwork(Eval.openNetwork(Eval.INTERNAL_NETWORK), out);
+        valid = out.toByteArray();
+    }
+
+    @Test
+    void writtenNetworkLoadsBack() throws IOException {
+        int before = evaluate();
+        Eval.loadNetwork(write("valid.nnue", valid).toString());
+        assertEquals(before, evaluate(), "rewritten network evaluates differently");
+        Eval.initializeEval();
+    }
+
+    @Test
+    void badHeadersAreRejectedAndNetworkKept() throws IOException {
+        int before = evaluate();
+        assertRejected(withInt(4, 99), "unsupported network version 99");
+        assertRejected(withInt(8, 5), "unsupported feature set 5");
+        assertRejected(withInt(12, 0), "invalid network shape");
+        assertRejected(withInt(16, 1000), "invalid network shape");
+        assertRejected(withInt(20, -1), "invalid network shape");
+        assertRejected(Arrays.copyOf(valid, valid.length - 2), "network file too short");
+        assertEquals(before, evaluate(), "a rejected file replaced the network");
+    }
+
+    private void assertRejected(byte[] raw, String message) throws IOException {
+        Path file = write("bad.nnue", raw);
+        IOException e = assertThrows(IOException.class, () -> Eval.loadNetwork(file.toString()));
+        assertTrue(e.getMessage().contains(message), "expected \"" + message + "\" but got: " + e.getMessage());
+    }
+
+    private Path write(String name, byte[] raw) throws IOException {
+        return Files.write(dir.resolve(name), raw);
+    }
+
+    private static byte[] withInt(int offset, int value) {
+        byte[] raw = valid.clone();
+        ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        return raw;
+    }
+
+    private static int evaluate() {
+        long[] board = new PositionFactory().fromFen(FEN);
+        Eval.NNUEState state = new Eval.NNUEState();
+        Eval.refreshAccumulator(state, board);
+        return Eval.evaluate(state, board);
+    }
+}
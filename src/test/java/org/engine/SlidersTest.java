@@ -0,0 +1,16 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SlidersTest {
+
+    @Test
+    void allBackendsMatchRayWalk() {
+        int[] bad = Sliders.mismatches(20_000);
+        assertEquals(0, bad[Sliders.PEXT], "pext lookups differ from the ray walk");
+        assertEquals(0, bad[Sliders.MAGIC], "magic lookups differ from the ray walk");
+        assertEquals(0, bad[Sliders.KOGGE_STONE], "kogge-stone fills differ from the ray walk");
+    }
+}
@@ -0,0 +1,95 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TranspositionTableFileTest {
+
+    private static final int KEYS = 20_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void saveThenLoadReproducesTheTable() throws IOException {
+        TranspositionTable saved = filled(1, 38);
+        Path file = dir.resolve("hash.bin");
+        saved.save(file);
+
+        TranspositionTable loaded = new TranspositionTable();
+        loaded.init(2);
+        loaded.load(file);
+
+        assertEquals(saved.getHashfull(), loaded.getHashfull(), "hashfull differs after load");
+        assertEquals(contents(saved.stats()), contents(loaded.stats()), "stats differ after load");
+        assertSameEntries(saved, loaded, 38);
+    }
+
+    @Test
+    void corruptFileIsRejectedAndTableKept() throws IOException {
+        Path file = dir.resolve("hash.bin");
+        filled(1, 38).save(file);
+        byte[] raw = Files.readAllBytes(file);
+        raw[raw.length / 2] ^= 0x20;
+        Files.write(file, raw);
+
+        TranspositionTable target = filled(1, 7);
+        TranspositionTable reference = filled(1, 7);
+        IOException e = assertThrows(IOException.class, () -> target.load(file));
+        assertTrue(e.getMessage().contains("checksum mismatch"), "unexpected message: " + e.getMessage());
+        assertSameEntries(reference, target, 7);
+
+        raw[0] ^= 0x01;
+        Files.write(file, raw);
+        e = assertThrows(IOException.class, () -> target.load(file));
+        assertTrue(e.getMessage().contains("not a hash file"), "unexpected message: " + e.getMessage());
+        assertSameEntries(reference, target, 7);
+    }
+
+    private static TranspositionTable filled(long megaBytes, long seed) {
+        TranspositionTable tt = new TranspositionTable();
+        tt.init(megaBytes);
+        Random keys = new Random(seed), rnd = new Random(~seed);
+        for (int i = 0; i < KEYS; i++) {
+            long key = keys.nextLong();
+            int bound = 1 + rnd.nextInt(3);
+            tt.probe(key).entry.store(key, bound, rnd.nextInt(60), rnd.nextInt(1 << 16),
+                    rnd.nextInt(4000) - 2000, rnd.nextInt(4000) - 2000, rnd.nextBoolean(), 0);
+        }
+        return tt;
+    }
+
+    private static void assertSameEntries(TranspositionTable expected, TranspositionTable actual, long seed) {
+        Random keys = new Random(seed);
+        int hits = 0;
+        for (int i = 0; i < KEYS; i++) {
+            long key = keys.nextLong();
+            TranspositionTable.ProbeResult a = expected.probe(key), b = actual.probe(key);
+            assertEquals(a.hit, b.hit, "hit differs for entry " + i);
+            if (!a.hit) continue;
+            hits++;
+            assertEquals(a.entry.getDepth(), b.entry.getDepth(), "depth differs for entry " + i);
+            assertEquals(a.entry.getBound(), b.entry.getBound(), "bound differs for entry " + i);
+            assertEquals(a.entry.getPackedMove(), b.entry.getPackedMove(), "move differs for entry " + i);
+            assertEquals(a.entry.getScore(0), b.entry.getScore(0), "score differs for entry " + i);
+            assertEquals(a.entry.getStaticEval(), b.entry.getStaticEval(), "eval differs for entry " + i);
+            assertEquals(a.entry.wasPV(), b.entry.wasPV(), "pv flag differs for entry " + i);
+            assertEquals(a.entry.getAge(), b.entry.getAge(), "age differs for entry " + i);
+        }
+        assertTrue(hits > KEYS / 2, "only " + hits + " of " + KEYS + " entries survived");
+    }
+
+    // The table-content part of stats(); the probe and store counters restart on load
+    private static String contents(String stats) {
+        return stats.substring(0, stats.indexOf(" probes")) + stats.substring(stats.indexOf(" full"), stats.indexOf(" deepstored"));
+    }
+}
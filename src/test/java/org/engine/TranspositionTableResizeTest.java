@@ -0,0 +1,140 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TranspositionTableResizeTest {
+
+    private static final int KEYS = 20_000;
+
+    @Test
+    void shrinkingRehashesEntriesEagerly() {
+        TranspositionTable reference = filled(3, 39);
+        TranspositionTable tt = filled(3, 39);
+        long moved = tt.resize(1);
+        assertTrue(moved > KEYS / 2, "only " + moved + " entries moved eagerly");
+
+        // Release the old table before probing so only the rehashed entries can hit
+        tt.nextSearch();
+        tt.nextSearch();
+        assertTrue(survivors(reference, tt, 39) >= moved * 99 / 100, "rehashed entries cannot be probed");
+    }
+
+    @Test
+    void unevenShrinkFindsSplitBucketsInOldTable() {
+        TranspositionTable reference = filled(3, 40);
+        TranspositionTable tt = filled(3, 40);
+        int stored = survivors(reference, reference, 40);
+        long moved = tt.resize(2);
+        assertTrue(moved > 0 && moved < stored, "moved " + moved + " of " + stored + " entries eagerly");
+        assertTrue(survivors(reference, tt, 40) >= stored * 99 / 100, "entries lost by an uneven shrink");
+    }
+
+    @Test
+    void growingMigratesEntriesOnProbe() {
+        TranspositionTable reference = filled(1, 41);
+        TranspositionTable tt = filled(1, 41);
+        int stored = survivors(reference, reference, 41);
+        assertEquals(0, tt.resize(3), "a grown table cannot place entries eagerly");
+        assertEquals(stored, survivors(reference, tt, 41), "entries lost after growing");
+
+        // Probed entries now live in the new table and outlast the old one
+        tt.nextSearch();
+        tt.nextSearch();
+        assertTrue(survivors(reference, tt, 41) >= stored * 99 / 100, "migrated entries lost with the old table");
+        assertFalse(tt.probe(new Random(42).nextLong()).hit, "unknown key hit");
+    }
+
+    @Test
+    void shrinkMovesExactlyTheBucketsInsideOneNewBucket() {
+        assertExactShrink(3, 2);
+        // Half the buckets, so every other old bucket starts exactly on a new bucket boundary
+        assertExactShrink(4, 2);
+    }
+
+    private static void assertExactShrink(long from, long to) {
+        long oldBuckets = buckets(from), newBuckets = buckets(to);
+        TranspositionTable tt = new TranspositionTable();
+        tt.init(from);
+
+        // The first and last key of sampled old buckets, where an off-by-one in the bucket range shows up
+        List<Long> fitting = new ArrayList<>(), split = new ArrayList<>();
+        long[] sampled = LongStream.concat(LongStream.iterate(1, b -> b < oldBuckets - 1, b -> b + 7),
+                LongStream.of(oldBuckets - 1)).toArray();
+        for (long b : sampled) {
+            long first = firstKey(b, oldBuckets), last = firstKey(b + 1, oldBuckets) - 1;
+            boolean fits = bucket(first, newBuckets) == bucket(last, newBuckets);
+            for (long key : new long[]{first, last}) {
+                tt.probe(key).entry.store(key, 1, 10, 0, 0, 0, false, 0);
+                (fits ? fitting : split).add(key);
+            }
+        }
+        assertEquals(fitting.size(), tt.resize(to), "eagerly moved entries " + from + " MB to " + to + " MB");
+
+        tt.nextSearch();
+        tt.nextSearch();
+        for (long key : fitting) assertTrue(tt.probe(key).hit, "moved key " + Long.toUnsignedString(key) + " not found");
+        for (long key : split) assertFalse(tt.probe(key).hit, "split key " + Long.toUnsignedString(key) + " was moved");
+    }
+
+    private static TranspositionTable filled(long megaBytes, long seed) {
+        TranspositionTable tt = new TranspositionTable();
+        tt.init(megaBytes);
+        Random keys = new Random(seed), rnd = new Random(~seed);
+        for (int i = 0; i < KEYS; i++) {
+            long key = keys.nextLong();
+            int bound = 1 + rnd.nextInt(3);
+            tt.probe(key).entry.store(key, bound, rnd.nextInt(60), rnd.nextInt(1 << 16),
+                    rnd.nextInt(4000) - 2000, rnd.nextInt(4000) - 2000, rnd.nextBoolean(), 0);
+        }
+        return tt;
+    }
+
+    // Every entry the resized table returns must be the one the reference holds for that key
+    private static int survivors(TranspositionTable reference, TranspositionTable resized, long seed) {
+        Random keys = new Random(seed);
+        int hits = 0;
+        for (int i = 0; i < KEYS; i++) {
+            long key = keys.nextLong();
+            TranspositionTable.ProbeResult a = reference.probe(key), b = resized.probe(key);
+            if (!a.hit || !b.hit) continue;
+            hits++;
+            assertEquals(a.entry.getDepth(), b.entry.getDepth(), "depth differs for entry " + i);
+            assertEquals(a.entry.getBound(), b.entry.getBound(), "bound differs for entry " + i);
+            assertEquals(a.entry.getPackedMove(), b.entry.getPackedMove(), "move differs for entry " + i);
+            assertEquals(a.entry.getScore(0), b.entry.getScore(0), "score differs for entry " + i);
+            assertEquals(a.entry.getStaticEval(), b.entry.getStaticEval(), "eval differs for entry " + i);
+            assertEquals(a.entry.wasPV(), b.entry.wasPV(), "pv flag differs for entry " + i);
+        }
+        return hits;
+    }
+
+    private static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+
+    private static long buckets(long megaBytes) {
+        TranspositionTable tt = new TranspositionTable();
+        tt.init(megaBytes);
+        String stats = tt.stats();
+        return Long.parseLong(stats.substring("entries ".length(), stats.indexOf(' ', "entries ".length())))
+                / TranspositionTable.SLOTS_PER_SET;
+    }
+
+    // Smallest key of bucket b, ceil(b * 2^64 / n); wraps to 0 past the last bucket
+    private static long firstKey(long b, long n) {
+        BigInteger[] qr = BigInteger.valueOf(b).multiply(TWO_64).divideAndRemainder(BigInteger.valueOf(n));
+        return qr[0].add(qr[1].signum() == 0 ? BigInteger.ZERO : BigInteger.ONE).longValue();
+    }
+
+    private static long bucket(long key, long n) {
+        return new BigInteger(Long.toUnsignedString(key)).multiply(BigInteger.valueOf(n)).shiftRight(64).longValue();
+    }
+}
@@ -0,0 +1,84 @@
+package org.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UpcomingRepetitionTest {
+
+    private static final String[] FENS = new String[]{
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/2pb1ppp/2pp1q2/p7/1nP1B3/1P2P3/P2N1PPP/R2QK2R w KQkq - 0 14",
+            "4rrk1/2p1b1p1/p1p3q1/4p3/2P2n1p/1P1NR2P/PB3PP1/3R1QK1 b - - 2 24",
+            "6k1/1R3p2/6p1/2Bp3p/3P2q1/P7/1P2rQ1K/5R2 b - - 4 44",
+            "8/8/1p2k1p1/3p3p/1p1P1P1P/1P2PK2/8/8 w - - 3 54",
+            "7r/2p3k1/1p1p1qp1/1P1Bp3/p1P2r1P/P7/4R3/Q4RK1 w - - 0 36"
+    };
+
+    @Test
+    void cuckooMatchesBruteForceOverRandomShuffles() {
+        PositionFactory pf = new PositionFactory();
+        MoveGenerator gen = new MoveGenerator();
+        Random rnd = new Random(31);
+        int[] moves = new int[256];
+        int hits = 0;
+
+        for (String fen : FENS) {
+            for (int game = 0; game < 20; game++) {
+                long[] board = pf.fromFen(fen);
+                for (int ply = 1; ply <= 40; ply++) {
+                    int n = reversibleMoves(board, gen, moves);
+                    int played = MoveFactory.MOVE_NONE;
+                    for (int tries = 0; tries < n && played == MoveFactory.MOVE_NONE; tries++) {
+                        int mv = moves[rnd.nextInt(n)];
+                        if (pf.makeMoveInPlace(board, mv, gen)) played = mv;
+                    }
+                    if (played == MoveFactory.MOVE_NONE) break;
+
+                    int searchPly = 1 + rnd.nextInt(ply);
+                    boolean expected = bruteForce(pf, board, gen, moves, searchPly);
+                    if (expected) hits++;
+                    final int p = ply;
+                    assertEquals(expected, pf.upcomingRepetition(board, searchPly),
+                            () -> "FEN=" + fen + " ply=" + p + " searchPly=" + searchPly + " now=" + pf.toFen(board));
+                }
+            }
+        }
+        assertTrue(hits > 0, "random shuffles never reached a repetition");
+    }
+
+    // Quiet moves of knights, bishops, rooks, queens and kings, the only moves that can undo an earlier one
+    private static int reversibleMoves(long[] board, MoveGenerator gen, int[] moves) {
+        int n = gen.generateQuiets(board, moves, 0);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int mv = moves[i];
+            int piece = PositionFactory.pieceAt(board, MoveFactory.GetFrom(mv));
+            if (MoveFactory.GetFlags(mv) == MoveFactory.FLAG_NORMAL && piece % 6 != PositionFactory.WP) moves[m++] = mv;
+        }
+        return m;
+    }
+
+    // True if one pseudo-legal reversible move gives the key of a position at least three plies back, inside the
+    // halfmove window and inside the search tree; mirrors what the cuckoo test promises without its tables
+    private static boolean bruteForce(PositionFactory pf, long[] board, MoveGenerator gen, int[] moves, int searchPly) {
+        int hsp = (int) board[PositionFactory.HIST_SP];
+        int end = Math.min(pf.halfmoveClock(board), hsp - 1);
+        int top = PositionFactory.HIST_BASE + hsp - 1;
+        int n = reversibleMoves(board, gen, moves);
+        for (int k = 0; k < n; k++) {
+            int mv = moves[k];
+            int from = MoveFactory.GetFrom(mv), to = MoveFactory.GetTo(mv);
+            int piece = PositionFactory.pieceAt(board, from);
+            long key = board[PositionFactory.HASH] ^ PositionFactory.SIDE_TO_MOVE
+                    ^ PositionFactory.PIECE_SQUARE[piece][from] ^ PositionFactory.PIECE_SQUARE[piece][to];
+            for (int i = 3; i <= end && i < searchPly; i += 2) {
+                if (board[top - i] == key) return true;
+            }
+        }
+        return false;
+    }
+}